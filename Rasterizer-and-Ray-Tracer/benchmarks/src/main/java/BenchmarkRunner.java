@@ -0,0 +1,25 @@
+package main.java;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line options and
+ * always adds the GC profiler so allocation rates are reported with every result.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		
+		new Runner(options).run();
+	}
+}
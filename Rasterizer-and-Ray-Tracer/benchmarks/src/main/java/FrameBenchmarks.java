@@ -0,0 +1,72 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * End to end frame render (clear, project, fill) of each bundled model at 
+ * several resolutions, without writing the image out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameBenchmarks {
+	
+	@Param({"blub.ply", "duck.ply", "plane.ply", "airplane.ply", "Seymour.ply", "teapot.ply"})
+	public String model;
+	
+	@Param({"640x360", "1280x720", "2560x1440"})
+	public String resolution;
+	
+	@Param({"EDGE_FUNCTION", "SCANLINE"})
+	public FillMode fillMode;
+	
+	@Param({"1"})
+	public int threads;
+	
+	@Param({"false"})
+	public boolean deferred;
+	
+	@Param({"1"})
+	public int samples;
+	
+	private Rasterizer rasterizer;
+	
+	@Setup
+	public void setup() throws IOException {
+		int width = Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+		int height = Integer.parseInt(resolution.substring(resolution.indexOf('x')+1));
+		
+		RenderObject object = new RenderObject(model);
+		Camera camera = new Camera();
+		camera.setR(camera.Ry90);
+		camera.calibrate(object.getPoints(), width, height, true);
+		
+		rasterizer = new Rasterizer(object, camera, width, height);
+		rasterizer.setFillMode(fillMode);
+		rasterizer.setThreads(threads);
+		rasterizer.setDeferred(deferred);
+		rasterizer.setSamples(samples);
+	}
+	
+	@Benchmark
+	public ImageBuffer render() {
+		rasterizer.renderFrame();
+		return rasterizer.getImageBuffer();
+	}
+}
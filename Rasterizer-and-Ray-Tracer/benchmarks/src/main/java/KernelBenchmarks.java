@@ -0,0 +1,61 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Whole frames (projection and fill) with the scalar and the vector kernels. The
+ * vector kernels need the renderer installed with "mvn -Pvector install"; each
+ * setting runs in its own fork as the kernels are picked once at startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelBenchmarks {
+	
+	@Param({"airplane.ply", "blub.ply"})
+	public String model;
+	
+	@Param({"scalar", "vector"})
+	public String kernels;
+	
+	private Rasterizer rasterizer;
+	
+	@Setup
+	public void setup() throws IOException {
+		// Before anything touches Kernels.DEFAULT
+		System.setProperty("rasterizer.kernels", kernels);
+		if (!Kernels.DEFAULT.name().startsWith(kernels)) {
+			throw new IllegalStateException("Asked for " + kernels + " kernels but got " 
+					+ Kernels.DEFAULT.name() + ", install the renderer with -Pvector");
+		}
+		
+		RenderObject object = new RenderObject(model);
+		Camera camera = new Camera();
+		camera.setR(camera.Ry90);
+		rasterizer = new Rasterizer(object, camera);
+		camera.calibrate(object.getPoints(), rasterizer.getImageBuffer().getWidth(), 
+				rasterizer.getImageBuffer().getHeight(), true);
+	}
+	
+	@Benchmark
+	public ImageBuffer render() {
+		rasterizer.renderFrame();
+		return rasterizer.getImageBuffer();
+	}
+}
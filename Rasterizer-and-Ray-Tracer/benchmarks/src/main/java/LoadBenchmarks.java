@@ -0,0 +1,58 @@
+package main.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Time to read each bundled model from its PLY file, and from a warm mesh cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmarks {
+	
+	@Param({"blub.ply", "duck.ply", "plane.ply", "airplane.ply", "Seymour.ply", "teapot.ply"})
+	public String model;
+	
+	private Path file, cacheDirectory;
+	
+	@Setup
+	public void setup() throws IOException {
+		// The cache is keyed on a file on disk, so copy the model out of the jar
+		Path directory = Files.createTempDirectory("rasterizer-load");
+		file = directory.resolve(model);
+		try (InputStream in = RenderObject.class.getClassLoader().getResourceAsStream(model)) {
+			Files.copy(in, file);
+		}
+		cacheDirectory = directory.resolve("cache");
+		RenderObject.loadCached(file, cacheDirectory);
+	}
+
+	@Benchmark
+	public RenderObject load() throws IOException {
+		return new RenderObject(model);
+	}
+	
+	@Benchmark
+	public RenderObject loadCached() throws IOException {
+		return RenderObject.loadCached(file, cacheDirectory);
+	}
+}
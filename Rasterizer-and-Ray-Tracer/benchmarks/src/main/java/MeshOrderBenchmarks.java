@@ -0,0 +1,95 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Transform and fill of models reordered by MeshOptimizer, against the order of
+ * their file. The FIFO cache miss ratio of each order is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeshOrderBenchmarks {
+	
+	@Param({"Seymour.ply", "plane.ply"})
+	public String model;
+	
+	@Param({"FILE", "MORTON", "VERTEX_CACHE"})
+	public MeshOrder order;
+	
+	private RenderObject object;
+	
+	private Camera camera;
+	
+	private Rasterizer rasterizer;
+	
+	private ProjectedVertices projected = new ProjectedVertices(0);
+	
+	private final FillScratch scratch = new FillScratch();
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		object = new RenderObject(model).reorder(order);
+		camera = new Camera();
+		camera.setR(camera.Ry90);
+		rasterizer = new Rasterizer(object, camera);
+		camera.calibrate(object.getPoints(), rasterizer.getImageBuffer().getWidth(), 
+				rasterizer.getImageBuffer().getHeight(), true);
+		rasterizer.projectVertices();
+		
+		System.out.printf("%n%s %s: %.3f cache misses per triangle%n", model, order, 
+				MeshOptimizer.cacheMissRatio(object.getIndices(), object.getPointsX().length, 
+						MeshOptimizer.CACHE_SIZE));
+	}
+	
+	/*
+	 * Image and Z buffers cleared before every invocation, only taken by fill as
+	 * transform does not use them and frame clears them itself
+	 */
+	@State(Scope.Benchmark)
+	public static class EmptyBuffers {
+		
+		@Setup(Level.Invocation)
+		public void clear(MeshOrderBenchmarks orders) {
+			orders.rasterizer.getImageBuffer().reset();
+			orders.rasterizer.getZBuffer().reset();
+		}
+	}
+	
+	@Benchmark
+	public ProjectedVertices transform() {
+		camera.perspectiveProjection(object.getPointsX(), object.getPointsY(), 
+				object.getPointsZ(), projected);
+		return projected;
+	}
+	
+	@Benchmark
+	public void fill(EmptyBuffers empty) {
+		for (int face=0; face<object.getFaceCount(); face++) {
+			rasterizer.fillTriangle(face, 0, 0, 2560, 1440, scratch);
+		}
+	}
+	
+	@Benchmark
+	public ImageBuffer frame() {
+		rasterizer.renderFrame();
+		return rasterizer.getImageBuffer();
+	}
+}
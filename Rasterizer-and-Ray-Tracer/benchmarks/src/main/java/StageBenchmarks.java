@@ -0,0 +1,191 @@
+package main.java;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Individual stages of a frame, each run over every vertex or face of a model
+ * at 2560x1440. Lives in the renderer's package to reach its per-polygon methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmarks {
+	
+	@Param({"blub.ply", "plane.ply"})
+	public String model;
+	
+	private RenderObject object;
+	
+	private Camera camera;
+	
+	private Rasterizer rasterizer;
+	
+	private ProjectedVertices projected = new ProjectedVertices(0);
+	
+	private final FillScratch scratch = new FillScratch();
+	
+	private float[][][] polygonPixels;
+	
+	private List<SortedMap<Integer, LinkedList<float[]>>> edgeLists;
+	
+	// Depths of a rendered frame, random pixels and depths within their range to
+	// check against them, and the rendered depths of those pixels
+	private ZBuffer depths;
+	private int[] checkX, checkY;
+	private float[] checkZ, renderedZ;
+	
+	/*
+	 * Image and Z buffers cleared before every invocation, only taken by the
+	 * benchmarks that fill so the others do not follow a clear of both buffers
+	 */
+	@State(Scope.Benchmark)
+	public static class EmptyBuffers {
+		
+		@Setup(Level.Invocation)
+		public void clear(StageBenchmarks stages) {
+			stages.rasterizer.getImageBuffer().reset();
+			stages.rasterizer.getZBuffer().reset();
+		}
+	}
+	
+	/*
+	 * Puts back the rendered depths of the checked pixels before every invocation,
+	 * as checks that pass overwrite them
+	 */
+	@State(Scope.Benchmark)
+	public static class RenderedDepths {
+		
+		@Setup(Level.Invocation)
+		public void restore(StageBenchmarks stages) {
+			float[] buffer = stages.depths.getBuffer();
+			int width = stages.depths.getWidth();
+			for (int i=0; i<stages.checkX.length; i++) {
+				buffer[(stages.checkY[i]*width) + stages.checkX[i]] = stages.renderedZ[i];
+			}
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		object = new RenderObject(model);
+		camera = new Camera();
+		camera.setR(camera.Ry90);
+		rasterizer = new Rasterizer(object, camera);
+		camera.calibrate(object.getPoints(), rasterizer.getImageBuffer().getWidth(), 
+				rasterizer.getImageBuffer().getHeight(), true);
+		rasterizer.projectVertices();
+		
+		int faceCount = object.getFaceCount();
+		polygonPixels = new float[faceCount][][];
+		edgeLists = new ArrayList<SortedMap<Integer, LinkedList<float[]>>>(faceCount);
+		for (int i=0; i<faceCount; i++) {
+			polygonPixels[i] = rasterizer.projectToPixelCoords(i);
+			edgeLists.add(rasterizer.constructEdgeList(polygonPixels[i]));
+		}
+		
+		// A frame of its own, the fill benchmarks keep clearing the rasterizer's buffers
+		Rasterizer rendered = new Rasterizer(object, camera);
+		rendered.renderFrame();
+		depths = rendered.getZBuffer();
+		float near = depths.getMin(), far = depths.getMax();
+		
+		java.util.Random random = new java.util.Random(42);
+		checkX = new int[1 << 16];
+		checkY = new int[1 << 16];
+		checkZ = new float[1 << 16];
+		renderedZ = new float[1 << 16];
+		for (int i=0; i<checkX.length; i++) {
+			checkX[i] = random.nextInt(depths.getWidth());
+			checkY[i] = random.nextInt(depths.getHeight());
+			checkZ[i] = near + (random.nextFloat() * (far - near));
+			renderedZ[i] = depths.getBuffer()[(checkY[i]*depths.getWidth()) + checkX[i]];
+		}
+	}
+	
+	@Benchmark
+	public Camera calibrate() {
+		camera.setR(camera.Ry90);
+		camera.calibrate(object.getPoints(), 2560, 1440, true);
+		return camera;
+	}
+	
+	// Projecting one face at a time, as done before vertices were batched
+	@Benchmark
+	public void projectPerFace(Blackhole blackhole) {
+		float[][] points = object.getPoints();
+		for (int[] face : object.getFaces()) {
+			float[][] polygon = {points[face[0]], points[face[1]], points[face[2]]};
+			blackhole.consume(camera.perspectiveProjection(polygon));
+		}
+	}
+	
+	@Benchmark
+	public ProjectedVertices projectBatched() {
+		camera.perspectiveProjection(object.getPointsX(), object.getPointsY(), 
+				object.getPointsZ(), projected);
+		return projected;
+	}
+	
+	@Benchmark
+	public void constructEdgeLists(Blackhole blackhole) {
+		for (float[][] polygon : polygonPixels) {
+			blackhole.consume(rasterizer.constructEdgeList(polygon));
+		}
+	}
+	
+	@Benchmark
+	public void fillScanline(EmptyBuffers empty) {
+		for (SortedMap<Integer, LinkedList<float[]>> edgeList : edgeLists) {
+			rasterizer.fillPolygon(edgeList, 0, 0, 2560, 1440);
+		}
+	}
+	
+	@Benchmark
+	public void fillEdgeFunction(EmptyBuffers empty) {
+		for (int face=0; face<object.getFaceCount(); face++) {
+			rasterizer.fillTriangle(face, 0, 0, 2560, 1440, scratch);
+		}
+	}
+	
+	// Same fill with subpixel vertices and the top-left rule
+	@Benchmark
+	public void fillSubpixel(EmptyBuffers empty) {
+		rasterizer.setFillMode(FillMode.SUBPIXEL);
+		for (int face=0; face<object.getFaceCount(); face++) {
+			rasterizer.fillTriangle(face, 0, 0, 2560, 1440, scratch);
+		}
+		rasterizer.setFillMode(FillMode.EDGE_FUNCTION);
+	}
+	
+	@Benchmark
+	public int zBufferCheck(RenderedDepths rendered) {
+		ZBuffer zBuffer = depths;
+		int passed = 0;
+		for (int i=0; i<checkX.length; i++) {
+			if (zBuffer.check(checkX[i], checkY[i], checkZ[i])) passed++;
+		}
+		return passed;
+	}
+}
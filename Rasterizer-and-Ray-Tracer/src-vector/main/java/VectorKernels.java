@@ -0,0 +1,177 @@
+package main.java;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * Render kernels written with the Java Vector API. Only built by the "vector" 
+ * Maven profile and needs --add-modules jdk.incubator.vector at runtime.
+ * 
+ * Each lane performs exactly the same float operations as ScalarKernels so the
+ * two give bit identical output.
+ */
+public class VectorKernels implements Kernels {
+	
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	
+	// Same number of lanes as FLOATS so masks can be converted between the two
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	
+	// 2^23, the smallest float with no fractional bits, and its bit pattern
+	private static final float MAGIC = 8388608f;
+	private static final int MAGIC_BITS = Float.floatToIntBits(MAGIC);
+	
+	// Lane numbers 0, 1, 2, ... as floats
+	private static final FloatVector IOTA = 
+			(FloatVector) IntVector.zero(INTS).addIndex(1).convert(VectorOperators.I2F, 0);
+
+	@Override
+	public void project(float[][] KR_t, float[] x, float[] y, float[] z, ProjectedVertices projected) {
+		float 	m00 = KR_t[0][0], m01 = KR_t[0][1], m02 = KR_t[0][2], m03 = KR_t[0][3], 
+				m10 = KR_t[1][0], m11 = KR_t[1][1], m12 = KR_t[1][2], m13 = KR_t[1][3], 
+				m20 = KR_t[2][0], m21 = KR_t[2][1], m22 = KR_t[2][2], m23 = KR_t[2][3];
+		
+		int count = x.length;
+		projected.resize(count);
+		float[] px = projected.x, py = projected.y, pz = projected.z;
+		
+		int n = 0;
+		for (int upper = FLOATS.loopBound(count); n<upper; n+=FLOATS.length()) {
+			FloatVector vx = FloatVector.fromArray(FLOATS, x, n);
+			FloatVector vy = FloatVector.fromArray(FLOATS, y, n);
+			FloatVector vz = FloatVector.fromArray(FLOATS, z, n);
+			
+			FloatVector tx = vx.mul(m00).add(vy.mul(m01)).add(vz.mul(m02)).add(m03);
+			FloatVector ty = vx.mul(m10).add(vy.mul(m11)).add(vz.mul(m12)).add(m13);
+			FloatVector tz = vx.mul(m20).add(vy.mul(m21)).add(vz.mul(m22)).add(m23);
+			
+			// Vertices with z = 0 are left at 0
+			VectorMask<Float> zero = tz.compare(VectorOperators.EQ, 0f);
+			tx.div(tz).blend(0f, zero).intoArray(px, n);
+			ty.div(tz).blend(0f, zero).intoArray(py, n);
+			tz.intoArray(pz, n);
+		}
+		
+		// Remaining vertices
+		for (; n<count; n++) {
+			float 	tx = (m00*x[n] + m01*y[n] + m02*z[n]) + m03, 
+					ty = (m10*x[n] + m11*y[n] + m12*z[n]) + m13, 
+					tz = (m20*x[n] + m21*y[n] + m22*z[n]) + m23;
+			
+			if (tz != 0) {
+				px[n] = tx/tz;
+				py[n] = ty/tz;
+				pz[n] = tz;
+			}
+			else {
+				px[n] = 0;
+				py[n] = 0;
+				pz[n] = 0;
+			}
+		}
+	}
+
+	@Override
+	public int fillSpan(float[] depth, int[] pixels, int offset, int start, int end, 
+			float z, float dzdx, float r, float drdx, float g, float dgdx, float b, float dbdx) {
+		int written = 0;
+		int k = start;
+		
+		for (int upper = start + FLOATS.loopBound(end-start); k<upper; k+=FLOATS.length()) {
+			FloatVector lane = IOTA.add((float) k);
+			FloatVector pixelZ = lane.mul(dzdx).add(z);
+			
+			VectorMask<Float> closer = pixelZ.lt(FloatVector.fromArray(FLOATS, depth, offset+k));
+			if (!closer.anyTrue()) continue;
+			
+			pixelZ.intoArray(depth, offset+k, closer);
+			written += closer.trueCount();
+			
+			IntVector rgb = toByte(lane.mul(drdx).add(r)).lanewise(VectorOperators.LSHL, 16)
+					.or(toByte(lane.mul(dgdx).add(g)).lanewise(VectorOperators.LSHL, 8))
+					.or(toByte(lane.mul(dbdx).add(b)));
+			rgb.intoArray(pixels, offset+k, closer.cast(INTS));
+		}
+		
+		// Remaining pixels
+		for (; k<end; k++) {
+			float pixelZ = z + k*dzdx;
+			int i = offset + k;
+			
+			if (pixelZ < depth[i]) {
+				depth[i] = pixelZ;
+				pixels[i] = ImageBuffer.convertToRGB(r + k*drdx, g + k*dgdx, b + k*dbdx) & 0xFFFFFF;
+				written++;
+			}
+		}
+		
+		return written;
+	}
+	
+	@Override
+	public int fillVisibilitySpan(float[] depth, int[] triangles, float[] u, float[] v, int offset, 
+			int start, int end, float z, float dzdx, int triangle, float l1, float dl1dx, 
+			float l2, float dl2dx) {
+		int written = 0;
+		int k = start;
+		IntVector ids = IntVector.broadcast(INTS, triangle);
+		
+		for (int upper = start + FLOATS.loopBound(end-start); k<upper; k+=FLOATS.length()) {
+			FloatVector lane = IOTA.add((float) k);
+			FloatVector pixelZ = lane.mul(dzdx).add(z);
+			
+			VectorMask<Float> closer = pixelZ.lt(FloatVector.fromArray(FLOATS, depth, offset+k));
+			if (!closer.anyTrue()) continue;
+			
+			pixelZ.intoArray(depth, offset+k, closer);
+			ids.intoArray(triangles, offset+k, closer.cast(INTS));
+			lane.mul(dl1dx).add(l1).intoArray(u, offset+k, closer);
+			lane.mul(dl2dx).add(l2).intoArray(v, offset+k, closer);
+			written += closer.trueCount();
+		}
+		
+		// Remaining pixels
+		for (; k<end; k++) {
+			float pixelZ = z + k*dzdx;
+			int i = offset + k;
+			
+			if (pixelZ < depth[i]) {
+				depth[i] = pixelZ;
+				triangles[i] = triangle;
+				u[i] = l1 + k*dl1dx;
+				v[i] = l2 + k*dl2dx;
+				written++;
+			}
+		}
+		
+		return written;
+	}
+	
+	/*
+	 * Clamps colour channels to 0..1 and scales them to 0..255, rounding half up
+	 * exactly as ImageBuffer.convertToRGB does in double precision.
+	 * 
+	 * Float to int conversion is slow in the Vector API so values are rounded with
+	 * float operations, then adding 2^23 leaves the integer in the low mantissa bits.
+	 */
+	private static IntVector toByte(FloatVector channel) {
+		FloatVector scaled = channel.max(0f).min(1f).mul(255f);
+		
+		// Adding and removing 2^23 rounds to the nearest integer, step down to the floor
+		FloatVector nearest = scaled.add(MAGIC).sub(MAGIC);
+		FloatVector floor = nearest.sub(1f, nearest.compare(VectorOperators.GT, scaled));
+		
+		// Fraction is exact, so compare with 0.5 instead of adding it in float
+		FloatVector rounded = floor.add(1f, scaled.sub(floor).compare(VectorOperators.GE, 0.5f));
+		
+		return rounded.add(MAGIC).reinterpretAsInts().sub(MAGIC_BITS);
+	}
+
+	@Override
+	public String name() {
+		return "vector (" + FLOATS.length() + " lanes)";
+	}
+}
@@ -0,0 +1,267 @@
+package main.java;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Renders a sequence of frames along a camera path with one renderer, so the
+ * mesh, its projected vertex buffers, BVH and image and Z buffers are built once
+ * and reused for every frame.
+ *
+ * Finished frames are copied into a small fixed pool of images and handed to an
+ * ImageEncoder, whose threads write several frames at once while the next is
+ * rendered. An image goes back to the pool when its write completes. When every
+ * image in the pool is waiting to be written the renderer blocks, which bounds
+ * memory however long the sequence is.
+ */
+public class Animation {
+	
+	// A pooled frame, its pixels are those of the image
+	private static class Frame {
+		final BufferedImage image;
+		final int[] pixels;
+		
+		Frame(int width, int height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		}
+	}
+	
+	private final Renderer renderer;
+	
+	private final Camera camera;
+	
+	// Frames that may be rendered but not yet written
+	private int queueCapacity = 4;
+	
+	// Threads writing frames
+	private int encoderThreads = 2;
+	
+	// Totals for the last sequence in nanoseconds
+	private long renderTime, waitTime, encodeTime, totalTime;
+	
+	private int frames;
+	
+	/*
+	 * @param renderer Renderer to draw every frame with
+	 * @param camera Camera the renderer draws from, moved along the path
+	 */
+	public Animation(Renderer renderer, Camera camera) {
+		this.renderer = renderer;
+		this.camera = camera;
+	}
+	
+	/*
+	 * @param queueCapacity Number of frames that may wait to be written
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+	
+	/*
+	 * @return queueCapacity
+	 */
+	public int getQueueCapacity() {
+		return this.queueCapacity;
+	}
+	
+	/*
+	 * @param encoderThreads Number of threads writing frames
+	 */
+	public void setEncoderThreads(int encoderThreads) {
+		if (encoderThreads < 1) {
+			throw new IllegalArgumentException("Encoder thread count must be at least 1");
+		}
+		this.encoderThreads = encoderThreads;
+	}
+	
+	/*
+	 * @return encoderThreads
+	 */
+	public int getEncoderThreads() {
+		return this.encoderThreads;
+	}
+	
+	/*
+	 * Renders every pose of a path and writes each frame, in the format given by
+	 * the pattern's extension
+	 *
+	 * @param path Camera poses, one per frame
+	 * @param directory Directory to write the frames to, created if missing
+	 * @param pattern File name format given the frame index, e.g. frame_%04d.jpg
+	 * @throws IOException If a frame cannot be written
+	 * @throws CancellationException If interrupted before every frame is written, 
+	 * with the thread's interrupt status set
+	 */
+	public void render(CameraPath path, Path directory, String pattern) throws IOException {
+		// Fail on an unknown extension before rendering anything
+		ImageFormat.fromFileName(pattern);
+		Files.createDirectories(directory);
+		
+		int width = renderer.getImageBuffer().getWidth(), height = renderer.getImageBuffer().getHeight();
+		BlockingQueue<Frame> free = new ArrayBlockingQueue<Frame>(queueCapacity);
+		for (int i=0; i<queueCapacity; i++) {
+			free.add(new Frame(width, height));
+		}
+		
+		List<CompletableFuture<Path>> writes = new ArrayList<CompletableFuture<Path>>(path.size());
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		
+		renderTime = waitTime = encodeTime = 0;
+		frames = 0;
+		long start = System.nanoTime();
+		
+		try (ImageEncoder encoder = new ImageEncoder(encoderThreads)) {
+			for (int i=0; i<path.size(); i++) {
+				long frameStart = System.nanoTime();
+				path.apply(i, camera);
+				renderer.renderFrame();
+				renderTime += System.nanoTime() - frameStart;
+				
+				long waitStart = System.nanoTime();
+				Frame frame = nextFree(free, failure);
+				waitTime += System.nanoTime() - waitStart;
+				
+				System.arraycopy(renderer.getImageBuffer().getPixels(), 0, frame.pixels, 0, frame.pixels.length);
+				writes.add(encoder.write(frame.image, directory.resolve(String.format(pattern, i)))
+						.whenComplete((file, e) -> {
+							if (e != null) {
+								failure.compareAndSet(null, e);
+							}
+							free.add(frame);
+						}));
+				frames++;
+			}
+			
+			CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+			encodeTime = encoder.getEncodeTime();
+		
+		} catch (InterruptedException e) {
+			// The sequence is incomplete, so give up on it rather than return part of one
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while waiting for a frame to be written");
+		} catch (CompletionException e) {
+			throw rethrow(e.getCause());
+		}
+		
+		totalTime = System.nanoTime() - start;
+	}
+	
+	/*
+	 * Waits for an image to copy the next frame into, giving up as soon as a
+	 * write has failed so the failure can be reported
+	 */
+	private static Frame nextFree(BlockingQueue<Frame> free, AtomicReference<Throwable> failure)
+			throws InterruptedException, IOException {
+		Frame frame;
+		do {
+			if (failure.get() != null) {
+				throw rethrow(failure.get());
+			}
+		} while ((frame = free.poll(100, TimeUnit.MILLISECONDS)) == null);
+		
+		return frame;
+	}
+	
+	/*
+	 * Unwraps a failed write to the IOException behind it
+	 */
+	private static IOException rethrow(Throwable cause) {
+		if (cause instanceof CompletionException) {
+			cause = cause.getCause();
+		}
+		if (cause instanceof UncheckedIOException) {
+			return ((UncheckedIOException) cause).getCause();
+		}
+		throw new RuntimeException(cause);
+	}
+	
+	/*
+	 * Renders a turntable of the default model with the default camera into the
+	 * frames directory
+	 *
+	 * @param frameCount Number of frames in a full turn
+	 * @param threads Number of render threads
+	 */
+	public static void turntable(int frameCount, int threads) {
+		try {
+			RenderObject object = new RenderObject();
+			Camera camera = new Camera();
+			camera.setR(camera.Ry90);
+			
+			Rasterizer rasterizer = new Rasterizer(object, camera);
+			rasterizer.setThreads(threads);
+			camera.calibrate(object.getPoints(), rasterizer.getImageBuffer().getWidth(),
+					rasterizer.getImageBuffer().getHeight(), true);
+			
+			Animation animation = new Animation(rasterizer, camera);
+			animation.render(CameraPath.turntable(camera, object.getBoundingBox(), frameCount),
+					Paths.get("frames"), "frame_%04d.jpg");
+			System.out.println(animation);
+		
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		System.out.println("Complete");
+	}
+	
+	/*
+	 * @return frames Number of frames rendered in the last sequence
+	 */
+	public int getFrames() {
+		return this.frames;
+	}
+	
+	/*
+	 * @return renderTime Nanoseconds spent rendering in the last sequence
+	 */
+	public long getRenderTime() {
+		return this.renderTime;
+	}
+	
+	/*
+	 * @return waitTime Nanoseconds the renderer waited for the encoder in the last sequence
+	 */
+	public long getWaitTime() {
+		return this.waitTime;
+	}
+	
+	/*
+	 * @return encodeTime Nanoseconds spent encoding in the last sequence, summed over every encoder thread
+	 */
+	public long getEncodeTime() {
+		return this.encodeTime;
+	}
+	
+	/*
+	 * @return totalTime Nanoseconds from the first frame starting to the last being written
+	 */
+	public long getTotalTime() {
+		return this.totalTime;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("Animation: %d frames in %.1f ms (%.1f fps), render %.1f ms, "
+				+ "encode %.1f ms, waiting for encoder %.1f ms", frames, totalTime / 1e6,
+				frames / (totalTime / 1e9), renderTime / 1e6, encodeTime / 1e6, waitTime / 1e6);
+	}
+}
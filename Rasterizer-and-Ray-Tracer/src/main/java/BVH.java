@@ -0,0 +1,581 @@
+package main.java;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Bounding volume hierarchy over the triangles of a RenderObject, built with
+ * the surface area heuristic evaluated over a fixed number of centroid bins.
+ *
+ * The finished tree is flattened into primitive arrays in depth first order so
+ * a node's left child always directly follows it:
+ * - nodeBounds holds minX, minY, minZ, maxX, maxY, maxZ for each node
+ * - nodeData holds two ints per node. For a leaf these are the first triangle
+ *   and the triangle count, for an inner node the index of the right child and
+ *   -1 - the split axis.
+ * Triangles are stored in leaf order, each as a vertex and two edges, so the
+ * triangles of a leaf sit next to each other in memory.
+ */
+public class BVH {
+	
+	// Number of centroid bins the surface area heuristic is evaluated over
+	private static final int BINS = 16;
+	
+	// Leaves are always made at or below this many triangles
+	private static final int MIN_LEAF_SIZE = 2;
+	
+	// Leaves above this size are split even when the heuristic prefers not to
+	private static final int MAX_LEAF_SIZE = 16;
+	
+	// Cost of visiting a node relative to testing one triangle
+	private static final float TRAVERSAL_COST = 1f;
+	
+	// Ranges smaller than this are built on the current thread
+	private static final int PARALLEL_THRESHOLD = 4096;
+	
+	private static final float EPSILON = 1e-7f;
+	
+	private float[] nodeBounds;
+	
+	private int[] nodeData;
+	
+	// Face index of each triangle, in leaf order
+	private int[] faces;
+	
+	// v0, v1 - v0, v2 - v0 of each triangle, in leaf order
+	private float[] triangles;
+	
+	private int nodeCount, leafCount, depth;
+	
+	private long buildTime;
+	
+	/*
+	 * Result of a ray query
+	 */
+	public static class Hit {
+		// Distance along the ray, in multiples of the direction vector
+		public float t;
+		// Face index in the RenderObject, -1 if nothing was hit
+		public int face = -1;
+		// Barycentric weights of the second and third vertex
+		public float u, v;
+		
+		// Traversal stack, grown to the deepest tree the hit is used with so later
+		// rays allocate nothing
+		int[] stack = new int[0];
+	}
+	
+	/*
+	 * Temporary node used while building, before the tree is flattened
+	 */
+	private static class Node {
+		float[] bounds;
+		Node left, right;
+		int first, count, axis;
+	}
+	
+	/*
+	 * Builds a hierarchy on the calling thread
+	 *
+	 * @param object Object to build over
+	 */
+	public BVH(RenderObject object) {
+		this(object, 1);
+	}
+	
+	/*
+	 * Builds a hierarchy, splitting large subtrees over the given number of threads
+	 *
+	 * @param object Object to build over
+	 * @param threads Number of threads to build with
+	 */
+	public BVH(RenderObject object, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		}
+		
+		long start = System.nanoTime();
+		
+		float[] x = object.getPointsX(), y = object.getPointsY(), z = object.getPointsZ();
+		int[] indices = object.getIndices();
+		int faceCount = object.getFaceCount();
+		
+		// Triangle bounds and centroids, indexed by face
+		float[] bounds = new float[faceCount*6];
+		float[] centroids = new float[faceCount*3];
+		for (int i=0; i<faceCount; i++) {
+			int a = indices[i*3], b = indices[(i*3)+1], c = indices[(i*3)+2];
+			bounds[i*6] = Math.min(x[a], Math.min(x[b], x[c]));
+			bounds[(i*6)+1] = Math.min(y[a], Math.min(y[b], y[c]));
+			bounds[(i*6)+2] = Math.min(z[a], Math.min(z[b], z[c]));
+			bounds[(i*6)+3] = Math.max(x[a], Math.max(x[b], x[c]));
+			bounds[(i*6)+4] = Math.max(y[a], Math.max(y[b], y[c]));
+			bounds[(i*6)+5] = Math.max(z[a], Math.max(z[b], z[c]));
+			for (int axis=0; axis<3; axis++) {
+				centroids[(i*3)+axis] = (bounds[(i*6)+axis] + bounds[(i*6)+axis+3]) * 0.5f;
+			}
+		}
+		
+		faces = new int[faceCount];
+		for (int i=0; i<faceCount; i++) faces[i] = i;
+		
+		Node root;
+		if (threads > 1 && faceCount >= PARALLEL_THRESHOLD) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				root = pool.invoke(new BuildTask(bounds, centroids, 0, faceCount));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		else {
+			root = build(bounds, centroids, 0, faceCount);
+		}
+		
+		nodeCount = countNodes(root);
+		nodeBounds = new float[nodeCount*6];
+		nodeData = new int[nodeCount*2];
+		flatten(root, 0, 1);
+		
+		triangles = new float[faceCount*9];
+		for (int i=0; i<faceCount; i++) {
+			int face = faces[i];
+			int a = indices[face*3], b = indices[(face*3)+1], c = indices[(face*3)+2];
+			triangles[i*9] = x[a];
+			triangles[(i*9)+1] = y[a];
+			triangles[(i*9)+2] = z[a];
+			triangles[(i*9)+3] = x[b] - x[a];
+			triangles[(i*9)+4] = y[b] - y[a];
+			triangles[(i*9)+5] = z[b] - z[a];
+			triangles[(i*9)+6] = x[c] - x[a];
+			triangles[(i*9)+7] = y[c] - y[a];
+			triangles[(i*9)+8] = z[c] - z[a];
+		}
+		
+		buildTime = System.nanoTime() - start;
+	}
+	
+	/*
+	 * Builds subtrees in parallel until they fall below PARALLEL_THRESHOLD
+	 */
+	private class BuildTask extends RecursiveTask<Node> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final float[] bounds, centroids;
+		private final int first, count;
+		
+		BuildTask(float[] bounds, float[] centroids, int first, int count) {
+			this.bounds = bounds;
+			this.centroids = centroids;
+			this.first = first;
+			this.count = count;
+		}
+		
+		@Override
+		protected Node compute() {
+			Node node = split(bounds, centroids, first, count);
+			if (node.left == null) return node;
+			
+			BuildTask left = new BuildTask(bounds, centroids, node.left.first, node.left.count);
+			BuildTask right = new BuildTask(bounds, centroids, node.right.first, node.right.count);
+			
+			if (node.left.count >= PARALLEL_THRESHOLD) left.fork();
+			node.right = node.right.count >= PARALLEL_THRESHOLD ? right.compute() :
+				build(bounds, centroids, node.right.first, node.right.count);
+			node.left = node.left.count >= PARALLEL_THRESHOLD ? left.join() :
+				build(bounds, centroids, node.left.first, node.left.count);
+			return node;
+		}
+	}
+	
+	/*
+	 * Builds the subtree over faces[first, first + count) on the calling thread
+	 */
+	private Node build(float[] bounds, float[] centroids, int first, int count) {
+		Node node = split(bounds, centroids, first, count);
+		if (node.left != null) {
+			node.left = build(bounds, centroids, node.left.first, node.left.count);
+			node.right = build(bounds, centroids, node.right.first, node.right.count);
+		}
+		return node;
+	}
+	
+	/*
+	 * Makes a node over faces[first, first + count), partitioning the range in place
+	 * when it is worth splitting. The children of the returned node are placeholders
+	 * holding only their range.
+	 */
+	private Node split(float[] bounds, float[] centroids, int first, int count) {
+		Node node = new Node();
+		node.first = first;
+		node.count = count;
+		node.bounds = new float[] {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		float[] centroidBounds = node.bounds.clone();
+		
+		for (int i=first; i<first+count; i++) {
+			int face = faces[i];
+			for (int axis=0; axis<3; axis++) {
+				node.bounds[axis] = Math.min(node.bounds[axis], bounds[(face*6)+axis]);
+				node.bounds[axis+3] = Math.max(node.bounds[axis+3], bounds[(face*6)+axis+3]);
+				centroidBounds[axis] = Math.min(centroidBounds[axis], centroids[(face*3)+axis]);
+				centroidBounds[axis+3] = Math.max(centroidBounds[axis+3], centroids[(face*3)+axis]);
+			}
+		}
+		
+		if (count <= MIN_LEAF_SIZE) return node;
+		
+		// Find the cheapest bin boundary over all three axes
+		float bestCost = Float.POSITIVE_INFINITY;
+		int bestAxis = -1, bestSplit = -1;
+		int[] binCounts = new int[BINS];
+		float[] binBounds = new float[BINS*6];
+		float[] rightArea = new float[BINS];
+		
+		for (int axis=0; axis<3; axis++) {
+			float min = centroidBounds[axis], extent = centroidBounds[axis+3] - min;
+			if (extent <= 0) continue;
+			float scale = BINS / extent;
+			
+			Arrays.fill(binCounts, 0);
+			for (int b=0; b<BINS; b++) resetBounds(binBounds, b);
+			
+			for (int i=first; i<first+count; i++) {
+				int face = faces[i];
+				int b = Math.min(BINS-1, (int) ((centroids[(face*3)+axis] - min) * scale));
+				binCounts[b]++;
+				growBounds(binBounds, b, bounds, face);
+			}
+			
+			// Sweep from the right recording the area of everything right of each boundary
+			float[] sweep = new float[6];
+			resetBounds(sweep, 0);
+			for (int b=BINS-1; b>0; b--) {
+				growBounds(sweep, 0, binBounds, b);
+				rightArea[b] = area(sweep, 0);
+			}
+			
+			resetBounds(sweep, 0);
+			int leftCount = 0;
+			for (int b=0; b<BINS-1; b++) {
+				growBounds(sweep, 0, binBounds, b);
+				leftCount += binCounts[b];
+				int rightCount = count - leftCount;
+				if (leftCount == 0 || rightCount == 0) continue;
+				
+				float cost = (area(sweep, 0) * leftCount) + (rightArea[b+1] * rightCount);
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestSplit = b;
+				}
+			}
+		}
+		
+		float parentArea = area(node.bounds, 0);
+		boolean splitWorthwhile = bestAxis >= 0 &&
+				(count > MAX_LEAF_SIZE || TRAVERSAL_COST + (bestCost / parentArea) < count);
+		
+		if (!splitWorthwhile) {
+			// All centroids coincide, so there is no better split than an arbitrary one
+			if (bestAxis < 0 && count > MAX_LEAF_SIZE) return split(node, first + (count/2));
+			return node;
+		}
+		
+		// Partition so faces in bins up to bestSplit come first
+		float min = centroidBounds[bestAxis];
+		float scale = BINS / (centroidBounds[bestAxis+3] - min);
+		int i = first, j = first + count - 1;
+		while (i <= j) {
+			int b = Math.min(BINS-1, (int) ((centroids[(faces[i]*3)+bestAxis] - min) * scale));
+			if (b <= bestSplit) {
+				i++;
+			}
+			else {
+				int swap = faces[i];
+				faces[i] = faces[j];
+				faces[j--] = swap;
+			}
+		}
+		node.axis = bestAxis;
+		return split(node, i);
+	}
+	
+	/*
+	 * Gives a node placeholder children either side of mid
+	 */
+	private static Node split(Node node, int mid) {
+		node.left = new Node();
+		node.left.first = node.first;
+		node.left.count = mid - node.first;
+		node.right = new Node();
+		node.right.first = mid;
+		node.right.count = node.first + node.count - mid;
+		return node;
+	}
+	
+	private static int countNodes(Node node) {
+		return node.left == null ? 1 : 1 + countNodes(node.left) + countNodes(node.right);
+	}
+	
+	/*
+	 * Writes a subtree into the flat arrays starting at index
+	 *
+	 * @return index after the last node of the subtree
+	 */
+	private int flatten(Node node, int index, int level) {
+		System.arraycopy(node.bounds, 0, nodeBounds, index*6, 6);
+		depth = Math.max(depth, level);
+		
+		if (node.left == null) {
+			leafCount++;
+			nodeData[index*2] = node.first;
+			nodeData[(index*2)+1] = node.count;
+			return index + 1;
+		}
+		
+		int right = flatten(node.left, index + 1, level + 1);
+		nodeData[index*2] = right;
+		nodeData[(index*2)+1] = -1 - node.axis;
+		return flatten(node.right, right, level + 1);
+	}
+	
+	/*
+	 * Finds the closest triangle hit by a ray
+	 *
+	 * @param ox, oy, oz Ray origin
+	 * @param dx, dy, dz Ray direction
+	 * @param tMax Ignore hits further than this along the ray
+	 * @param hit Filled in with the closest hit
+	 * @return Whether anything was hit
+	 */
+	public boolean intersect(float ox, float oy, float oz, float dx, float dy, float dz,
+			float tMax, Hit hit) {
+		hit.face = -1;
+		hit.t = tMax;
+		if (nodeCount == 0) return false;
+		
+		float invX = 1f / dx, invY = 1f / dy, invZ = 1f / dz;
+		boolean negX = dx < 0, negY = dy < 0, negZ = dz < 0;
+		
+		int[] stack = stack(hit, depth);
+		int top = 0, node = 0;
+		
+		while (true) {
+			if (slab(node, ox, oy, oz, invX, invY, invZ, hit.t)) {
+				int a = nodeData[node*2], b = nodeData[(node*2)+1];
+				
+				if (b >= 0) {
+					for (int i=a; i<a+b; i++) {
+						intersectTriangle(i, ox, oy, oz, dx, dy, dz, hit);
+					}
+				}
+				else {
+					// Visit the child nearer the ray origin first
+					if (b == -1 ? negX : b == -2 ? negY : negZ) {
+						stack[top++] = node + 1;
+						node = a;
+					}
+					else {
+						stack[top++] = a;
+						node = node + 1;
+					}
+					continue;
+				}
+			}
+			if (top == 0) break;
+			node = stack[--top];
+		}
+		return hit.face >= 0;
+	}
+	
+	/*
+	 * @param hit Hit whose stack to use
+	 * @param depth Levels of the tree to traverse
+	 * @return stack Room for the deepest path through the tree
+	 */
+	static int[] stack(Hit hit, int depth) {
+		if (hit.stack.length <= depth) {
+			hit.stack = new int[depth + 1];
+		}
+		return hit.stack;
+	}
+	
+	/*
+	 * Ray against a node's bounds, rejecting boxes entirely beyond tMax
+	 */
+	private boolean slab(int node, float ox, float oy, float oz, float invX, float invY, float invZ,
+			float tMax) {
+		int n = node*6;
+		float t0 = (nodeBounds[n] - ox) * invX, t1 = (nodeBounds[n+3] - ox) * invX;
+		float near = Math.min(t0, t1), far = Math.max(t0, t1);
+		t0 = (nodeBounds[n+1] - oy) * invY;
+		t1 = (nodeBounds[n+4] - oy) * invY;
+		near = Math.max(near, Math.min(t0, t1));
+		far = Math.min(far, Math.max(t0, t1));
+		t0 = (nodeBounds[n+2] - oz) * invZ;
+		t1 = (nodeBounds[n+5] - oz) * invZ;
+		near = Math.max(near, Math.min(t0, t1));
+		far = Math.min(far, Math.max(t0, t1));
+		return near <= far && far >= 0 && near <= tMax;
+	}
+	
+	/*
+	 * Moller-Trumbore test against one triangle, updating hit if it is closer
+	 */
+	private void intersectTriangle(int i, float ox, float oy, float oz, float dx, float dy, float dz,
+			Hit hit) {
+		int n = i*9;
+		float e1x = triangles[n+3], e1y = triangles[n+4], e1z = triangles[n+5];
+		float e2x = triangles[n+6], e2y = triangles[n+7], e2z = triangles[n+8];
+		
+		float px = (dy*e2z) - (dz*e2y), py = (dz*e2x) - (dx*e2z), pz = (dx*e2y) - (dy*e2x);
+		float det = (e1x*px) + (e1y*py) + (e1z*pz);
+		if (det > -EPSILON && det < EPSILON) return;
+		float invDet = 1f / det;
+		
+		float sx = ox - triangles[n], sy = oy - triangles[n+1], sz = oz - triangles[n+2];
+		float u = ((sx*px) + (sy*py) + (sz*pz)) * invDet;
+		if (u < 0 || u > 1) return;
+		
+		float qx = (sy*e1z) - (sz*e1y), qy = (sz*e1x) - (sx*e1z), qz = (sx*e1y) - (sy*e1x);
+		float v = ((dx*qx) + (dy*qy) + (dz*qz)) * invDet;
+		if (v < 0 || u + v > 1) return;
+		
+		float t = ((e2x*qx) + (e2y*qy) + (e2z*qz)) * invDet;
+		if (t <= 0 || t >= hit.t) return;
+		
+		hit.t = t;
+		hit.face = faces[i];
+		hit.u = u;
+		hit.v = v;
+	}
+	
+	/*
+	 * Collects the faces in leaves whose bounds are at least partly inside every plane,
+	 * for culling against a view frustum
+	 *
+	 * @param planes a, b, c, d of each plane, inside where ax + by + cz + d >= 0
+	 * @param out Receives face indices, needs room for every face
+	 * @return Number of faces written to out
+	 */
+	public int query(float[][] planes, int[] out) {
+		if (nodeCount == 0) return 0;
+		
+		int[] stack = new int[depth + 1];
+		int top = 0, count = 0;
+		stack[top++] = 0;
+		
+		while (top > 0) {
+			int node = stack[--top];
+			if (outside(node, planes)) continue;
+			
+			int a = nodeData[node*2], b = nodeData[(node*2)+1];
+			if (b >= 0) {
+				System.arraycopy(faces, a, out, count, b);
+				count += b;
+			}
+			else {
+				stack[top++] = a;
+				stack[top++] = node + 1;
+			}
+		}
+		return count;
+	}
+	
+	/*
+	 * Whether a node's bounds lie entirely behind any one of the planes
+	 */
+	private boolean outside(int node, float[][] planes) {
+		int n = node*6;
+		for (float[] plane : planes) {
+			// Corner furthest along the plane normal
+			float x = plane[0] >= 0 ? nodeBounds[n+3] : nodeBounds[n];
+			float y = plane[1] >= 0 ? nodeBounds[n+4] : nodeBounds[n+1];
+			float z = plane[2] >= 0 ? nodeBounds[n+5] : nodeBounds[n+2];
+			if ((plane[0]*x) + (plane[1]*y) + (plane[2]*z) + plane[3] < 0) return true;
+		}
+		return false;
+	}
+	
+	private static void resetBounds(float[] boxes, int box) {
+		for (int axis=0; axis<3; axis++) {
+			boxes[(box*6)+axis] = Float.POSITIVE_INFINITY;
+			boxes[(box*6)+axis+3] = Float.NEGATIVE_INFINITY;
+		}
+	}
+	
+	private static void growBounds(float[] boxes, int box, float[] other, int otherBox) {
+		for (int axis=0; axis<3; axis++) {
+			boxes[(box*6)+axis] = Math.min(boxes[(box*6)+axis], other[(otherBox*6)+axis]);
+			boxes[(box*6)+axis+3] = Math.max(boxes[(box*6)+axis+3], other[(otherBox*6)+axis+3]);
+		}
+	}
+	
+	/*
+	 * Half the surface area of a box, which is all the heuristic needs
+	 */
+	private static float area(float[] boxes, int box) {
+		float dx = boxes[(box*6)+3] - boxes[box*6];
+		float dy = boxes[(box*6)+4] - boxes[(box*6)+1];
+		float dz = boxes[(box*6)+5] - boxes[(box*6)+2];
+		return (dx*dy) + (dy*dz) + (dz*dx);
+	}
+	
+	/*
+	 * @return nodeBounds minX, minY, minZ, maxX, maxY, maxZ of each node
+	 */
+	public float[] getNodeBounds() {
+		return this.nodeBounds;
+	}
+	
+	/*
+	 * @return nodeData Two ints per node, see the class comment
+	 */
+	public int[] getNodeData() {
+		return this.nodeData;
+	}
+	
+	/*
+	 * @return faces Face index of each triangle in leaf order
+	 */
+	public int[] getFaces() {
+		return this.faces;
+	}
+	
+	/*
+	 * @return nodeCount
+	 */
+	public int getNodeCount() {
+		return this.nodeCount;
+	}
+	
+	/*
+	 * @return leafCount
+	 */
+	public int getLeafCount() {
+		return this.leafCount;
+	}
+	
+	/*
+	 * @return depth Number of levels, 1 for a tree of only a root
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+	
+	/*
+	 * @return buildTime Build time in nanoseconds
+	 */
+	public long getBuildTime() {
+		return this.buildTime;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("BVH: %d triangles, %d nodes, %d leaves, depth %d, built in %.2f ms",
+				faces.length, nodeCount, leafCount, depth, buildTime / 1e6);
+	}
+}
@@ -2,7 +2,35 @@ package main.java;
 
 public abstract class Buffer {
 	
-	protected int width = 2560, height = 1440;
+	// Resolution used when none is given
+	public static final int DEFAULT_WIDTH = 2560, DEFAULT_HEIGHT = 1440;
+	
+	protected int width = DEFAULT_WIDTH, height = DEFAULT_HEIGHT;
+	
+	/*
+	 * Buffer of the default size
+	 */
+	public Buffer() {
+	}
+	
+	/*
+	 * Buffer of the given size
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public Buffer(int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Buffer size must be at least 1x1, got " + width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+	}
+	
+	/*
+	 * Clears the buffer so it can be reused for another frame
+	 */
+	public abstract void reset();
 	
 	/*
 	 * @return width
@@ -0,0 +1,142 @@
+package main.java;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/*
+ * Buffers no longer in use, kept by type and size so the next render at the
+ * same resolution reuses them instead of allocating another ~14 MB Z buffer.
+ * Only a few buffers of each type and size are kept, any more are left to the
+ * garbage collector.
+ *
+ * A pooled buffer still holds whatever it held when it was released. Renderers
+ * reset their buffers at the start of every frame so this is never seen.
+ */
+public class BufferPool {
+	
+	// Pool shared by every renderer
+	public static final BufferPool SHARED = new BufferPool(2);
+	
+	// Identifies interchangeable buffers
+	private static final class Key {
+		final Class<?> type;
+		final int width, height;
+		
+		Key(Class<?> type, int width, int height) {
+			this.type = type;
+			this.width = width;
+			this.height = height;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) return false;
+			Key key = (Key) other;
+			return type == key.type && width == key.width && height == key.height;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (((type.hashCode() * 31) + width) * 31) + height;
+		}
+	}
+	
+	private final ConcurrentHashMap<Key, Deque<Buffer>> free = new ConcurrentHashMap<Key, Deque<Buffer>>();
+	
+	// Most buffers kept of one type and size
+	private final int maxPerSize;
+	
+	// Acquires served from the pool, and those that had to allocate
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+	
+	/*
+	 * @param maxPerSize Most buffers of one type and size to keep
+	 */
+	public BufferPool(int maxPerSize) {
+		if (maxPerSize < 0) {
+			throw new IllegalArgumentException("Pool size cannot be negative");
+		}
+		this.maxPerSize = maxPerSize;
+	}
+	
+	/*
+	 * @param width
+	 * @param height
+	 * @return image buffer of the given size, pooled if there is one
+	 */
+	public ImageBuffer acquireImageBuffer(int width, int height) {
+		return acquire(ImageBuffer.class, width, height, ImageBuffer::new);
+	}
+	
+	/*
+	 * @param width
+	 * @param height
+	 * @return Z buffer of the given size, pooled if there is one
+	 */
+	public ZBuffer acquireZBuffer(int width, int height) {
+		return acquire(ZBuffer.class, width, height, ZBuffer::new);
+	}
+	
+	/*
+	 * @param width
+	 * @param height
+	 * @return visibility buffer of the given size, pooled if there is one
+	 */
+	public VisibilityBuffer acquireVisibilityBuffer(int width, int height) {
+		return acquire(VisibilityBuffer.class, width, height, VisibilityBuffer::new);
+	}
+	
+	private <T extends Buffer> T acquire(Class<T> type, int width, int height, 
+			BiFunction<Integer, Integer, T> create) {
+		Deque<Buffer> buffers = free.get(new Key(type, width, height));
+		Buffer buffer = buffers != null ? buffers.pollFirst() : null;
+		
+		if (buffer == null) {
+			misses.incrementAndGet();
+			return create.apply(width, height);
+		}
+		hits.incrementAndGet();
+		return type.cast(buffer);
+	}
+	
+	/*
+	 * Hands a buffer back for reuse. It must not be used by the caller afterwards.
+	 * 
+	 * @param buffer Buffer to pool, ignored if null
+	 */
+	public void release(Buffer buffer) {
+		if (buffer == null) return;
+		
+		Deque<Buffer> buffers = free.computeIfAbsent(
+				new Key(buffer.getClass(), buffer.getWidth(), buffer.getHeight()), 
+				key -> new ConcurrentLinkedDeque<Buffer>());
+		// Two threads releasing at once may both keep theirs, a bound need not be exact
+		if (buffers.size() < maxPerSize) {
+			buffers.addFirst(buffer);
+		}
+	}
+	
+	/*
+	 * Drops every pooled buffer
+	 */
+	public void clear() {
+		free.clear();
+	}
+	
+	/*
+	 * @return hits Buffers handed out from the pool
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+	
+	/*
+	 * @return misses Buffers that had to be allocated
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+}
@@ -70,6 +70,15 @@ public class Camera {
 	
 	private float f, cx, cy;
 	
+	// Camera space depths of the near and far clipping planes
+	private float near = 0.01f, far = Float.POSITIVE_INFINITY;
+	
+	// Size on screen in pixels of the bounding box of the vertices last calibrated for
+	private float calibratedSize;
+	
+	// K * [R|t], cached until R, t or K change. Null when it must be recomputed.
+	private float[][] KR_t = null;
+	
 	/*
 	 * Initialises a camera to face an object
 	 * 
@@ -80,6 +89,7 @@ public class Camera {
 	 */
 	public void calibrate(float[][] vertices, float width, float height, boolean flip) {
 		if (flip) this.R = matMul(this.R,this.RF);
+		this.KR_t = null;
 		
 		// Find the minimum and maximum x,y,z
 		float[] min = vertices[0].clone(), max = vertices[0].clone();
@@ -109,6 +119,7 @@ public class Camera {
 		this.t[0] = (this.R[0][0]*xT) + (this.R[0][1]*yT) + (this.R[0][2]*zT);
 		this.t[1] = (this.R[1][0]*xT) + (this.R[1][1]*yT) + (this.R[1][2]*zT);
 		this.t[2] = (this.R[2][0]*xT) + (this.R[2][1]*yT) + (this.R[2][2]*zT) + (4*distance);
+		this.KR_t = null;
 		
 		// Initial project to camera coordinates using default R and K
 		float[][] projected = perspectiveProjection(vertices);
@@ -151,6 +162,71 @@ public class Camera {
 		this.K[1][2] = cy;
 		
 		this.t[0] -= 1;
+		this.KR_t = null;
+		
+		this.calibratedSize = screenSize(new float[] {min[0], min[1], min[2], max[0], max[1], max[2]});
+	}
+	
+	/*
+	 * Measures how large a world space box appears, as the longer side of the 
+	 * pixel rectangle around its projected corners. A box reaching nearer than 
+	 * the near plane could be any size so is given an infinite one.
+	 * 
+	 * @param bounds minX, minY, minZ, maxX, maxY, maxZ
+	 * @return size in pixels
+	 */
+	public float screenSize(float[] bounds) {
+		float[][] KR_t = getKR_t();
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		
+		for (int corner=0; corner<8; corner++) {
+			float x = bounds[(corner & 1) == 0 ? 0 : 3];
+			float y = bounds[(corner & 2) == 0 ? 1 : 4];
+			float z = bounds[(corner & 4) == 0 ? 2 : 5];
+			
+			float w = (KR_t[2][0]*x) + (KR_t[2][1]*y) + (KR_t[2][2]*z) + KR_t[2][3];
+			if (w < near) return Float.POSITIVE_INFINITY;
+			
+			float px = ((KR_t[0][0]*x) + (KR_t[0][1]*y) + (KR_t[0][2]*z) + KR_t[0][3]) / w;
+			float py = ((KR_t[1][0]*x) + (KR_t[1][1]*y) + (KR_t[1][2]*z) + KR_t[1][3]) / w;
+			minX = Math.min(minX, px);
+			maxX = Math.max(maxX, px);
+			minY = Math.min(minY, py);
+			maxY = Math.max(maxY, py);
+		}
+		return Math.max(maxX - minX, maxY - minY);
+	}
+	
+	/*
+	 * @return calibratedSize Size on screen in pixels of the bounding box of the 
+	 * vertices last calibrated for, see screenSize. Scaling the camera afterwards
+	 * does not change it.
+	 */
+	public float getCalibratedSize() {
+		return this.calibratedSize;
+	}
+	
+	/*
+	 * Rescales the intrinsics for an image factor times the size the camera was
+	 * calibrated for, so the same view fills a smaller or larger image. Powers of
+	 * two scale exactly, so scaling down and back up restores the camera.
+	 * 
+	 * @param factor Ratio of the new image size to the current one
+	 */
+	public void scale(float factor) {
+		if (!(factor > 0)) {
+			throw new IllegalArgumentException("Scale factor must be positive");
+		}
+		this.f *= factor;
+		this.cx *= factor;
+		this.cy *= factor;
+		
+		this.K[0][0] *= factor;
+		this.K[1][1] *= factor;
+		this.K[0][2] *= factor;
+		this.K[1][2] *= factor;
+		this.KR_t = null;
 	}
 
 	/**
@@ -162,17 +238,10 @@ public class Camera {
 	*/
 	public float[][] perspectiveProjection(float[][] vertices) {
 		
-		float[][] R_t = {{this.R[0][0],this.R[0][1],this.R[0][2],this.t[0]},
-						 {this.R[1][0],this.R[1][1],this.R[1][2],this.t[1]},
-						 {this.R[2][0],this.R[2][1],this.R[2][2],this.t[2]},
-						 {0,0,0,1}};
-		float[][] KR_t = new float[3][4];
+		float[][] KR_t = getKR_t();
 		float[][] transformed = new float[vertices.length][3];
 		float[][] projected = new float[vertices.length][3];
 		
-		// K * R_t		
-		KR_t = matMul(K, R_t);
-		
 		// (K * R_t) * Vertices
 		for (int n=0; n<vertices.length; n++) {
 			for(int i=0; i<KR_t.length; i++) {
@@ -193,6 +262,43 @@ public class Camera {
 		return projected;
 	}
 	
+	/**
+	* Performs perspective projection on every vertex of an object at once, writing 
+	* the results into structure of arrays buffers which are reused between calls.
+	* Gives the same values as perspectiveProjection(float[][]).
+	*
+	* @param x Vertex x coordinates
+	* @param y Vertex y coordinates
+	* @param z Vertex z coordinates
+	* @param projected Buffers to write the transformed pixels to
+	*/
+	public void perspectiveProjection(float[] x, float[] y, float[] z, ProjectedVertices projected) {
+		Kernels.DEFAULT.project(getKR_t(), x, y, z, projected);
+	}
+	
+	/*
+	 * Returns K * [R|t], only recomputing it after the camera has changed. 
+	 * Changes made directly to an array passed to setR are not detected.
+	 * 
+	 * @return KR_t 3x4 projection matrix
+	 */
+	public float[][] getKR_t() {
+		float[][] KR_t = this.KR_t;
+		
+		if (KR_t == null) {
+			float[][] R_t = {{this.R[0][0],this.R[0][1],this.R[0][2],this.t[0]},
+							 {this.R[1][0],this.R[1][1],this.R[1][2],this.t[1]},
+							 {this.R[2][0],this.R[2][1],this.R[2][2],this.t[2]},
+							 {0,0,0,1}};
+			
+			// K * R_t
+			KR_t = matMul(K, R_t);
+			this.KR_t = KR_t;
+		}
+		
+		return KR_t;
+	}
+	
 	/*
 	 * Multiplies 2 matrices
 	 * 
@@ -201,6 +307,13 @@ public class Camera {
 	 * @return result Product of mat1 x mat2
 	 */
 	public float[][] matMul(float[][] mat1, float[][] mat2) {
+		return product(mat1, mat2);
+	}
+	
+	/*
+	 * matMul without a camera, for the static builders
+	 */
+	private static float[][] product(float[][] mat1, float[][] mat2) {
 		float[][] result = new float[mat1.length][mat2[0].length];
 		
 		for(int i=0; i<mat1.length; i++) {
@@ -214,6 +327,43 @@ public class Camera {
 		return result;
 	}
 	
+	/*
+	 * Builds the rotation Rx * Ry * Rz from angles in degrees. Multiples of 90
+	 * degrees give exact matrices, so (0, 90, 0) is the same as Ry90.
+	 * 
+	 * @param x Rotation about x in degrees
+	 * @param y Rotation about y in degrees
+	 * @param z Rotation about z in degrees
+	 * @return R
+	 */
+	public static float[][] rotation(float x, float y, float z) {
+		float cx = cos(x), sx = sin(x), cy = cos(y), sy = sin(y), cz = cos(z), sz = sin(z);
+		float[][] Rx = {{1,0,0}, 
+						{0,cx,-sx}, 
+						{0,sx,cx}};
+		float[][] Ry = {{cy,0,sy}, 
+						{0,1,0}, 
+						{-sy,0,cy}};
+		float[][] Rz = {{cz,-sz,0}, 
+						{sz,cz,0}, 
+						{0,0,1}};
+		
+		return product(product(Rx, Ry), Rz);
+	}
+	
+	// Cosine and sine of an angle in degrees, exact at multiples of 90
+	private static float cos(float degrees) {
+		return sin(degrees + 90);
+	}
+	
+	private static float sin(float degrees) {
+		if (degrees % 90 == 0) {
+			int quarter = Math.floorMod((int) (degrees / 90), 4);
+			return quarter == 1 ? 1 : quarter == 3 ? -1 : 0;
+		}
+		return (float) Math.sin(Math.toRadians(degrees));
+	}
+	
 	/*
 	 * @return cx
 	 */
@@ -228,10 +378,65 @@ public class Camera {
 		return this.cy;
 	}
 	
+	/*
+	 * Sets the depth range kept by the rasterizer, anything nearer or further is
+	 * clipped away
+	 * 
+	 * @param near Depth of the near plane, must be positive
+	 * @param far Depth of the far plane, may be infinite
+	 */
+	public void setClipPlanes(float near, float far) {
+		if (!(near > 0) || !(far > near)) {
+			throw new IllegalArgumentException("Clip planes need 0 < near < far");
+		}
+		this.near = near;
+		this.far = far;
+	}
+	
+	/*
+	 * @return near
+	 */
+	public float getNear() {
+		return this.near;
+	}
+	
+	/*
+	 * @return far
+	 */
+	public float getFar() {
+		return this.far;
+	}
+	
 	/*
 	 * @param newR New value for R
 	 */
 	public void setR(float[][] newR) {
 		this.R = newR;
+		this.KR_t = null;
+	}
+	
+	/*
+	 * @return R
+	 */
+	public float[][] getR() {
+		return this.R;
+	}
+	
+	/*
+	 * @param newT New value for t
+	 */
+	public void setT(float[] newT) {
+		if (newT.length != 3) {
+			throw new IllegalArgumentException("Translation must have 3 components");
+		}
+		this.t = newT.clone();
+		this.KR_t = null;
+	}
+	
+	/*
+	 * @return t Copy of the translation
+	 */
+	public float[] getT() {
+		return this.t.clone();
 	}
 }
@@ -0,0 +1,114 @@
+package main.java;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Sequence of camera poses, a rotation R and translation t per frame
+ */
+public class CameraPath {
+	
+	private final List<float[][]> rotations = new ArrayList<float[][]>();
+	
+	private final List<float[]> translations = new ArrayList<float[]>();
+	
+	/*
+	 * Adds a pose to the end of the path. Both arrays are copied.
+	 *
+	 * @param R 3x3 rotation
+	 * @param t Translation
+	 */
+	public void add(float[][] R, float[] t) {
+		if (R.length != 3 || t.length != 3) {
+			throw new IllegalArgumentException("Pose needs a 3x3 rotation and 3 component translation");
+		}
+		
+		float[][] copy = new float[3][];
+		for (int i=0; i<3; i++) {
+			if (R[i].length != 3) {
+				throw new IllegalArgumentException("Pose needs a 3x3 rotation and 3 component translation");
+			}
+			copy[i] = R[i].clone();
+		}
+		rotations.add(copy);
+		translations.add(t.clone());
+	}
+	
+	/*
+	 * @return number of poses
+	 */
+	public int size() {
+		return rotations.size();
+	}
+	
+	/*
+	 * @param frame Index of the pose
+	 * @return R of the pose
+	 */
+	public float[][] getR(int frame) {
+		return rotations.get(frame);
+	}
+	
+	/*
+	 * @param frame Index of the pose
+	 * @return t of the pose
+	 */
+	public float[] getT(int frame) {
+		return translations.get(frame);
+	}
+	
+	/*
+	 * Moves a camera to the given pose
+	 *
+	 * @param frame Index of the pose
+	 * @param camera Camera to move
+	 */
+	public void apply(int frame, Camera camera) {
+		camera.setR(rotations.get(frame));
+		camera.setT(translations.get(frame));
+	}
+	
+	/*
+	 * A full turn of an object about the vertical (y) axis through the centre of
+	 * its bounding box, seen from a camera already calibrated to it. Rotating the
+	 * object by Ry about centre c is the same as moving the camera to R*Ry and
+	 * t + R(c - Ry c).
+	 *
+	 * @param camera Camera giving the pose of the first frame
+	 * @param bounds minX, minY, minZ, maxX, maxY, maxZ of the object
+	 * @param frames Number of frames in the turn
+	 * @return path
+	 */
+	public static CameraPath turntable(Camera camera, float[] bounds, int frames) {
+		if (frames < 1) {
+			throw new IllegalArgumentException("A turntable needs at least 1 frame");
+		}
+		
+		float[][] R = camera.getR();
+		float[] t = camera.getT();
+		float[] centre = {(bounds[0]+bounds[3])/2, (bounds[1]+bounds[4])/2, (bounds[2]+bounds[5])/2};
+		CameraPath path = new CameraPath();
+		
+		for (int frame=0; frame<frames; frame++) {
+			double angle = (2 * Math.PI * frame) / frames;
+			float cos = (float) Math.cos(angle), sin = (float) Math.sin(angle);
+			float[][] Ry = {{cos,0,sin},
+							{0,1,0},
+							{-sin,0,cos}};
+			
+			// Offset keeping the centre where it was, c - Ry c
+			float[] offset = new float[3];
+			for (int i=0; i<3; i++) {
+				offset[i] = centre[i] - ((Ry[i][0]*centre[0]) + (Ry[i][1]*centre[1]) + (Ry[i][2]*centre[2]));
+			}
+			
+			float[] frameT = new float[3];
+			for (int i=0; i<3; i++) {
+				frameT[i] = t[i] + (R[i][0]*offset[0]) + (R[i][1]*offset[1]) + (R[i][2]*offset[2]);
+			}
+			path.add(camera.matMul(R, Ry), frameT);
+		}
+		
+		return path;
+	}
+}
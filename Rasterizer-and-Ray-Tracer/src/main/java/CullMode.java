@@ -0,0 +1,14 @@
+package main.java;
+
+/*
+ * Which triangles the rasterizer discards as back facing, by the winding of their
+ * projected vertices as seen on screen (y pointing down)
+ */
+public enum CullMode {
+	// Keep every triangle whatever its winding
+	NONE,
+	// Discard triangles whose vertices run clockwise on screen
+	CLOCKWISE,
+	// Discard triangles whose vertices run counter clockwise on screen
+	COUNTER_CLOCKWISE
+}
@@ -0,0 +1,55 @@
+package main.java;
+
+/*
+ * Number of triangles removed by each culling stage in the last frame
+ */
+public class CullingStats {
+	
+	// Triangles given to the rasterizer
+	public int submitted;
+	
+	// Triangles skipped because their whole object's, or instance's, bounding box was off screen
+	public int objectRejected;
+	
+	// Triangles with every vertex nearer than the near plane, including behind the camera
+	public int behindCamera;
+	
+	// Triangles with every vertex beyond the far plane
+	public int beyondFar;
+	
+	// Triangles split by the near, far or guard band planes, their pieces go on to 
+	// the remaining stages and are counted there
+	public int clipped;
+	
+	// Triangles whose pixel bounding box misses the image
+	public int outsideView;
+	
+	// Triangles removed by the cull mode's winding test
+	public int backFacing;
+	
+	// Triangles skipped at fill time as the depth pyramid showed them hidden. With
+	// tiled rendering only those skipped in every tile they overlap.
+	public int occluded;
+	
+	// Triangle and tile pairs skipped by the depth pyramid, the same as occluded 
+	// for a single threaded render
+	public int occludedTiles;
+	
+	// Triangles, including clipped pieces, that reached the fill stage
+	public int drawn;
+	
+	/*
+	 * Zeroes every counter ready for the next frame
+	 */
+	public void reset() {
+		submitted = objectRejected = behindCamera = beyondFar = clipped = outsideView = backFacing = occluded = occludedTiles = drawn = 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("Culling: %d submitted, %d by object bounds, %d behind camera, "
+				+ "%d beyond far plane, %d clipped, %d outside view, %d back facing, %d drawn, "
+				+ "%d occluded (%d in tiles)", submitted, objectRejected, behindCamera, beyondFar, clipped, 
+				outsideView, backFacing, drawn, occluded, occludedTiles);
+	}
+}
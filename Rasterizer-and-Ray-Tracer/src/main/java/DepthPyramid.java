@@ -0,0 +1,203 @@
+package main.java;
+
+import java.util.Arrays;
+
+/*
+ * Two level hierarchical Z buffer kept alongside a ZBuffer. Each level stores the
+ * nearest and furthest depth of a square of pixels, 8x8 blocks and the 64x64
+ * tiles the tiled renderer uses, so a triangle no nearer than the furthest depth
+ * of every square it touches can be rejected without looking at its pixels.
+ *
+ * The rasterizer writes to the depth array directly, so blocks are marked dirty
+ * after each fill. Depths only ever get nearer, so a stale bound is still a safe
+ * one: a dirty block is only rescanned when its stale bound is not enough to
+ * reject a triangle, and a tile is only recomputed (from its blocks' bounds)
+ * when the block holding its furthest depth has changed. Squares line up with
+ * render tiles, so threads filling different tiles never share one.
+ */
+public class DepthPyramid {
+	
+	// Width and height of a block in pixels
+	public static final int BLOCK_SIZE = 8;
+	
+	// Width and height of a tile in blocks
+	private static final int TILE_BLOCKS = Rasterizer.TILE_SIZE / BLOCK_SIZE;
+	
+	private final ZBuffer zBuffer;
+	
+	private final int blocksX, blocksY, tilesX, tilesY;
+	
+	private final float[] blockMin, blockMax, tileMin, tileMax;
+	
+	// Blocks written to since they were last scanned, and tiles whose furthest
+	// block has since got nearer
+	private final boolean[] blockDirty, tileStale;
+	
+	/*
+	 * Initialises an empty pyramid over the given Z buffer
+	 *
+	 * @param zBuffer Depths to summarise
+	 */
+	public DepthPyramid(ZBuffer zBuffer) {
+		this.zBuffer = zBuffer;
+		blocksX = (zBuffer.getWidth() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		blocksY = (zBuffer.getHeight() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		tilesX = (blocksX + TILE_BLOCKS - 1) / TILE_BLOCKS;
+		tilesY = (blocksY + TILE_BLOCKS - 1) / TILE_BLOCKS;
+		
+		blockMin = new float[blocksX * blocksY];
+		blockMax = new float[blocksX * blocksY];
+		blockDirty = new boolean[blocksX * blocksY];
+		tileMin = new float[tilesX * tilesY];
+		tileMax = new float[tilesX * tilesY];
+		tileStale = new boolean[tilesX * tilesY];
+		
+		reset();
+	}
+	
+	/*
+	 * Empties the pyramid, to be called whenever the Z buffer is reset
+	 */
+	public void reset() {
+		Arrays.fill(blockMin, Float.POSITIVE_INFINITY);
+		Arrays.fill(blockMax, Float.POSITIVE_INFINITY);
+		Arrays.fill(blockDirty, false);
+		Arrays.fill(tileMin, Float.POSITIVE_INFINITY);
+		Arrays.fill(tileMax, Float.POSITIVE_INFINITY);
+		Arrays.fill(tileStale, false);
+	}
+	
+	/*
+	 * Marks the blocks covering a region as written to
+	 *
+	 * @param minX Left of region (inclusive)
+	 * @param minY Top of region (inclusive)
+	 * @param maxX Right of region (inclusive)
+	 * @param maxY Bottom of region (inclusive)
+	 */
+	public void markDirty(int minX, int minY, int maxX, int maxY) {
+		for (int by=minY/BLOCK_SIZE; by<=maxY/BLOCK_SIZE; by++) {
+			for (int bx=minX/BLOCK_SIZE; bx<=maxX/BLOCK_SIZE; bx++) {
+				blockDirty[(by*blocksX)+bx] = true;
+			}
+		}
+	}
+	
+	/*
+	 * Tests whether every pixel in a region already holds a depth no further than z,
+	 * in which case nothing at depth z or beyond can pass the depth test there.
+	 *
+	 * @param minX Left of region (inclusive)
+	 * @param minY Top of region (inclusive)
+	 * @param maxX Right of region (inclusive)
+	 * @param maxY Bottom of region (inclusive)
+	 * @param z Nearest depth of whatever is to be drawn
+	 * @return True if the region is certainly hidden
+	 */
+	public boolean occluded(int minX, int minY, int maxX, int maxY, float z) {
+		for (int ty=minY/Rasterizer.TILE_SIZE; ty<=maxY/Rasterizer.TILE_SIZE; ty++) {
+			for (int tx=minX/Rasterizer.TILE_SIZE; tx<=maxX/Rasterizer.TILE_SIZE; tx++) {
+				int tile = (ty*tilesX)+tx;
+				if (z >= tileMax[tile]) continue;
+				if (tileStale[tile]) {
+					refreshTile(tx, ty);
+					if (z >= tileMax[tile]) continue;
+				}
+				
+				// Tile as a whole is not enough, try the blocks of the region inside it
+				int 	fromX = Math.max(minX, tx*Rasterizer.TILE_SIZE) / BLOCK_SIZE,
+						toX = Math.min(maxX, ((tx+1)*Rasterizer.TILE_SIZE)-1) / BLOCK_SIZE,
+						fromY = Math.max(minY, ty*Rasterizer.TILE_SIZE) / BLOCK_SIZE,
+						toY = Math.min(maxY, ((ty+1)*Rasterizer.TILE_SIZE)-1) / BLOCK_SIZE;
+				
+				for (int by=fromY; by<=toY; by++) {
+					for (int bx=fromX; bx<=toX; bx++) {
+						int block = (by*blocksX)+bx;
+						if (z >= blockMax[block]) continue;
+						if (blockDirty[block]) refreshBlock(bx, by);
+						if (z < blockMax[block]) return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Recomputes a tile from its blocks' bounds, without rescanning dirty blocks
+	 */
+	private void refreshTile(int tx, int ty) {
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		int endX = Math.min((tx+1)*TILE_BLOCKS, blocksX), endY = Math.min((ty+1)*TILE_BLOCKS, blocksY);
+		
+		for (int by=ty*TILE_BLOCKS; by<endY; by++) {
+			for (int bx=tx*TILE_BLOCKS; bx<endX; bx++) {
+				int block = (by*blocksX)+bx;
+				min = Math.min(min, blockMin[block]);
+				max = Math.max(max, blockMax[block]);
+			}
+		}
+		
+		int tile = (ty*tilesX)+tx;
+		tileMin[tile] = min;
+		tileMax[tile] = max;
+		tileStale[tile] = false;
+	}
+	
+	/*
+	 * Recomputes a block from the Z buffer. Row and column 0 are skipped as the
+	 * rasterizer never paints them, so they would otherwise stop the first blocks
+	 * from ever being full.
+	 */
+	private void refreshBlock(int bx, int by) {
+		float[] depth = zBuffer.getBuffer();
+		int width = zBuffer.getWidth();
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		
+		int startX = Math.max(bx*BLOCK_SIZE, 1), endX = Math.min((bx+1)*BLOCK_SIZE, width);
+		int startY = Math.max(by*BLOCK_SIZE, 1), endY = Math.min((by+1)*BLOCK_SIZE, zBuffer.getHeight());
+		
+		for (int y=startY; y<endY; y++) {
+			for (int i=(y*width)+startX; i<(y*width)+endX; i++) {
+				min = Math.min(min, depth[i]);
+				max = Math.max(max, depth[i]);
+			}
+		}
+		
+		// A block of nothing but row or column 0 can never be full
+		if (max == Float.NEGATIVE_INFINITY) max = Float.POSITIVE_INFINITY;
+		
+		int block = (by*blocksX)+bx;
+		int tile = ((by/TILE_BLOCKS)*tilesX) + (bx/TILE_BLOCKS);
+		if (max < blockMax[block] && blockMax[block] >= tileMax[tile]) {
+			tileStale[tile] = true;
+		}
+		tileMin[tile] = Math.min(tileMin[tile], min);
+		
+		blockMin[block] = min;
+		blockMax[block] = max;
+		blockDirty[block] = false;
+	}
+	
+	/*
+	 * @param x Pixel x
+	 * @param y Pixel y
+	 * @return nearest depth in the block holding x,y
+	 */
+	public float getBlockMin(int x, int y) {
+		int block = ((y/BLOCK_SIZE)*blocksX) + (x/BLOCK_SIZE);
+		if (blockDirty[block]) refreshBlock(x/BLOCK_SIZE, y/BLOCK_SIZE);
+		return blockMin[block];
+	}
+	
+	/*
+	 * @param x Pixel x
+	 * @param y Pixel y
+	 * @return furthest depth in the block holding x,y
+	 */
+	public float getBlockMax(int x, int y) {
+		int block = ((y/BLOCK_SIZE)*blocksX) + (x/BLOCK_SIZE);
+		if (blockDirty[block]) refreshBlock(x/BLOCK_SIZE, y/BLOCK_SIZE);
+		return blockMax[block];
+	}
+}
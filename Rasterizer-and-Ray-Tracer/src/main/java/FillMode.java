@@ -0,0 +1,14 @@
+package main.java;
+
+/*
+ * How the rasterizer fills a projected polygon
+ */
+public enum FillMode {
+	// Bresenham edges collected into a per scanline edge list, then filled span by span
+	SCANLINE,
+	// Edge functions evaluated incrementally over the polygon's bounding box
+	EDGE_FUNCTION,
+	// Edge functions on vertices snapped to 1/256 pixel, sampled at pixel centres 
+	// with a top-left rule so pixels on a shared edge are filled exactly once
+	SUBPIXEL
+}
@@ -0,0 +1,21 @@
+package main.java;
+
+/*
+ * Working state of one fill thread, kept from one triangle and one frame to the
+ * next so the fill paths allocate nothing per triangle. Each thread filling
+ * tiles, and the thread driving a single threaded frame, has its own.
+ */
+class FillScratch {
+	
+	// Texturing of the triangle being filled, set up again for each triangle
+	final TexturedTriangle textured = new TexturedTriangle();
+	
+	// Pixel bounds of the triangle being filled, for depth pyramid tests
+	final int[] bounds = new int[4];
+	
+	// Multisampled fill's edge functions and depth at each sample relative to its
+	// pixel's centre, for the triangle being filled
+	final long[] w0Offset = new long[SamplePattern.MAX_SAMPLES], w1Offset = new long[SamplePattern.MAX_SAMPLES], 
+			w2Offset = new long[SamplePattern.MAX_SAMPLES];
+	final float[] zOffset = new float[SamplePattern.MAX_SAMPLES];
+}
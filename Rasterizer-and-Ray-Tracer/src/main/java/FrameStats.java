@@ -0,0 +1,273 @@
+package main.java;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.EventType;
+
+/*
+ * Per frame instrumentation of the rasterizer: time spent in each stage and
+ * counts of triangles and pixels. Each frame is also committed as flight
+ * recorder events, RenderStage for every stage and RenderFrame for the totals.
+ *
+ * A renderer without instrumentation holds DISABLED, whose methods return
+ * straight away, so the only cost left is a branch per stage and per triangle.
+ *
+ * Load and calibrate are per job rather than per frame, so they are kept across
+ * the frames drawn after them. Load is only timed when something is parsed,
+ * decoded or simplified, not when a later frame finds it already built.
+ * Overdraw is pixels depth tested per pixel covered, the average depth
+ * complexity, where Rasterizer.getOverdraw() counts only depth test passes per
+ * pixel shaded. Stages are timed on the thread driving the frame; with tiled
+ * rendering the depth test is part of fill, as it is fused into the span
+ * kernels, and deferred shading is part of fill as each tile shades itself.
+ */
+public class FrameStats {
+	
+	public enum Stage {
+		// Parsing the model and decoding its texture
+		LOAD,
+		// Fitting the camera to the model
+		CALIBRATE,
+		// Projecting vertices
+		TRANSFORM,
+		// Culling, clipping, sorting and binning triangles
+		SETUP,
+		// Rasterising, depth testing and, unless deferred, shading
+		FILL,
+		// Deferred shading of visible pixels, or averaging multisampled pixels
+		SHADE,
+		// Writing the frame out
+		ENCODE
+	}
+	
+	private static final Stage[] STAGES = Stage.values();
+	
+	private static final EventType STAGE_EVENT = EventType.getEventType(RenderStageEvent.class);
+	private static final EventType FRAME_EVENT = EventType.getEventType(RenderFrameEvent.class);
+	
+	// Shared by every renderer without instrumentation
+	public static final FrameStats DISABLED = new FrameStats(false);
+	
+	private final boolean enabled;
+	
+	// Nanoseconds in each stage, and when the stage being timed began
+	private final long[] times = new long[STAGES.length], starts = new long[STAGES.length];
+	
+	private final RenderStageEvent[] events = new RenderStageEvent[STAGES.length];
+	
+	// Whether a flight recording takes stage events, checked once a frame so no
+	// events are made while nothing is recording
+	private boolean recording;
+	
+	// Added to from every fill thread
+	private final LongAdder pixelsTested = new LongAdder(), pixelsWritten = new LongAdder();
+	
+	private long frame, trianglesIn, trianglesCulled, trianglesOccluded, trianglesDrawn, pixelsCovered;
+	
+	private int width, height;
+	
+	/*
+	 * Instrumentation that records
+	 */
+	public FrameStats() {
+		this(true);
+	}
+	
+	private FrameStats(boolean enabled) {
+		this.enabled = enabled;
+		this.recording = enabled && STAGE_EVENT.isEnabled();
+	}
+	
+	/*
+	 * @return enabled False for DISABLED, which records nothing
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+	
+	/*
+	 * Clears the per frame stages and counters for a new frame
+	 * 
+	 * @param width Width of the frame
+	 * @param height Height of the frame
+	 */
+	public void beginFrame(int width, int height) {
+		if (!enabled) return;
+		
+		frame++;
+		recording = STAGE_EVENT.isEnabled();
+		this.width = width;
+		this.height = height;
+		for (int i=Stage.TRANSFORM.ordinal(); i<STAGES.length; i++) {
+			times[i] = 0;
+		}
+		pixelsTested.reset();
+		pixelsWritten.reset();
+		trianglesIn = trianglesCulled = trianglesOccluded = trianglesDrawn = pixelsCovered = 0;
+	}
+	
+	/*
+	 * @param stage Stage starting on this thread
+	 */
+	public void begin(Stage stage) {
+		if (!enabled) return;
+		
+		RenderStageEvent event = null;
+		if (recording) {
+			event = new RenderStageEvent();
+			event.begin();
+		}
+		events[stage.ordinal()] = event;
+		starts[stage.ordinal()] = System.nanoTime();
+	}
+	
+	/*
+	 * @param stage Stage finishing on the thread that began it
+	 */
+	public void end(Stage stage) {
+		if (!enabled) return;
+		
+		// Added to, as a stage may be timed in more than one piece
+		times[stage.ordinal()] += System.nanoTime() - starts[stage.ordinal()];
+		RenderStageEvent event = events[stage.ordinal()];
+		if (event == null) return;
+		
+		event.stage = stage.name();
+		event.frame = frame;
+		event.commit();
+	}
+	
+	/*
+	 * Adds the pixels a triangle depth tested and those that passed
+	 * 
+	 * @param tested Pixels depth tested
+	 * @param written Pixels that passed and were written
+	 */
+	public void addPixels(int tested, int written) {
+		if (!enabled) return;
+		
+		pixelsTested.add(tested);
+		pixelsWritten.add(written);
+	}
+	
+	/*
+	 * Copies the frame's triangle counts
+	 * 
+	 * @param culling Culling counts of the frame
+	 */
+	public void setTriangles(CullingStats culling) {
+		if (!enabled) return;
+		
+		trianglesIn = culling.submitted;
+		trianglesCulled = culling.objectRejected + culling.behindCamera + culling.beyondFar 
+				+ culling.outsideView + culling.backFacing;
+		trianglesOccluded = culling.occluded;
+		trianglesDrawn = culling.drawn;
+	}
+	
+	/*
+	 * @param pixelsCovered Pixels holding a depth at the end of the frame
+	 */
+	public void setPixelsCovered(long pixelsCovered) {
+		if (!enabled) return;
+		
+		this.pixelsCovered = pixelsCovered;
+	}
+	
+	/*
+	 * Commits the frame's totals as a RenderFrame event
+	 */
+	public void endFrame() {
+		if (!enabled || !FRAME_EVENT.isEnabled()) return;
+		
+		RenderFrameEvent event = new RenderFrameEvent();
+		event.frame = frame;
+		event.width = width;
+		event.height = height;
+		event.load = getTime(Stage.LOAD);
+		event.calibrate = getTime(Stage.CALIBRATE);
+		event.transform = getTime(Stage.TRANSFORM);
+		event.setup = getTime(Stage.SETUP);
+		event.fill = getTime(Stage.FILL);
+		event.shade = getTime(Stage.SHADE);
+		event.trianglesIn = trianglesIn;
+		event.trianglesCulled = trianglesCulled;
+		event.trianglesOccluded = trianglesOccluded;
+		event.trianglesDrawn = trianglesDrawn;
+		event.pixelsTested = getPixelsTested();
+		event.pixelsWritten = getPixelsWritten();
+		event.pixelsCovered = pixelsCovered;
+		event.overdraw = getOverdraw();
+		event.commit();
+	}
+	
+	/*
+	 * @param stage
+	 * @return time Nanoseconds spent in the stage
+	 */
+	public long getTime(Stage stage) {
+		return this.times[stage.ordinal()];
+	}
+	
+	/*
+	 * @return pixelsTested Pixels depth tested
+	 */
+	public long getPixelsTested() {
+		return this.pixelsTested.sum();
+	}
+	
+	/*
+	 * @return pixelsWritten Pixels that passed the depth test
+	 */
+	public long getPixelsWritten() {
+		return this.pixelsWritten.sum();
+	}
+	
+	/*
+	 * @return pixelsCovered Pixels holding a depth at the end of the frame
+	 */
+	public long getPixelsCovered() {
+		return this.pixelsCovered;
+	}
+	
+	/*
+	 * @return overdraw Pixels tested per pixel covered, the average depth complexity
+	 */
+	public double getOverdraw() {
+		if (pixelsCovered == 0) return 0;
+		return (double) getPixelsTested() / pixelsCovered;
+	}
+	
+	/*
+	 * @return report Stage times in milliseconds and counters as a JSON object
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\"frame\":").append(frame)
+				.append(",\"width\":").append(width).append(",\"height\":").append(height)
+				.append(",\"stagesMs\":{");
+		for (Stage stage : STAGES) {
+			json.append(stage.ordinal() > 0 ? "," : "").append('"').append(stage.name().toLowerCase())
+					.append("\":").append(String.format(Locale.ROOT, "%.3f", getTime(stage) / 1e6));
+		}
+		return json.append("},\"triangles\":{\"in\":").append(trianglesIn)
+				.append(",\"culled\":").append(trianglesCulled)
+				.append(",\"occluded\":").append(trianglesOccluded)
+				.append(",\"drawn\":").append(trianglesDrawn)
+				.append("},\"pixels\":{\"tested\":").append(getPixelsTested())
+				.append(",\"written\":").append(getPixelsWritten())
+				.append(",\"covered\":").append(pixelsCovered)
+				.append("},\"overdraw\":").append(String.format(Locale.ROOT, "%.3f", getOverdraw()))
+				.append('}').toString();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder string = new StringBuilder("Stages:");
+		for (Stage stage : STAGES) {
+			string.append(String.format(" %s %.1f ms", stage.name().toLowerCase(), getTime(stage) / 1e6));
+		}
+		return string.append(String.format("%nPixels: %d tested, %d written, %d covered, overdraw %.2f", 
+				getPixelsTested(), getPixelsWritten(), pixelsCovered, getOverdraw())).toString();
+	}
+}
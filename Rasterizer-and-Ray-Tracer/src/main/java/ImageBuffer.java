@@ -2,10 +2,10 @@ package main.java;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 public class ImageBuffer extends Buffer {
 	
@@ -13,12 +13,34 @@ public class ImageBuffer extends Buffer {
 	
 	private BufferedImage bufferedImage;
 	
+	// Direct reference to the packed RGB data inside bufferedImage, indexed y*width + x
+	private int[] pixels;
+	
+	// Samples per pixel, and their colours with each pixel's together, indexed 
+	// ((y*width + x) * samples) + sample. Null for one sample.
+	private int samples = 1;
+	
+	private int[] samplePixels;
+	
 	/*
 	 * Initialises the buffered image of size height x width and sets the background
 	 * to be black
 	 */
 	public ImageBuffer() {
+		this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+	}
+	
+	/*
+	 * Initialises the buffered image of the given size and sets the background
+	 * to be black
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public ImageBuffer(int width, int height) {
+		super(width, height);
 		bufferedImage = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
 		
 		setBackgroundColour(backgroundColour);
 	}
@@ -31,13 +53,99 @@ public class ImageBuffer extends Buffer {
 	private void setBackgroundColour(int bg) {
 		this.backgroundColour = bg;
 		
-		for(int y=0; y<this.getHeight(); y++) {
-			for(int x=0; x<this.getWidth(); x++) {
-				bufferedImage.setRGB(x, y, backgroundColour);
-			}
+		// TYPE_INT_RGB has no alpha channel
+		Arrays.fill(pixels, backgroundColour & 0xFFFFFF);
+		if (samplePixels != null) {
+			Arrays.fill(samplePixels, backgroundColour & 0xFFFFFF);
 		}
 	}
+	
+	/*
+	 * Clears every pixel back to the background colour so the buffer can be 
+	 * reused for another frame.
+	 */
+	public void reset() {
+		setBackgroundColour(backgroundColour);
+	}
 
+	/*
+	 * Gives the buffer storage for a colour per sample, kept until the count changes.
+	 * The colours are cleared by the next reset.
+	 * 
+	 * @param samples Samples per pixel, 1 to drop the sample colours
+	 */
+	public void setSamples(int samples) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("Sample count must be at least 1");
+		}
+		if (samples == this.samples) return;
+		
+		this.samples = samples;
+		samplePixels = samples > 1 ? new int[this.height * this.width * samples] : null;
+	}
+	
+	/*
+	 * @return samples Samples per pixel
+	 */
+	public int getSamples() {
+		return this.samples;
+	}
+	
+	/*
+	 * @return samplePixels Packed RGB colour of each sample, indexed 
+	 * ((y*width + x) * samples) + sample, null for one sample
+	 */
+	public int[] getSamplePixels() {
+		return this.samplePixels;
+	}
+	
+	/*
+	 * @return sampleBytes Memory taken by the sample colours
+	 */
+	public long getSampleBytes() {
+		return samplePixels != null ? (long) samplePixels.length * Integer.BYTES : 0;
+	}
+	
+	/*
+	 * Averages each pixel's sample colours into the pixel, a box filter over the 
+	 * pixel. Pixels whose samples all hold one colour are copied as they are.
+	 * 
+	 * @param minX Left of the region
+	 * @param minY Top of the region
+	 * @param maxX Right of the region, exclusive
+	 * @param maxY Bottom of the region, exclusive
+	 * @return blended Pixels of the region with more than one colour among their samples
+	 */
+	public int resolve(int minX, int minY, int maxX, int maxY) {
+		if (samplePixels == null) return 0;
+		
+		int blended = 0, rounding = samples / 2;
+		for (int y=minY; y<maxY; y++) {
+			for (int i=(y*width)+minX, end=(y*width)+maxX; i<end; i++) {
+				int first = samplePixels[i*samples];
+				int r = 0, g = 0, b = 0;
+				boolean uniform = true;
+				for (int s=i*samples, last=s+samples; s<last; s++) {
+					int colour = samplePixels[s];
+					uniform &= colour == first;
+					r += (colour >> 16) & 0xFF;
+					g += (colour >> 8) & 0xFF;
+					b += colour & 0xFF;
+				}
+				
+				if (uniform) {
+					pixels[i] = first;
+				}
+				else {
+					blended++;
+					pixels[i] = (((r + rounding) / samples) << 16) | (((g + rounding) / samples) << 8) 
+							| ((b + rounding) / samples);
+				}
+			}
+		}
+		return blended;
+	}
+	
 	/*
 	 * Updates the value in the image buffer of the point x,y
 	 * 
@@ -46,33 +154,84 @@ public class ImageBuffer extends Buffer {
 	 * @param colour RGB values
 	 */
 	public void paintPixel(int x, int y, float[] colour) {
-		// Deal with rounding errors in float type
-		for (int i=0; i<3; i++) {
-			if(colour[i] < 0) {
-				colour[i] = 0;
-			}
-			
-			if(colour[i] > 1) {
-				colour[i] = 1;
-			}
-		}
-		
-		int colourRGB = convertToRGB(colour);
-		bufferedImage.setRGB(x, y, colourRGB);
+		paintPixel(x, y, colour[0], colour[1], colour[2]);
+	}
+	
+	/*
+	 * Updates the value in the image buffer of the point x,y without allocating
+	 * 
+	 * @param x 
+	 * @param y
+	 * @param r Red between 0 and 1
+	 * @param g Green between 0 and 1
+	 * @param b Blue between 0 and 1
+	 */
+	public void paintPixel(int x, int y, float r, float g, float b) {
+		pixels[(y*width)+x] = convertToRGB(r, g, b) & 0xFFFFFF;
 	}
 	
 	/*
 	 * Converts the image buffer into an image
 	 * 
-	 * @param name Name of file
+	 * @param name Name of file, its extension picks the format
 	 */
 	public void convertToImage(String name) throws IOException {
-		File outputfile = new File(name);
-		ImageIO.write(bufferedImage, "jpg", outputfile);
+		ImageEncoder.write(bufferedImage, Paths.get(name), ImageFormat.fromFileName(name));
 	}
 	
 	public int convertToRGB(float[] colour) {
-		Color colourRGB = new Color(colour[0],colour[1],colour[2]);
-		return colourRGB.getRGB();
+		return convertToRGB(colour[0], colour[1], colour[2]);
+	}
+	
+	/*
+	 * Packs float RGB values into an opaque ARGB int, rounding the same way as 
+	 * java.awt.Color
+	 * 
+	 * @param r Red between 0 and 1
+	 * @param g Green between 0 and 1
+	 * @param b Blue between 0 and 1
+	 * @return packed ARGB value
+	 */
+	public static int convertToRGB(float r, float g, float b) {
+		return 0xFF000000 | (toByte(r) << 16) | (toByte(g) << 8) | toByte(b);
+	}
+	
+	/*
+	 * Clamps a colour channel to 0..1 (to deal with rounding errors in float type)
+	 * and scales it to 0..255
+	 */
+	private static int toByte(float channel) {
+		if (channel < 0) {
+			channel = 0;
+		}
+		
+		if (channel > 1) {
+			channel = 1;
+		}
+		
+		return (int) (channel*255 + 0.5);
+	}
+	
+	/*
+	 * @return pixels Packed RGB values, indexed y*width + x
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+	
+	/*
+	 * @return copy of the image, unaffected by later frames
+	 */
+	public BufferedImage copyImage() {
+		BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		System.arraycopy(pixels, 0, ((DataBufferInt) copy.getRaster().getDataBuffer()).getData(), 0, pixels.length);
+		return copy;
+	}
+	
+	/*
+	 * @return bufferedImage
+	 */
+	public BufferedImage getImage() {
+		return bufferedImage;
 	}
 }
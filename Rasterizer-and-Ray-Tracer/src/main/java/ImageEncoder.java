@@ -0,0 +1,219 @@
+package main.java;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/*
+ * Pool of background threads writing finished frames to disk, so the render
+ * thread only pays for copying its buffers. The format of each file comes from
+ * its extension, see ImageFormat. Each write returns a future completing with
+ * the file once it is written, or exceptionally if it could not be.
+ */
+public class ImageEncoder implements AutoCloseable {
+	
+	private final ExecutorService pool;
+	
+	// Nanoseconds spent encoding across every thread
+	private final AtomicLong encodeTime = new AtomicLong();
+	
+	/*
+	 * @param threads Number of encoding threads
+	 */
+	public ImageEncoder(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		}
+		this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "image-encoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/*
+	 * Copies an image buffer and writes the copy in the background, so the buffer
+	 * can be drawn into again straight away
+	 *
+	 * @param imageBuffer Finished frame
+	 * @param file File to write
+	 * @return future completing with file once written
+	 */
+	public CompletableFuture<Path> encode(ImageBuffer imageBuffer, Path file) {
+		return write(imageBuffer.copyImage(), file);
+	}
+	
+	/*
+	 * Copies a Z buffer's depths and range, then converts the copy to a greyscale
+	 * image and writes it in the background. The range is the one renderers
+	 * measured while drawing, see ZBuffer.measure().
+	 *
+	 * @param zBuffer Finished depths
+	 * @param file File to write
+	 * @return future completing with file once written
+	 */
+	public CompletableFuture<Path> encode(ZBuffer zBuffer, Path file) {
+		zBuffer.measureIfNeeded();
+		float[] depths = zBuffer.getBuffer().clone();
+		float min = zBuffer.getMin(), max = zBuffer.getMax();
+		int width = zBuffer.getWidth(), height = zBuffer.getHeight();
+		
+		return submit(file, () -> {
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+			ZBuffer.toGrey(depths, min, max, ((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+			return image;
+		});
+	}
+	
+	/*
+	 * Writes an image in the background. The image must not be changed until the
+	 * returned future completes.
+	 *
+	 * @param image Image to write
+	 * @param file File to write
+	 * @return future completing with file once written
+	 */
+	public CompletableFuture<Path> write(BufferedImage image, Path file) {
+		return submit(file, () -> image);
+	}
+	
+	// Makes the image on a pool thread, then writes it
+	private interface ImageSource {
+		BufferedImage get();
+	}
+	
+	private CompletableFuture<Path> submit(Path file, ImageSource source) {
+		ImageFormat format = ImageFormat.fromFileName(file.getFileName().toString());
+		
+		return CompletableFuture.supplyAsync(() -> {
+			long start = System.nanoTime();
+			try {
+				write(source.get(), file, format);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				encodeTime.addAndGet(System.nanoTime() - start);
+			}
+			return file;
+		}, pool);
+	}
+	
+	/*
+	 * Writes an image on the calling thread
+	 *
+	 * @param image Image to write
+	 * @param file File to write
+	 * @param format Format to write it in
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(BufferedImage image, Path file, ImageFormat format) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+			write(image, out, format);
+		}
+	}
+	
+	/*
+	 * Writes an image to a stream on the calling thread, leaving the stream open
+	 *
+	 * @param image Image to write
+	 * @param out Stream to write to
+	 * @param format Format to write it in
+	 * @throws IOException If the stream cannot be written
+	 */
+	public static void write(BufferedImage image, OutputStream out, ImageFormat format) throws IOException {
+		switch (format) {
+			case JPEG:
+				writeImageIO(image, out, "jpg");
+				break;
+			case PNG:
+				writeImageIO(image, out, "png");
+				break;
+			case PPM:
+				writePPM(image, out);
+				break;
+		}
+	}
+	
+	private static void writeImageIO(BufferedImage image, OutputStream out, String formatName) throws IOException {
+		// Buffered in memory, ImageIO would otherwise go through a temporary file
+		try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+			if (!ImageIO.write(image, formatName, stream)) {
+				throw new IOException("No writer for " + formatName);
+			}
+		}
+	}
+	
+	/*
+	 * Binary PPM (P6), a short text header then 3 bytes per pixel row by row.
+	 * Packed RGB and grey images are read directly, anything else through getRGB.
+	 */
+	private static void writePPM(BufferedImage image, OutputStream out) throws IOException {
+		int width = image.getWidth(), height = image.getHeight();
+		byte[] row = new byte[width * 3];
+		int[] rgb = image.getType() == BufferedImage.TYPE_INT_RGB ?
+				((DataBufferInt) image.getRaster().getDataBuffer()).getData() : null;
+		byte[] grey = image.getType() == BufferedImage.TYPE_BYTE_GRAY ?
+				((DataBufferByte) image.getRaster().getDataBuffer()).getData() : null;
+		int[] line = new int[width];
+		
+		out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+		
+		for (int y=0; y<height; y++) {
+			if (grey != null) {
+				for (int x=0, i=y*width; x<width; x++, i++) {
+					row[x*3] = row[(x*3)+1] = row[(x*3)+2] = grey[i];
+				}
+			}
+			else {
+				if (rgb != null) {
+					System.arraycopy(rgb, y*width, line, 0, width);
+				}
+				else {
+					image.getRGB(0, y, width, 1, line, 0, width);
+				}
+				for (int x=0; x<width; x++) {
+					row[x*3] = (byte) (line[x] >> 16);
+					row[(x*3)+1] = (byte) (line[x] >> 8);
+					row[(x*3)+2] = (byte) line[x];
+				}
+			}
+			out.write(row);
+		}
+	}
+	
+	/*
+	 * @return encodeTime Nanoseconds spent encoding, summed over every thread
+	 */
+	public long getEncodeTime() {
+		return this.encodeTime.get();
+	}
+	
+	/*
+	 * Waits for every submitted write to finish, then stops the threads
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package main.java;
+
+/*
+ * File formats frames can be written in
+ */
+public enum ImageFormat {
+	// Lossy and small
+	JPEG("image/jpeg"),
+	// Lossless and compressed, slowest to encode
+	PNG("image/png"),
+	// Uncompressed binary netpbm, little more than a copy of the pixels
+	PPM("image/x-portable-pixmap");
+	
+	private final String contentType;
+	
+	ImageFormat(String contentType) {
+		this.contentType = contentType;
+	}
+	
+	/*
+	 * @return contentType MIME type of the format
+	 */
+	public String getContentType() {
+		return this.contentType;
+	}
+	
+	/*
+	 * Picks the format from a file name's extension
+	 *
+	 * @param name File name ending .jpg, .jpeg, .png or .ppm
+	 * @return format
+	 */
+	public static ImageFormat fromFileName(String name) {
+		String lower = name.toLowerCase();
+		if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) return JPEG;
+		if (lower.endsWith(".png")) return PNG;
+		if (lower.endsWith(".ppm")) return PPM;
+		throw new IllegalArgumentException("Unknown image format: " + name);
+	}
+}
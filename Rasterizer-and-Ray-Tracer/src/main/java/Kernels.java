@@ -0,0 +1,85 @@
+package main.java;
+
+/*
+ * Data parallel inner loops of the render pipeline. The scalar implementation is
+ * always available and used by default. A SIMD implementation using the Java
+ * Vector API is compiled with the "vector" Maven profile and chosen at startup
+ * with -Drasterizer.kernels=vector when the jdk.incubator.vector module is
+ * present. It is not yet faster for whole frames, see KernelBenchmarks. Both give
+ * identical results.
+ */
+public interface Kernels {
+	
+	// Kernels picked at startup, -Drasterizer.kernels=vector asks for the vector kernels
+	Kernels DEFAULT = select();
+	
+	/*
+	 * Projects vertices given as flat coordinate arrays by a 3x4 matrix and divides
+	 * by z, see Camera.perspectiveProjection.
+	 * 
+	 * @param KR_t Projection matrix
+	 * @param x Vertex x coordinates
+	 * @param y Vertex y coordinates
+	 * @param z Vertex z coordinates
+	 * @param projected Buffers to write the projected vertices to
+	 */
+	void project(float[][] KR_t, float[] x, float[] y, float[] z, ProjectedVertices projected);
+	
+	/*
+	 * Depth tests and shades pixels start to end-1 of a horizontal span. The k-th 
+	 * pixel of the span has depth z + k*dzdx and likewise for each colour channel,
+	 * so a span clipped to part of the screen gets exactly the values it would 
+	 * have had unclipped.
+	 * 
+	 * @param depth Z-buffer data, indexed y*width + x
+	 * @param pixels Image data, indexed y*width + x
+	 * @param offset Index of pixel 0 of the span
+	 * @param start First pixel to fill (inclusive)
+	 * @param end Last pixel to fill (exclusive)
+	 * @return number of pixels that passed the depth test
+	 */
+	int fillSpan(float[] depth, int[] pixels, int offset, int start, int end, 
+			float z, float dzdx, float r, float drdx, float g, float dgdx, float b, float dbdx);
+	
+	/*
+	 * Depth tests pixels start to end-1 of a horizontal span and records the
+	 * triangle and its barycentrics wherever it is nearer, without shading. Values 
+	 * step along the span as in fillSpan.
+	 * 
+	 * @param depth Z-buffer data, indexed y*width + x
+	 * @param triangles Visibility buffer triangles, indexed y*width + x
+	 * @param u Visibility buffer second vertex weights, indexed y*width + x
+	 * @param v Visibility buffer third vertex weights, indexed y*width + x
+	 * @param offset Index of pixel 0 of the span
+	 * @param start First pixel to fill (inclusive)
+	 * @param end Last pixel to fill (exclusive)
+	 * @param triangle Index of the triangle being drawn
+	 * @return number of pixels that passed the depth test
+	 */
+	int fillVisibilitySpan(float[] depth, int[] triangles, float[] u, float[] v, int offset, 
+			int start, int end, float z, float dzdx, int triangle, float l1, float dl1dx, 
+			float l2, float dl2dx);
+	
+	/*
+	 * @return name of the implementation
+	 */
+	String name();
+	
+	/*
+	 * Loads the vector kernels if they were asked for, compiled in and the incubator
+	 * module is available, otherwise uses the scalar kernels.
+	 * 
+	 * @return kernels to use
+	 */
+	static Kernels select() {
+		if ("vector".equals(System.getProperty("rasterizer.kernels"))) {
+			try {
+				return (Kernels) Class.forName("main.java.VectorKernels")
+						.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// Not built with the vector profile or run without --add-modules
+			}
+		}
+		return new ScalarKernels();
+	}
+}
@@ -0,0 +1,171 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+/*
+ * Simplified versions of a RenderObject, each with about half the triangles of
+ * the one before, built once by MeshSimplifier and kept with the object (see
+ * RenderObject.getLevelOfDetail). Level 0 is the object itself.
+ *
+ * A renderer picks a level from how large the object appears on screen: the
+ * coarsest level that still gives each triangle no more than a set number of
+ * pixels of the object's projected bounding box. Triangles much smaller than a
+ * pixel cost as much to set up as large ones but add nothing to the image.
+ */
+public class LevelOfDetail {
+	
+	// Each level keeps this fraction of the triangles of the one before
+	private static final float REDUCTION = 0.5f;
+	
+	// Levels stop once they would fall below this many triangles
+	private static final int MIN_FACES = 256;
+	
+	// At most this many levels including the full object
+	private static final int MAX_LEVELS = 6;
+	
+	private final RenderObject[] levels;
+	
+	private final long buildTime;
+	
+	/*
+	 * Simplifies an object into its levels, each from the one before
+	 *
+	 * @param object Full detail object, level 0
+	 */
+	public LevelOfDetail(RenderObject object) {
+		long start = System.nanoTime();
+		
+		RenderObject[] levels = new RenderObject[MAX_LEVELS];
+		levels[0] = object;
+		int count = 1;
+		while (count < MAX_LEVELS) {
+			int target = (int) (levels[count-1].getFaceCount() * REDUCTION);
+			if (target < MIN_FACES) break;
+			
+			RenderObject level = MeshSimplifier.simplify(levels[count-1], target);
+			// Nothing left that can be collapsed
+			if (level.getFaceCount() >= levels[count-1].getFaceCount()) break;
+			levels[count++] = level;
+		}
+		
+		this.levels = Arrays.copyOf(levels, count);
+		this.buildTime = System.nanoTime() - start;
+	}
+	
+	/*
+	 * Picks the coarsest level with at least one triangle for every pixelsPerTriangle
+	 * pixels the object's bounding box covers on screen, or the full object if none
+	 * has that many
+	 *
+	 * @param screenSize Side of the object's bounding box on screen in pixels, see Camera.screenSize
+	 * @param pixelsPerTriangle Screen area each triangle may stand for
+	 * @return level Index of the level
+	 */
+	public int select(float screenSize, float pixelsPerTriangle) {
+		double wanted = (double) screenSize * screenSize / pixelsPerTriangle;
+		for (int level=levels.length-1; level>0; level--) {
+			if (levels[level].getFaceCount() >= wanted) return level;
+		}
+		return 0;
+	}
+	
+	/*
+	 * Renders the default model at full, 1/4 and 1/16 resolution with and without
+	 * levels of detail, printing the level picked, the time taken and how many 
+	 * pixels differ, and writing image_lod_N.jpg for each
+	 *
+	 * @param threads Number of render threads
+	 */
+	public static void compare(int threads) {
+		try {
+			RenderObject object = new RenderObject();
+			Camera camera = new Camera();
+			camera.setR(camera.Ry90);
+			Rasterizer rasterizer = new Rasterizer(object, camera);
+			rasterizer.setThreads(threads);
+			int width = rasterizer.getImageBuffer().getWidth(), height = rasterizer.getImageBuffer().getHeight();
+			camera.calibrate(object.getPoints(), width, height, true);
+			
+			LevelOfDetail levels = object.getLevelOfDetail();
+			System.out.println(levels);
+			
+			try (ImageEncoder encoder = new ImageEncoder(1)) {
+				int scaled = 1;
+				for (int divisor : new int[] {1, 4, 16}) {
+					rasterizer.setResolution(width / divisor, height / divisor);
+					camera.scale((float) scaled / divisor);
+					scaled = divisor;
+					
+					// Best of a few frames each, alternating so both warm up alike
+					long[] times = {Long.MAX_VALUE, Long.MAX_VALUE};
+					int[][] pixels = new int[2][];
+					for (int frame=0; frame<6; frame++) {
+						for (int lod=0; lod<2; lod++) {
+							rasterizer.setLevelOfDetail(lod == 1);
+							long start = System.nanoTime();
+							rasterizer.renderFrame();
+							times[lod] = Math.min(times[lod], System.nanoTime() - start);
+							pixels[lod] = rasterizer.getImageBuffer().getPixels().clone();
+						}
+					}
+					encoder.encode(rasterizer.getImageBuffer(), Paths.get("image_lod_" + divisor + ".jpg"));
+					
+					int differ = 0;
+					for (int i=0; i<pixels[0].length; i++) {
+						if (pixels[0][i] != pixels[1][i]) differ++;
+					}
+					int level = levels.select(camera.screenSize(object.getBoundingBox()), 
+							rasterizer.getPixelsPerTriangle());
+					System.out.printf("%dx%d: level %d (%d triangles), %.1f ms full, %.1f ms with LOD, "
+							+ "%.2f%% of pixels differ%n", width / divisor, height / divisor, level, 
+							levels.getLevel(level).getFaceCount(), times[0] / 1e6, times[1] / 1e6, 
+							100.0 * differ / pixels[0].length);
+				}
+			}
+			rasterizer.releaseBuffers();
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		
+		System.out.println("Complete");
+	}
+	
+	/*
+	 * @param level Index of the level, 0 for the full object
+	 * @return object
+	 */
+	public RenderObject getLevel(int level) {
+		return this.levels[level];
+	}
+	
+	/*
+	 * @return levelCount Number of levels including the full object
+	 */
+	public int getLevelCount() {
+		return this.levels.length;
+	}
+	
+	/*
+	 * @return buildTime Nanoseconds spent simplifying
+	 */
+	public long getBuildTime() {
+		return this.buildTime;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder string = new StringBuilder("Levels of detail:");
+		for (int level=0; level<levels.length; level++) {
+			string.append(String.format(" %d%s", levels[level].getFaceCount(),
+					level < levels.length - 1 ? "," : ""));
+		}
+		string.append(String.format(" triangles, built in %.1f ms", buildTime / 1e6));
+		return string.toString();
+	}
+}
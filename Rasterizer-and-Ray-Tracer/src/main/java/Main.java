@@ -5,7 +5,83 @@ public class Main {
 	public static void main(String[] args) {
 		RenderObject object = null;
 		Camera camera = null;
+		// Leading "raytrace" argument renders with the ray tracer, optionally followed by threads
+		if (args.length > 0 && args[0].equals("raytrace")) {
+			RayTracer rayTracer = new RayTracer(object, camera);
+			if (args.length > 1) {
+				rayTracer.setThreads(Integer.parseInt(args[1]));
+			}
+			rayTracer.render();
+			return;
+		}
+		// Leading "animate" argument renders a turntable into the frames directory,
+		// optionally followed by the number of frames and threads
+		if (args.length > 0 && args[0].equals("animate")) {
+			Animation.turntable(args.length > 1 ? Integer.parseInt(args[1]) : 120, 
+					args.length > 2 ? Integer.parseInt(args[2]) : 1);
+			return;
+		}
+		// Leading "preview" argument renders at 1/4, 1/2 and full resolution in turn, 
+		// optionally followed by the number of threads
+		if (args.length > 0 && args[0].equals("preview")) {
+			ProgressiveRender.preview(args.length > 1 ? Integer.parseInt(args[1]) : 1);
+			return;
+		}
+		// Leading "serve" argument runs a render server, optionally followed by the
+		// port, number of render workers and how many renders may wait for one
+		if (args.length > 0 && args[0].equals("serve")) {
+			RenderServer.serve(args.length > 1 ? Integer.parseInt(args[1]) : 8080,
+					args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors(),
+					args.length > 3 ? Integer.parseInt(args[3]) : 64);
+			return;
+		}
+		// Leading "lod" argument compares renders with and without levels of detail at
+		// several resolutions, optionally followed by the number of threads
+		if (args.length > 0 && args[0].equals("lod")) {
+			LevelOfDetail.compare(args.length > 1 ? Integer.parseInt(args[1]) : 1);
+			return;
+		}
+		// Leading "msaa" argument compares renders with 1, 2, 4 and 8 samples per pixel, 
+		// optionally followed by the number of threads
+		if (args.length > 0 && args[0].equals("msaa")) {
+			SamplePattern.compare(args.length > 1 ? Integer.parseInt(args[1]) : 1);
+			return;
+		}
+		// Leading "scene" argument rasterizes and ray traces a grid of instances of the
+		// default model, optionally followed by the columns, rows and threads
+		if (args.length > 0 && args[0].equals("scene")) {
+			Scene.demo(args.length > 1 ? Integer.parseInt(args[1]) : 4, 
+					args.length > 2 ? Integer.parseInt(args[2]) : 4, 
+					args.length > 3 ? Integer.parseInt(args[3]) : 1);
+			return;
+		}
 		Rasterizer rasterizer = new Rasterizer(object, camera);
+		// Optional first argument sets the number of render threads
+		if (args.length > 0) {
+			rasterizer.setThreads(Integer.parseInt(args[0]));
+		}
+		// Optional second argument picks the fill mode, e.g. SCANLINE
+		if (args.length > 1) {
+			rasterizer.setFillMode(FillMode.valueOf(args[1]));
+		}
+		// Optional third argument picks the winding to cull, CLOCKWISE removes back faces 
+		// of the bundled models with the default camera
+		if (args.length > 2) {
+			rasterizer.setCullMode(CullMode.valueOf(args[2]));
+		}
+		// Optional fourth argument "deferred" shades each pixel once from a visibility buffer
+		if (args.length > 3) {
+			rasterizer.setDeferred(args[3].equals("deferred"));
+		}
+		// Optional fifth argument "stats" times each stage and counts pixels, writing
+		// image_stats.json and flight recorder events
+		if (args.length > 4) {
+			rasterizer.setInstrumented(args[4].equals("stats"));
+		}
+		// Optional sixth argument "textured" draws the model's texture, when it has one
+		if (args.length > 5) {
+			rasterizer.setTexturing(args[5].equals("textured"));
+		}
 		rasterizer.render();
 	}
 
@@ -0,0 +1,194 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/*
+ * Compact binary copy of a parsed mesh so later runs can skip PLY parsing.
+ *
+ * A cache file is little endian and laid out as:
+ * - header: magic, format version, source file size and modified time,
+ *   vertex count, triangle count, flags, bounding box, texture file name
+ * - x, y and z of every vertex as floats
+ * - r, g, b of every vertex quantized to one byte each
+ * - three int indices per triangle
+ * - six float texture coordinates per triangle, if the flags say so
+ *
+ * The whole file is read with a single memory mapping. A cache whose version,
+ * source size or modified time does not match is ignored and rebuilt.
+ */
+public class MeshCache {
+	
+	private static final int MAGIC = 0x524D4331; // "RMC1"
+	
+	// Increase whenever the layout changes
+	public static final int VERSION = 1;
+	
+	private static final int FLAG_TEXCOORDS = 1;
+	
+	/*
+	 * Loads a ply file through a cache in the given directory, parsing the ply
+	 * and writing a new cache only when there is no up to date one.
+	 * 
+	 * @param file Path to the ply file
+	 * @param cacheDirectory Directory holding cache files, created if missing
+	 * @return object
+	 * @throws IOException
+	 */
+	public static RenderObject load(Path file, Path cacheDirectory) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		long size = attributes.size(), modified = attributes.lastModifiedTime().toMillis();
+		
+		// Name by file name and full path so models with the same name don't collide
+		Path absolute = file.toAbsolutePath().normalize();
+		Path cacheFile = cacheDirectory.resolve(file.getFileName() + "-" 
+				+ Integer.toHexString(absolute.toString().hashCode()) + ".mesh");
+		
+		if (Files.exists(cacheFile)) {
+			RenderObject object = read(cacheFile, size, modified);
+			if (object != null) return object;
+		}
+		
+		RenderObject object = new RenderObject(file);
+		Files.createDirectories(cacheDirectory);
+		write(object, cacheFile, size, modified);
+		return object;
+	}
+	
+	/*
+	 * Reads a cache file if it matches the current version and source file.
+	 * 
+	 * @param cacheFile Cache to read
+	 * @param sourceSize Size of the source ply in bytes
+	 * @param sourceModified Modified time of the source ply in milliseconds
+	 * @return object, or null if the cache is stale or unreadable
+	 * @throws IOException
+	 */
+	public static RenderObject read(Path cacheFile, long sourceSize, long sourceModified) 
+			throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION 
+					|| buffer.getLong() != sourceSize || buffer.getLong() != sourceModified) {
+				return null;
+			}
+			
+			int vertexCount = buffer.getInt(), triangleCount = buffer.getInt(), flags = buffer.getInt();
+			
+			PlyLoader.Mesh mesh = new PlyLoader.Mesh();
+			mesh.bounds = new float[6];
+			buffer.asFloatBuffer().get(mesh.bounds);
+			buffer.position(buffer.position() + (6*4));
+			
+			int nameLength = buffer.getInt();
+			if (nameLength >= 0) {
+				byte[] name = new byte[nameLength];
+				buffer.get(name);
+				mesh.textureFile = new String(name, StandardCharsets.UTF_8);
+			}
+			
+			mesh.x = readFloats(buffer, vertexCount);
+			mesh.y = readFloats(buffer, vertexCount);
+			mesh.z = readFloats(buffer, vertexCount);
+			
+			mesh.colours = new float[vertexCount*3];
+			for (int i=0; i<mesh.colours.length; i++) {
+				mesh.colours[i] = (buffer.get() & 0xFF) / 255f;
+			}
+			
+			mesh.indices = new int[triangleCount*3];
+			buffer.asIntBuffer().get(mesh.indices);
+			buffer.position(buffer.position() + (mesh.indices.length*4));
+			
+			if ((flags & FLAG_TEXCOORDS) != 0) {
+				mesh.texcoords = readFloats(buffer, triangleCount*6);
+			}
+			
+			return new RenderObject(mesh);
+			
+		} catch (RuntimeException e) {
+			// Truncated or corrupt, e.g. BufferUnderflowException
+			return null;
+		}
+	}
+	
+	/*
+	 * Writes an object to a cache file. The file is written under a temporary name
+	 * and moved into place so readers never see a partly written cache.
+	 * 
+	 * @param object Object to store
+	 * @param cacheFile Cache to write
+	 * @param sourceSize Size of the source ply in bytes
+	 * @param sourceModified Modified time of the source ply in milliseconds
+	 * @throws IOException
+	 */
+	public static void write(RenderObject object, Path cacheFile, long sourceSize, long sourceModified) 
+			throws IOException {
+		float[] x = object.getPointsX(), y = object.getPointsY(), z = object.getPointsZ();
+		float[] colours = object.getColourData();
+		int[] indices = object.getIndices();
+		float[] texcoords = object.getTexcoords();
+		byte[] textureName = object.getTextureFile() == null ? null : 
+			object.getTextureFile().getBytes(StandardCharsets.UTF_8);
+		
+		int size = (5*4) + (8*2) + (6*4) + 4 + (textureName == null ? 0 : textureName.length)
+				+ (x.length*3*4) + (x.length*3) + (indices.length*4) 
+				+ (texcoords == null ? 0 : texcoords.length*4);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(sourceModified);
+		buffer.putInt(x.length).putInt(indices.length/3).putInt(texcoords != null ? FLAG_TEXCOORDS : 0);
+		for (float bound : object.getBoundingBox()) buffer.putFloat(bound);
+		
+		if (textureName == null) {
+			buffer.putInt(-1);
+		}
+		else {
+			buffer.putInt(textureName.length).put(textureName);
+		}
+		
+		writeFloats(buffer, x);
+		writeFloats(buffer, y);
+		writeFloats(buffer, z);
+		for (float colour : colours) {
+			buffer.put((byte) Math.round(Math.max(0, Math.min(1, colour)) * 255));
+		}
+		buffer.asIntBuffer().put(indices);
+		buffer.position(buffer.position() + (indices.length*4));
+		if (texcoords != null) writeFloats(buffer, texcoords);
+		buffer.flip();
+		
+		Path temporary = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) channel.write(buffer);
+		}
+		Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, 
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	private static float[] readFloats(ByteBuffer buffer, int count) {
+		float[] values = new float[count];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + (count*4));
+		return values;
+	}
+	
+	private static void writeFloats(ByteBuffer buffer, float[] values) {
+		buffer.asFloatBuffer().put(values);
+		buffer.position(buffer.position() + (values.length*4));
+	}
+}
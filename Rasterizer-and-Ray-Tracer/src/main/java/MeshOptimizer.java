@@ -0,0 +1,281 @@
+package main.java;
+
+import java.util.Arrays;
+
+/*
+ * Reorders the triangles and vertices of a RenderObject for locality, without
+ * changing its shape. See MeshOrder for the orders.
+ *
+ * Vertex cache order is Tipsify (Sander, Nehab and Barczak): starting from a
+ * vertex, every remaining triangle around it is emitted, then the next vertex
+ * to fan around is picked from those just used, preferring the one still in a
+ * cache of recent vertices with the most triangles left. Vertices are then
+ * renumbered by first use so the points, colours and projected arrays are read
+ * front to back as the triangles are drawn.
+ *
+ * Drawing order decides which of two triangles at exactly the same depth wins a
+ * pixel, so a reordered object can differ from the original in a few pixels.
+ */
+public class MeshOptimizer {
+	
+	// Vertices the cache order aims to keep in use, and the size misses are measured for
+	public static final int CACHE_SIZE = 16;
+	
+	// Bits of each axis in a Morton code
+	private static final int MORTON_BITS = 10;
+	
+	/*
+	 * Reorders an object
+	 *
+	 * @param object Object to reorder, left unchanged
+	 * @param order Order to put it in
+	 * @return reordered copy, or the object itself for MeshOrder.FILE
+	 */
+	public static RenderObject reorder(RenderObject object, MeshOrder order) {
+		if (order == MeshOrder.FILE) return object;
+		
+		int[] faces = mortonOrder(object);
+		if (order == MeshOrder.VERTEX_CACHE) {
+			// Fanning falls back on vertex numbers, so number them along the curve first
+			int[] remap = firstUse(object.getIndices(), faces, object.getPointsX().length);
+			int[] indices = object.getIndices();
+			int[] renumbered = new int[indices.length];
+			for (int k=0; k<faces.length; k++) {
+				for (int corner=0; corner<3; corner++) {
+					renumbered[(k*3)+corner] = remap[indices[(faces[k]*3)+corner]];
+				}
+			}
+			int[] fans = tipsify(renumbered, object.getPointsX().length, CACHE_SIZE);
+			for (int k=0; k<fans.length; k++) fans[k] = faces[fans[k]];
+			faces = fans;
+		}
+		return build(object, faces);
+	}
+	
+	/*
+	 * Sorts triangles by the Morton code of their centroid within the object's bounds
+	 *
+	 * @return face indices in Morton order
+	 */
+	private static int[] mortonOrder(RenderObject object) {
+		float[] x = object.getPointsX(), y = object.getPointsY(), z = object.getPointsZ();
+		int[] indices = object.getIndices();
+		float[] bounds = object.getBoundingBox();
+		int faceCount = object.getFaceCount();
+		float scale = (1 << MORTON_BITS) - 1;
+		
+		long[] keys = new long[faceCount];
+		for (int face=0; face<faceCount; face++) {
+			int a = indices[face*3], b = indices[(face*3)+1], c = indices[(face*3)+2];
+			int mx = quantize((x[a]+x[b]+x[c]) / 3, bounds[0], bounds[3], scale);
+			int my = quantize((y[a]+y[b]+y[c]) / 3, bounds[1], bounds[4], scale);
+			int mz = quantize((z[a]+z[b]+z[c]) / 3, bounds[2], bounds[5], scale);
+			long code = (spread(mx) << 2) | (spread(my) << 1) | spread(mz);
+			keys[face] = (code << 32) | face;
+		}
+		
+		Arrays.sort(keys);
+		int[] faces = new int[faceCount];
+		for (int k=0; k<faceCount; k++) faces[k] = (int) keys[k];
+		return faces;
+	}
+	
+	private static int quantize(float value, float min, float max, float scale) {
+		if (!(max > min)) return 0;
+		return Math.min(Math.max((int) ((value - min) / (max - min) * scale), 0), (int) scale);
+	}
+	
+	/*
+	 * Spreads the low 10 bits of a value out to every third bit
+	 */
+	private static long spread(int value) {
+		long bits = value & 0x3FF;
+		bits = (bits | (bits << 16)) & 0x030000FF;
+		bits = (bits | (bits << 8)) & 0x0300F00F;
+		bits = (bits | (bits << 4)) & 0x030C30C3;
+		bits = (bits | (bits << 2)) & 0x09249249;
+		return bits;
+	}
+	
+	/*
+	 * Tipsify over triangles given as three vertex indices each
+	 *
+	 * @param indices Three vertex indices per triangle
+	 * @param vertexCount Number of vertices
+	 * @param cacheSize Vertices the order aims to keep in use
+	 * @return triangle numbers in emitted order
+	 */
+	static int[] tipsify(int[] indices, int vertexCount, int cacheSize) {
+		int faceCount = indices.length / 3;
+		
+		// Triangles around each vertex, as offsets into adjacency
+		int[] offsets = new int[vertexCount + 1];
+		for (int index : indices) offsets[index+1]++;
+		for (int v=0; v<vertexCount; v++) offsets[v+1] += offsets[v];
+		int[] adjacency = new int[indices.length];
+		int[] fill = Arrays.copyOf(offsets, vertexCount);
+		for (int face=0; face<faceCount; face++) {
+			for (int corner=0; corner<3; corner++) {
+				adjacency[fill[indices[(face*3)+corner]]++] = face;
+			}
+		}
+		
+		// Triangles left to emit around each vertex
+		int[] live = new int[vertexCount];
+		for (int v=0; v<vertexCount; v++) live[v] = offsets[v+1] - offsets[v];
+		
+		// Time each vertex last entered the cache, time advances by one per entry
+		int[] cacheTime = new int[vertexCount];
+		int time = cacheSize + 1;
+		boolean[] emitted = new boolean[faceCount];
+		
+		// Recently used vertices to fall back on when a fan runs out
+		int[] deadEnd = new int[indices.length];
+		int deadEndTop = 0;
+		int[] candidates = new int[indices.length];
+		
+		int[] order = new int[faceCount];
+		int count = 0, cursor = 0;
+		int fan = nextLive(live, cursor);
+		
+		while (fan >= 0) {
+			int candidateCount = 0;
+			for (int i=offsets[fan]; i<offsets[fan+1]; i++) {
+				int face = adjacency[i];
+				if (emitted[face]) continue;
+				
+				for (int corner=0; corner<3; corner++) {
+					int v = indices[(face*3)+corner];
+					deadEnd[deadEndTop++] = v;
+					candidates[candidateCount++] = v;
+					live[v]--;
+					if (time - cacheTime[v] > cacheSize) {
+						cacheTime[v] = time++;
+					}
+				}
+				emitted[face] = true;
+				order[count++] = face;
+			}
+			
+			// Vertex that will still be in the cache once its remaining fan is emitted
+			// and has been there longest, else anything recent with triangles left
+			int next = -1, best = -1;
+			for (int i=0; i<candidateCount; i++) {
+				int v = candidates[i];
+				if (live[v] <= 0) continue;
+				int priority = 0;
+				if (time - cacheTime[v] + (2*live[v]) <= cacheSize) {
+					priority = time - cacheTime[v];
+				}
+				if (priority > best) {
+					best = priority;
+					next = v;
+				}
+			}
+			
+			if (next < 0) {
+				while (deadEndTop > 0 && next < 0) {
+					int v = deadEnd[--deadEndTop];
+					if (live[v] > 0) next = v;
+				}
+			}
+			if (next < 0) {
+				cursor = nextLive(live, cursor);
+				next = cursor;
+			}
+			fan = next;
+		}
+		return order;
+	}
+	
+	private static int nextLive(int[] live, int from) {
+		for (int v=Math.max(from, 0); v<live.length; v++) {
+			if (live[v] > 0) return v;
+		}
+		return -1;
+	}
+	
+	/*
+	 * New number of each vertex in the order the given triangles first use it,
+	 * unused vertices last
+	 */
+	private static int[] firstUse(int[] indices, int[] faces, int vertexCount) {
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		int next = 0;
+		for (int face : faces) {
+			for (int corner=0; corner<3; corner++) {
+				int v = indices[(face*3)+corner];
+				if (remap[v] < 0) remap[v] = next++;
+			}
+		}
+		for (int v=0; v<vertexCount; v++) {
+			if (remap[v] < 0) remap[v] = next++;
+		}
+		return remap;
+	}
+	
+	/*
+	 * Copies an object with its triangles in the given order and its vertices
+	 * renumbered by first use
+	 */
+	private static RenderObject build(RenderObject object, int[] faces) {
+		int[] indices = object.getIndices();
+		float[] x = object.getPointsX(), y = object.getPointsY(), z = object.getPointsZ();
+		float[] colours = object.getColourData(), texcoords = object.getTexcoords();
+		int vertexCount = x.length;
+		int[] remap = firstUse(indices, faces, vertexCount);
+		
+		PlyLoader.Mesh mesh = new PlyLoader.Mesh();
+		mesh.x = new float[vertexCount];
+		mesh.y = new float[vertexCount];
+		mesh.z = new float[vertexCount];
+		mesh.colours = new float[vertexCount*3];
+		for (int v=0; v<vertexCount; v++) {
+			int n = remap[v];
+			mesh.x[n] = x[v];
+			mesh.y[n] = y[v];
+			mesh.z[n] = z[v];
+			System.arraycopy(colours, v*3, mesh.colours, n*3, 3);
+		}
+		
+		mesh.indices = new int[indices.length];
+		mesh.texcoords = texcoords != null ? new float[texcoords.length] : null;
+		for (int k=0; k<faces.length; k++) {
+			for (int corner=0; corner<3; corner++) {
+				mesh.indices[(k*3)+corner] = remap[indices[(faces[k]*3)+corner]];
+			}
+			if (texcoords != null) {
+				System.arraycopy(texcoords, faces[k]*6, mesh.texcoords, k*6, 6);
+			}
+		}
+		mesh.textureFile = object.getTextureFile();
+		mesh.bounds = object.getBoundingBox().clone();
+		return new RenderObject(mesh);
+	}
+	
+	/*
+	 * Average number of vertices missing from a FIFO cache per triangle, as a
+	 * hardware post transform cache would see them. 3 is the worst possible, 0.5
+	 * about the best for a closed mesh.
+	 *
+	 * @param indices Three vertex indices per triangle
+	 * @param vertexCount Number of vertices
+	 * @param cacheSize Vertices the cache holds
+	 * @return misses per triangle
+	 */
+	public static double cacheMissRatio(int[] indices, int vertexCount, int cacheSize) {
+		if (indices.length == 0) return 0;
+		
+		// Each vertex's position in the stream of misses, it is cached while within cacheSize of the latest
+		long[] entered = new long[vertexCount];
+		Arrays.fill(entered, Long.MIN_VALUE / 2);
+		long misses = 0;
+		for (int v : indices) {
+			if (misses - entered[v] >= cacheSize) {
+				entered[v] = misses++;
+			}
+		}
+		return (double) misses / (indices.length / 3);
+	}
+}
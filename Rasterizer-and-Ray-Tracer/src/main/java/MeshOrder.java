@@ -0,0 +1,16 @@
+package main.java;
+
+/*
+ * Order MeshOptimizer puts a RenderObject's triangles and vertices in. Vertices
+ * are always renumbered in the order the triangles first use them.
+ */
+public enum MeshOrder {
+	// Triangles as they are in the file, vertices left alone
+	FILE,
+	// Triangles along a Morton curve through their centroids, so neighbours in the
+	// list are neighbours in space
+	MORTON,
+	// Morton order, then grouped into fans around shared vertices so each vertex's
+	// triangles follow closely on one another
+	VERTEX_CACHE
+}
@@ -0,0 +1,468 @@
+package main.java;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/*
+ * Reduces the triangle count of a RenderObject by quadric error edge collapse
+ * (Garland and Heckbert). Every vertex carries a quadric, the sum of the squared
+ * distances to the planes of the faces around it. Collapsing an edge merges its
+ * two vertices into one at the position minimising the summed quadric, and the
+ * cheapest edge is always collapsed next.
+ *
+ * Edges with a face on one side only are held in place by an extra plane through
+ * the edge, perpendicular to its face, so open borders and colour seams keep
+ * their shape. A collapse that would turn any surrounding face over, or join the
+ * surface to itself where the two vertices share more neighbours than faces, is
+ * skipped.
+ *
+ * Colours are interpolated along the collapsed edge. Texture coordinates belong
+ * to face corners so the surviving faces keep theirs.
+ */
+public class MeshSimplifier {
+	
+	// Weight of border planes relative to face planes
+	private static final double BORDER_WEIGHT = 1000;
+	
+	// Smallest determinant for which the optimal position is solved for, below it
+	// the best of the two ends and the midpoint is used
+	private static final double SINGULAR = 1e-12;
+	
+	private final float[] x, y, z, colours;
+	
+	private final int[] indices;
+	
+	// Symmetric 4x4 quadric per vertex as aa, ab, ac, ad, bb, bc, bd, cc, cd, dd
+	private final double[] quadrics;
+	
+	// Faces around each vertex, including ones since removed which are skipped
+	private final int[][] vertexFaces;
+	
+	private final int[] vertexFaceCounts;
+	
+	// Bumped whenever a vertex moves so stale collapses can be recognised
+	private final int[] versions;
+	
+	private final boolean[] removedVertices, removedFaces;
+	
+	// Marks neighbours of a vertex with the current stamp, see sharesOnlyFaces
+	private final int[] marks;
+	
+	private int stamp;
+	
+	private int faceCount;
+	
+	/*
+	 * A candidate collapse of vertex b into vertex a
+	 */
+	private static class Collapse implements Comparable<Collapse> {
+		final double cost;
+		final int a, b, versionA, versionB;
+		final float x, y, z, t;
+		
+		Collapse(double cost, int a, int b, int versionA, int versionB, float x, float y, float z, float t) {
+			this.cost = cost;
+			this.a = a;
+			this.b = b;
+			this.versionA = versionA;
+			this.versionB = versionB;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.t = t;
+		}
+		
+		public int compareTo(Collapse other) {
+			return Double.compare(cost, other.cost);
+		}
+	}
+	
+	private MeshSimplifier(RenderObject object) {
+		x = object.getPointsX().clone();
+		y = object.getPointsY().clone();
+		z = object.getPointsZ().clone();
+		colours = object.getColourData().clone();
+		indices = object.getIndices().clone();
+		faceCount = object.getFaceCount();
+		
+		int vertexCount = x.length;
+		quadrics = new double[vertexCount*10];
+		versions = new int[vertexCount];
+		removedVertices = new boolean[vertexCount];
+		removedFaces = new boolean[faceCount];
+		marks = new int[vertexCount];
+		
+		vertexFaceCounts = new int[vertexCount];
+		for (int index : indices) vertexFaceCounts[index]++;
+		vertexFaces = new int[vertexCount][];
+		for (int v=0; v<vertexCount; v++) {
+			vertexFaces[v] = new int[Math.max(vertexFaceCounts[v], 4)];
+			vertexFaceCounts[v] = 0;
+		}
+		
+		for (int face=0; face<faceCount; face++) {
+			for (int corner=0; corner<3; corner++) {
+				int v = indices[(face*3)+corner];
+				vertexFaces[v][vertexFaceCounts[v]++] = face;
+			}
+			double[] plane = plane(face);
+			if (plane != null) {
+				for (int corner=0; corner<3; corner++) {
+					addQuadric(indices[(face*3)+corner], plane, plane[4]);
+				}
+			}
+		}
+		
+		addBorderQuadrics();
+	}
+	
+	/*
+	 * Simplifies an object down to about the given number of triangles. Fewer may
+	 * be left over when no further collapse is allowed.
+	 *
+	 * @param object Object to simplify, left unchanged
+	 * @param targetFaces Number of triangles to stop at
+	 * @return simplified copy sharing the object's texture file
+	 */
+	public static RenderObject simplify(RenderObject object, int targetFaces) {
+		if (targetFaces < 1) {
+			throw new IllegalArgumentException("Target face count must be at least 1");
+		}
+		if (targetFaces >= object.getFaceCount()) return object;
+		
+		MeshSimplifier simplifier = new MeshSimplifier(object);
+		simplifier.collapseTo(targetFaces);
+		return simplifier.toObject(object);
+	}
+	
+	private void collapseTo(int targetFaces) {
+		PriorityQueue<Collapse> queue = new PriorityQueue<Collapse>(indices.length);
+		for (int face=0; face<indices.length/3; face++) {
+			for (int corner=0; corner<3; corner++) {
+				int a = indices[(face*3)+corner], b = indices[(face*3)+((corner+1) % 3)];
+				// Each interior edge appears in two faces, only queue it from one of them
+				if (a < b || isBorder(a, b)) queue.add(candidate(a, b));
+			}
+		}
+		
+		while (faceCount > targetFaces && !queue.isEmpty()) {
+			Collapse collapse = queue.poll();
+			if (removedVertices[collapse.a] || removedVertices[collapse.b]
+					|| versions[collapse.a] != collapse.versionA || versions[collapse.b] != collapse.versionB) {
+				continue;
+			}
+			if (!sharesOnlyFaces(collapse.a, collapse.b) || flips(collapse.a, collapse.b, collapse) 
+					|| flips(collapse.b, collapse.a, collapse)) {
+				continue;
+			}
+			
+			int a = collapse.a;
+			collapse(collapse);
+			
+			// Every edge from the merged vertex has a new cost
+			for (int i=0; i<vertexFaceCounts[a]; i++) {
+				int face = vertexFaces[a][i];
+				if (removedFaces[face]) continue;
+				for (int corner=0; corner<3; corner++) {
+					int other = indices[(face*3)+corner];
+					if (other != a) queue.add(candidate(a, other));
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Finds where the merged vertex of an edge should go and what it costs
+	 */
+	private Collapse candidate(int a, int b) {
+		double[] q = new double[10];
+		for (int i=0; i<10; i++) q[i] = quadrics[(a*10)+i] + quadrics[(b*10)+i];
+		
+		// Ends and midpoint, plus the minimum of the quadric when it has one
+		float bestX = x[a], bestY = y[a], bestZ = z[a];
+		double bestCost = error(q, x[a], y[a], z[a]);
+		float[][] options = {{x[b], y[b], z[b]},
+				{(x[a]+x[b])*0.5f, (y[a]+y[b])*0.5f, (z[a]+z[b])*0.5f}, optimal(q)};
+		for (float[] option : options) {
+			if (option == null) continue;
+			double cost = error(q, option[0], option[1], option[2]);
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestX = option[0];
+				bestY = option[1];
+				bestZ = option[2];
+			}
+		}
+		
+		// Position along the edge, for the colour
+		double ex = x[b]-x[a], ey = y[b]-y[a], ez = z[b]-z[a];
+		double length = (ex*ex) + (ey*ey) + (ez*ez);
+		double t = length > 0 ? (((bestX-x[a])*ex) + ((bestY-y[a])*ey) + ((bestZ-z[a])*ez)) / length : 0;
+		
+		return new Collapse(Math.max(bestCost, 0), a, b, versions[a], versions[b], bestX, bestY, bestZ,
+				(float) Math.min(Math.max(t, 0), 1));
+	}
+	
+	/*
+	 * Whether moving vertex from to the collapse position turns over any of its
+	 * faces that survive the collapse
+	 */
+	private boolean flips(int from, int other, Collapse collapse) {
+		for (int i=0; i<vertexFaceCounts[from]; i++) {
+			int face = vertexFaces[from][i];
+			if (removedFaces[face]) continue;
+			
+			int i0 = indices[face*3], i1 = indices[(face*3)+1], i2 = indices[(face*3)+2];
+			if (i0 == other || i1 == other || i2 == other) continue;
+			
+			double[] before = normal(i0, i1, i2, -1, 0, 0, 0);
+			double[] after = normal(i0, i1, i2, from, collapse.x, collapse.y, collapse.z);
+			if ((before[0]*after[0]) + (before[1]*after[1]) + (before[2]*after[2]) <= 0) return true;
+		}
+		return false;
+	}
+	
+	/*
+	 * Whether every neighbour common to a and b is the third corner of a face along
+	 * the edge. Otherwise collapsing the edge would pinch the surface.
+	 */
+	private boolean sharesOnlyFaces(int a, int b) {
+		stamp++;
+		for (int i=0; i<vertexFaceCounts[a]; i++) {
+			int face = vertexFaces[a][i];
+			if (removedFaces[face]) continue;
+			for (int corner=0; corner<3; corner++) {
+				marks[indices[(face*3)+corner]] = stamp;
+			}
+		}
+		
+		int common = 0, shared = 0;
+		stamp++;
+		for (int i=0; i<vertexFaceCounts[b]; i++) {
+			int face = vertexFaces[b][i];
+			if (removedFaces[face]) continue;
+			boolean hasA = false;
+			for (int corner=0; corner<3; corner++) {
+				int v = indices[(face*3)+corner];
+				if (v == a) hasA = true;
+				// Neighbours marked by a, each counted once
+				if (v != a && v != b && marks[v] == stamp-1) {
+					marks[v] = stamp;
+					common++;
+				}
+			}
+			if (hasA) shared++;
+		}
+		return common <= shared;
+	}
+	
+	/*
+	 * Merges vertex b into vertex a at the collapse position
+	 */
+	private void collapse(Collapse collapse) {
+		int a = collapse.a, b = collapse.b;
+		
+		x[a] = collapse.x;
+		y[a] = collapse.y;
+		z[a] = collapse.z;
+		for (int c=0; c<3; c++) {
+			colours[(a*3)+c] += collapse.t * (colours[(b*3)+c] - colours[(a*3)+c]);
+		}
+		for (int i=0; i<10; i++) quadrics[(a*10)+i] += quadrics[(b*10)+i];
+		removedVertices[b] = true;
+		versions[a]++;
+		
+		for (int i=0; i<vertexFaceCounts[b]; i++) {
+			int face = vertexFaces[b][i];
+			if (removedFaces[face]) continue;
+			
+			boolean shared = false;
+			for (int corner=0; corner<3; corner++) {
+				if (indices[(face*3)+corner] == a) shared = true;
+			}
+			if (shared) {
+				// Faces along the edge collapse to lines
+				removedFaces[face] = true;
+				faceCount--;
+				continue;
+			}
+			for (int corner=0; corner<3; corner++) {
+				if (indices[(face*3)+corner] == b) indices[(face*3)+corner] = a;
+			}
+			addVertexFace(a, face);
+		}
+		
+		// Keep a's list short by dropping removed faces
+		int kept = 0;
+		for (int i=0; i<vertexFaceCounts[a]; i++) {
+			if (!removedFaces[vertexFaces[a][i]]) vertexFaces[a][kept++] = vertexFaces[a][i];
+		}
+		vertexFaceCounts[a] = kept;
+	}
+	
+	private void addVertexFace(int v, int face) {
+		if (vertexFaceCounts[v] == vertexFaces[v].length) {
+			vertexFaces[v] = Arrays.copyOf(vertexFaces[v], vertexFaces[v].length*2);
+		}
+		vertexFaces[v][vertexFaceCounts[v]++] = face;
+	}
+	
+	/*
+	 * Adds a plane through every border edge perpendicular to its face
+	 */
+	private void addBorderQuadrics() {
+		for (int face=0; face<indices.length/3; face++) {
+			double[] normal = normal(indices[face*3], indices[(face*3)+1], indices[(face*3)+2], -1, 0, 0, 0);
+			double length = Math.sqrt((normal[0]*normal[0]) + (normal[1]*normal[1]) + (normal[2]*normal[2]));
+			if (length == 0) continue;
+			
+			for (int corner=0; corner<3; corner++) {
+				int a = indices[(face*3)+corner], b = indices[(face*3)+((corner+1) % 3)];
+				if (!isBorder(a, b)) continue;
+				
+				double ex = x[b]-x[a], ey = y[b]-y[a], ez = z[b]-z[a];
+				// Edge cross face normal lies in the face, perpendicular to the edge
+				double px = (ey*normal[2]) - (ez*normal[1]);
+				double py = (ez*normal[0]) - (ex*normal[2]);
+				double pz = (ex*normal[1]) - (ey*normal[0]);
+				double pLength = Math.sqrt((px*px) + (py*py) + (pz*pz));
+				if (pLength == 0) continue;
+				
+				double[] plane = {px/pLength, py/pLength, pz/pLength, 0};
+				plane[3] = -((plane[0]*x[a]) + (plane[1]*y[a]) + (plane[2]*z[a]));
+				double weight = BORDER_WEIGHT * ((ex*ex) + (ey*ey) + (ez*ez));
+				addQuadric(a, plane, weight);
+				addQuadric(b, plane, weight);
+			}
+		}
+	}
+	
+	/*
+	 * Whether the edge a-b belongs to only one face
+	 */
+	private boolean isBorder(int a, int b) {
+		int count = 0;
+		for (int i=0; i<vertexFaceCounts[a]; i++) {
+			int face = vertexFaces[a][i];
+			if (removedFaces[face]) continue;
+			for (int corner=0; corner<3; corner++) {
+				if (indices[(face*3)+corner] == b) count++;
+			}
+		}
+		return count == 1;
+	}
+	
+	/*
+	 * Unit plane of a face as a, b, c, d and its area as the fifth value, null if
+	 * the face has no area
+	 */
+	private double[] plane(int face) {
+		int i0 = indices[face*3];
+		double[] normal = normal(i0, indices[(face*3)+1], indices[(face*3)+2], -1, 0, 0, 0);
+		double length = Math.sqrt((normal[0]*normal[0]) + (normal[1]*normal[1]) + (normal[2]*normal[2]));
+		if (length == 0) return null;
+		
+		double a = normal[0]/length, b = normal[1]/length, c = normal[2]/length;
+		return new double[] {a, b, c, -((a*x[i0]) + (b*y[i0]) + (c*z[i0])), length * 0.5};
+	}
+	
+	/*
+	 * Unnormalised normal of a triangle, with vertex moved (if not -1) at mx, my, mz
+	 */
+	private double[] normal(int i0, int i1, int i2, int moved, float mx, float my, float mz) {
+		double x0 = i0 == moved ? mx : x[i0], y0 = i0 == moved ? my : y[i0], z0 = i0 == moved ? mz : z[i0];
+		double x1 = i1 == moved ? mx : x[i1], y1 = i1 == moved ? my : y[i1], z1 = i1 == moved ? mz : z[i1];
+		double x2 = i2 == moved ? mx : x[i2], y2 = i2 == moved ? my : y[i2], z2 = i2 == moved ? mz : z[i2];
+		double ux = x1-x0, uy = y1-y0, uz = z1-z0, vx = x2-x0, vy = y2-y0, vz = z2-z0;
+		return new double[] {(uy*vz) - (uz*vy), (uz*vx) - (ux*vz), (ux*vy) - (uy*vx)};
+	}
+	
+	private void addQuadric(int v, double[] p, double weight) {
+		int q = v*10;
+		quadrics[q] += weight * p[0]*p[0];
+		quadrics[q+1] += weight * p[0]*p[1];
+		quadrics[q+2] += weight * p[0]*p[2];
+		quadrics[q+3] += weight * p[0]*p[3];
+		quadrics[q+4] += weight * p[1]*p[1];
+		quadrics[q+5] += weight * p[1]*p[2];
+		quadrics[q+6] += weight * p[1]*p[3];
+		quadrics[q+7] += weight * p[2]*p[2];
+		quadrics[q+8] += weight * p[2]*p[3];
+		quadrics[q+9] += weight * p[3]*p[3];
+	}
+	
+	/*
+	 * v^T Q v for v = (x, y, z, 1)
+	 */
+	private static double error(double[] q, double x, double y, double z) {
+		return (q[0]*x*x) + (2*q[1]*x*y) + (2*q[2]*x*z) + (2*q[3]*x) + (q[4]*y*y)
+				+ (2*q[5]*y*z) + (2*q[6]*y) + (q[7]*z*z) + (2*q[8]*z) + q[9];
+	}
+	
+	/*
+	 * Solves the gradient of the quadric for zero by Cramer's rule
+	 *
+	 * @return position or null when the quadric has no single minimum
+	 */
+	private static float[] optimal(double[] q) {
+		double det = (q[0]*((q[4]*q[7]) - (q[5]*q[5]))) - (q[1]*((q[1]*q[7]) - (q[5]*q[2])))
+				+ (q[2]*((q[1]*q[5]) - (q[4]*q[2])));
+		if (Math.abs(det) < SINGULAR) return null;
+		
+		double bx = -q[3], by = -q[6], bz = -q[8];
+		double px = ((bx*((q[4]*q[7]) - (q[5]*q[5]))) - (q[1]*((by*q[7]) - (q[5]*bz)))
+				+ (q[2]*((by*q[5]) - (q[4]*bz)))) / det;
+		double py = ((q[0]*((by*q[7]) - (q[5]*bz))) - (bx*((q[1]*q[7]) - (q[5]*q[2])))
+				+ (q[2]*((q[1]*bz) - (by*q[2])))) / det;
+		double pz = ((q[0]*((q[4]*bz) - (by*q[5]))) - (q[1]*((q[1]*bz) - (by*q[2])))
+				+ (bx*((q[1]*q[5]) - (q[4]*q[2])))) / det;
+		return new float[] {(float) px, (float) py, (float) pz};
+	}
+	
+	/*
+	 * Packs the remaining vertices and faces into a new object
+	 */
+	private RenderObject toObject(RenderObject original) {
+		int[] remap = new int[x.length];
+		Arrays.fill(remap, -1);
+		int vertexCount = 0;
+		for (int face=0; face<removedFaces.length; face++) {
+			if (removedFaces[face]) continue;
+			for (int corner=0; corner<3; corner++) {
+				int v = indices[(face*3)+corner];
+				if (remap[v] < 0) remap[v] = vertexCount++;
+			}
+		}
+		
+		PlyLoader.Mesh mesh = new PlyLoader.Mesh();
+		mesh.x = new float[vertexCount];
+		mesh.y = new float[vertexCount];
+		mesh.z = new float[vertexCount];
+		mesh.colours = new float[vertexCount*3];
+		for (int v=0; v<x.length; v++) {
+			int n = remap[v];
+			if (n < 0) continue;
+			mesh.x[n] = x[v];
+			mesh.y[n] = y[v];
+			mesh.z[n] = z[v];
+			System.arraycopy(colours, v*3, mesh.colours, n*3, 3);
+		}
+		
+		float[] texcoords = original.getTexcoords();
+		mesh.indices = new int[faceCount*3];
+		mesh.texcoords = texcoords != null ? new float[faceCount*6] : null;
+		int kept = 0;
+		for (int face=0; face<removedFaces.length; face++) {
+			if (removedFaces[face]) continue;
+			for (int corner=0; corner<3; corner++) {
+				mesh.indices[(kept*3)+corner] = remap[indices[(face*3)+corner]];
+			}
+			if (texcoords != null) {
+				System.arraycopy(texcoords, face*6, mesh.texcoords, kept*6, 6);
+			}
+			kept++;
+		}
+		mesh.textureFile = original.getTextureFile();
+		return new RenderObject(mesh);
+	}
+}
@@ -0,0 +1,160 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/*
+ * Parsed models kept in memory for a long running process, least recently used
+ * first out once more than a set number are held. A ply file on disk is keyed by
+ * its absolute path and reparsed if it has been modified since it was loaded.
+ * A name that is not a file on disk is looked up as a bundled resource.
+ *
+ * Several threads asking for a model that is not loaded yet wait for a single
+ * parse. Cached objects are shared so must only be read.
+ */
+public class ModelCache {
+	
+	// A model being or already loaded
+	private static final class Slot {
+		final long modified;
+		final CompletableFuture<RenderObject> object = new CompletableFuture<RenderObject>();
+		
+		Slot(long modified) {
+			this.modified = modified;
+		}
+	}
+	
+	private final int capacity;
+	
+	// Directory of MeshCache files to parse through, null to always parse the ply
+	private final Path meshCacheDirectory;
+	
+	// Access ordered, so the eldest slot is the least recently used
+	private final LinkedHashMap<String, Slot> entries;
+	
+	private long hits, misses;
+	
+	/*
+	 * @param capacity Most models to keep
+	 * @param meshCacheDirectory Directory of binary mesh caches, or null for none
+	 */
+	public ModelCache(int capacity, Path meshCacheDirectory) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Cache capacity must be at least 1");
+		}
+		this.capacity = capacity;
+		this.meshCacheDirectory = meshCacheDirectory;
+		this.entries = new LinkedHashMap<String, Slot>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Slot> eldest) {
+				return size() > ModelCache.this.capacity;
+			}
+		};
+	}
+	
+	/*
+	 * Finds a model, parsing it if it is not cached or has changed on disk
+	 * 
+	 * @param name Path of a ply file, or name of a bundled model such as blub.ply
+	 * @return object
+	 * @throws IOException If the model cannot be found or parsed
+	 */
+	public RenderObject get(String name) throws IOException {
+		Path file = Paths.get(name).toAbsolutePath().normalize();
+		boolean onDisk = Files.isRegularFile(file);
+		String key = onDisk ? file.toString() : "resource:" + name;
+		long modified = onDisk ? Files.getLastModifiedTime(file).toMillis() : 0;
+		
+		Slot slot;
+		boolean load = false;
+		synchronized (entries) {
+			slot = entries.get(key);
+			if (slot == null || slot.modified != modified) {
+				slot = new Slot(modified);
+				entries.put(key, slot);
+				load = true;
+				misses++;
+			}
+			else {
+				hits++;
+			}
+		}
+		
+		if (load) {
+			try {
+				slot.object.complete(load(onDisk ? file : null, name));
+			} catch (IOException | RuntimeException e) {
+				// Forget the failure so the next request tries again
+				synchronized (entries) {
+					entries.remove(key, slot);
+				}
+				slot.object.completeExceptionally(e);
+			}
+		}
+		
+		try {
+			return slot.object.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private RenderObject load(Path file, String resource) throws IOException {
+		RenderObject object;
+		if (file == null) {
+			object = new RenderObject(resource);
+		}
+		else if (meshCacheDirectory != null) {
+			object = MeshCache.load(file, meshCacheDirectory);
+		}
+		else {
+			object = new RenderObject(file);
+		}
+		
+		// Build the lazily created views now, before the object is shared between threads
+		object.getPoints();
+		object.getFaces();
+		try {
+			object.getTexture();
+		} catch (IOException e) {
+			// Reported by the renderer, which falls back to vertex colours
+		}
+		return object;
+	}
+	
+	/*
+	 * @return size Number of models held
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	/*
+	 * @return hits Requests served from the cache
+	 */
+	public long getHits() {
+		synchronized (entries) {
+			return this.hits;
+		}
+	}
+	
+	/*
+	 * @return misses Requests that had to parse a model
+	 */
+	public long getMisses() {
+		synchronized (entries) {
+			return this.misses;
+		}
+	}
+}
@@ -0,0 +1,676 @@
+package main.java;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Reads PLY meshes straight into flat primitive arrays.
+ *
+ * The header is parsed once into a layout of elements and properties. Binary
+ * files (little or big endian) are then decoded directly from a memory mapped
+ * buffer, reading each property at its precomputed offset, and ASCII files are
+ * decoded by a tokenizer running over the same buffer without creating strings.
+ *
+ * Polygons with more than three vertices are split into a triangle fan.
+ */
+public class PlyLoader {
+
+	// Property types
+	private static final int CHAR = 0, UCHAR = 1, SHORT = 2, USHORT = 3, INT = 4, UINT = 5,
+			FLOAT = 6, DOUBLE = 7;
+
+	// Size in bytes of each property type
+	private static final int[] SIZES = {1, 1, 2, 2, 4, 4, 4, 8};
+
+	/*
+	 * Mesh data decoded from a PLY file
+	 */
+	public static class Mesh {
+		// Vertex coordinates
+		public float[] x, y, z;
+		// Vertex colours between 0 and 1, interleaved r,g,b. Null if the file has none
+		public float[] colours;
+		// Three vertex indices per triangle
+		public int[] indices;
+		// Texture coordinates, interleaved u,v for the three corners of each triangle.
+		// Null if the file has none
+		public float[] texcoords;
+		// Texture named by a "comment TextureFile" line, null if there is none
+		public String textureFile;
+		// minX, minY, minZ, maxX, maxY, maxZ, or null to have it computed
+		public float[] bounds;
+	}
+
+	/*
+	 * A property of an element. List properties have a count type as well as the
+	 * type of their items.
+	 */
+	private static class Property {
+		String name;
+		int type;
+		int countType = -1;
+		// Byte offset within the element, or -1 if preceded by a list
+		int offset;
+
+		boolean isList() {
+			return countType >= 0;
+		}
+	}
+
+	/*
+	 * An element of the header with its properties
+	 */
+	private static class Element {
+		String name;
+		int count;
+		List<Property> properties = new ArrayList<Property>();
+		// Size in bytes of each element, or -1 if it has list properties
+		int stride;
+
+		Property property(String name) {
+			for (Property property : properties) {
+				if (property.name.equals(name)) return property;
+			}
+			return null;
+		}
+	}
+
+	private enum Format { ASCII, BINARY_LITTLE_ENDIAN, BINARY_BIG_ENDIAN }
+
+	private ByteBuffer buffer;
+
+	private Format format;
+
+	private List<Element> elements = new ArrayList<Element>();
+
+	private String textureFile;
+
+	private PlyLoader(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+	}
+
+	/*
+	 * Loads a mesh from a ply file on the classpath. Files on disk are memory
+	 * mapped, anything else (e.g. inside a jar) is read into memory.
+	 *
+	 * @param resource Name of the ply file in the resources folder
+	 * @return mesh
+	 * @throws IOException
+	 */
+	public static Mesh loadResource(String resource) throws IOException {
+		URL url = PlyLoader.class.getClassLoader().getResource(resource);
+		if (url == null) {
+			throw new FileNotFoundException(resource);
+		}
+
+		if (url.getProtocol().equals("file")) {
+			try {
+				return loadFile(Paths.get(url.toURI()));
+			} catch (URISyntaxException e) {
+				throw new IOException(e);
+			}
+		}
+
+		try (InputStream stream = url.openStream()) {
+			return load(ByteBuffer.wrap(stream.readAllBytes()));
+		}
+	}
+
+	/*
+	 * Loads a mesh from a ply file by memory mapping it.
+	 *
+	 * @param file Path to the ply file
+	 * @return mesh
+	 * @throws IOException
+	 */
+	public static Mesh loadFile(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("PLY files over 2GB are not supported: " + file);
+			}
+			return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/*
+	 * Loads a mesh from the contents of a ply file. The buffer's position and
+	 * limit are not changed.
+	 *
+	 * @param buffer Ply file contents from its position to its limit
+	 * @return mesh
+	 * @throws IOException
+	 */
+	public static Mesh load(ByteBuffer buffer) throws IOException {
+		PlyLoader loader = new PlyLoader(buffer);
+		loader.readHeader();
+		return loader.readBody();
+	}
+
+	/*
+	 * Parses the header lines up to end_header, leaving the buffer at the start of
+	 * the body.
+	 */
+	private void readHeader() throws IOException {
+		if (!"ply".equals(readLine())) {
+			throw new IOException("Not a PLY file");
+		}
+
+		Element element = null;
+		String line;
+
+		while (!(line = readLine()).equals("end_header")) {
+			String[] words = line.trim().split("\\s+");
+
+			switch (words[0]) {
+			case "format":
+				switch (words[1]) {
+				case "ascii": format = Format.ASCII; break;
+				case "binary_little_endian": format = Format.BINARY_LITTLE_ENDIAN; break;
+				case "binary_big_endian": format = Format.BINARY_BIG_ENDIAN; break;
+				default: throw new IOException("Unknown PLY format " + words[1]);
+				}
+				break;
+
+			case "comment":
+				if (words.length > 2 && words[1].equals("TextureFile")) {
+					textureFile = line.substring(line.indexOf("TextureFile") + 11).trim();
+				}
+				break;
+
+			case "element":
+				element = new Element();
+				element.name = words[1];
+				element.count = Integer.parseInt(words[2]);
+				elements.add(element);
+				break;
+
+			case "property":
+				if (element == null) {
+					throw new IOException("Property before any element: " + line);
+				}
+				Property property = new Property();
+				if (words[1].equals("list")) {
+					property.countType = type(words[2]);
+					property.type = type(words[3]);
+					property.name = words[4];
+				}
+				else {
+					property.type = type(words[1]);
+					property.name = words[2];
+				}
+				element.properties.add(property);
+				break;
+
+			case "obj_info":
+				break;
+
+			default:
+				throw new IOException("Unknown PLY header line: " + line);
+			}
+		}
+
+		if (format == null) {
+			throw new IOException("PLY header has no format");
+		}
+
+		// Precompute the offset of each property and the size of each element
+		for (Element e : elements) {
+			int offset = 0;
+			for (Property property : e.properties) {
+				property.offset = offset;
+				if (offset >= 0) {
+					offset = property.isList() ? -1 : offset + SIZES[property.type];
+				}
+			}
+			e.stride = offset;
+		}
+
+		buffer.order(format == Format.BINARY_BIG_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/*
+	 * Reads one header line, accepting \n or \r\n endings
+	 */
+	private String readLine() throws IOException {
+		int start = buffer.position();
+
+		while (buffer.hasRemaining()) {
+			if (buffer.get() == '\n') {
+				int end = buffer.position() - 1;
+				if (end > start && buffer.get(end-1) == '\r') end--;
+
+				byte[] bytes = new byte[end-start];
+				for (int i=0; i<bytes.length; i++) bytes[i] = buffer.get(start+i);
+				return new String(bytes, StandardCharsets.US_ASCII);
+			}
+		}
+
+		throw new IOException("PLY header is not terminated by end_header");
+	}
+
+	/*
+	 * @param name PLY type name
+	 * @return type constant
+	 */
+	private static int type(String name) throws IOException {
+		switch (name) {
+		case "char": case "int8": return CHAR;
+		case "uchar": case "uint8": return UCHAR;
+		case "short": case "int16": return SHORT;
+		case "ushort": case "uint16": return USHORT;
+		case "int": case "int32": return INT;
+		case "uint": case "uint32": return UINT;
+		case "float": case "float32": return FLOAT;
+		case "double": case "float64": return DOUBLE;
+		default: throw new IOException("Unknown PLY type " + name);
+		}
+	}
+
+	/*
+	 * Decodes every element in file order, keeping vertices and faces.
+	 */
+	private Mesh readBody() throws IOException {
+		Mesh mesh = new Mesh();
+		mesh.textureFile = textureFile;
+
+		// Colours given per face are averaged onto their vertices
+		float[] faceColourSums = null;
+		int[] faceColourCounts = null;
+
+		for (Element element : elements) {
+			if (element.name.equals("vertex")) {
+				readVertices(element, mesh);
+			}
+			else if (element.name.equals("face")) {
+				if (mesh.x == null) {
+					throw new IOException("PLY faces come before vertices");
+				}
+				if (mesh.colours == null && element.property("red") != null) {
+					faceColourSums = new float[mesh.x.length * 3];
+					faceColourCounts = new int[mesh.x.length];
+				}
+				readFaces(element, mesh, faceColourSums, faceColourCounts);
+			}
+			else {
+				skip(element);
+			}
+		}
+
+		if (mesh.x == null || mesh.indices == null) {
+			throw new IOException("PLY file needs vertex and face elements");
+		}
+
+		if (faceColourSums != null) {
+			mesh.colours = faceColourSums;
+			for (int i=0; i<faceColourCounts.length; i++) {
+				for (int c=0; c<3; c++) {
+					mesh.colours[(i*3)+c] = faceColourCounts[i] == 0 ? 1f :
+						faceColourSums[(i*3)+c] / faceColourCounts[i];
+				}
+			}
+		}
+
+		return mesh;
+	}
+
+	/*
+	 * Decodes the vertex element into the mesh's coordinate and colour arrays
+	 */
+	private void readVertices(Element element, Mesh mesh) throws IOException {
+		int count = element.count;
+		mesh.x = new float[count];
+		mesh.y = new float[count];
+		mesh.z = new float[count];
+
+		Property x = element.property("x"), y = element.property("y"), z = element.property("z");
+		Property red = element.property("red"), green = element.property("green"),
+				blue = element.property("blue");
+		if (x == null || y == null || z == null) {
+			throw new IOException("PLY vertices need x, y and z");
+		}
+		boolean hasColour = red != null && green != null && blue != null;
+		if (hasColour) mesh.colours = new float[count * 3];
+
+		if (format != Format.ASCII && element.stride >= 0) {
+			// Fixed size records, read each property at its offset
+			int base = buffer.position();
+			int stride = element.stride;
+			if (buffer.remaining() < (long) count * stride) {
+				throw new IOException("Truncated vertex data");
+			}
+
+			for (int i=0; i<count; i++, base+=stride) {
+				mesh.x[i] = (float) read(base + x.offset, x.type);
+				mesh.y[i] = (float) read(base + y.offset, y.type);
+				mesh.z[i] = (float) read(base + z.offset, z.type);
+
+				if (hasColour) {
+					mesh.colours[i*3] = (float) read(base + red.offset, red.type) / 255f;
+					mesh.colours[(i*3)+1] = (float) read(base + green.offset, green.type) / 255f;
+					mesh.colours[(i*3)+2] = (float) read(base + blue.offset, blue.type) / 255f;
+				}
+			}
+			buffer.position(base);
+		}
+		else {
+			// Walk each property in turn
+			double[] values = new double[element.properties.size()];
+			int xi = element.properties.indexOf(x), yi = element.properties.indexOf(y),
+					zi = element.properties.indexOf(z);
+			int ri = element.properties.indexOf(red), gi = element.properties.indexOf(green),
+					bi = element.properties.indexOf(blue);
+
+			for (int i=0; i<count; i++) {
+				for (int p=0; p<values.length; p++) {
+					Property property = element.properties.get(p);
+					if (property.isList()) {
+						skipList(property);
+					}
+					else {
+						values[p] = next(property.type);
+					}
+				}
+
+				mesh.x[i] = (float) values[xi];
+				mesh.y[i] = (float) values[yi];
+				mesh.z[i] = (float) values[zi];
+
+				if (hasColour) {
+					mesh.colours[i*3] = (float) values[ri] / 255f;
+					mesh.colours[(i*3)+1] = (float) values[gi] / 255f;
+					mesh.colours[(i*3)+2] = (float) values[bi] / 255f;
+				}
+			}
+		}
+
+		if (!hasColour) {
+			mesh.colours = null;
+		}
+	}
+
+	/*
+	 * Decodes the face element into triangle indices, texture coordinates and
+	 * (if given per face) colours
+	 */
+	private void readFaces(Element element, Mesh mesh, float[] colourSums, int[] colourCounts)
+			throws IOException {
+		Property indexList = element.property("vertex_indices");
+		if (indexList == null) indexList = element.property("vertex_index");
+		if (indexList == null || !indexList.isList()) {
+			throw new IOException("Failed to read vertices");
+		}
+		Property texcoordList = element.property("texcoord");
+		Property red = element.property("red"), green = element.property("green"),
+				blue = element.property("blue");
+
+		// Sized for triangles, grown if there are larger polygons
+		int[] indices = new int[element.count * 3];
+		float[] texcoords = texcoordList != null ? new float[element.count * 6] : null;
+		int triangles = 0;
+
+		// Values of the current face
+		int[] corners = new int[8];
+		float[] uvs = new float[16];
+		int uvCount = 0;
+		float r = 0, g = 0, b = 0;
+
+		for (int f=0; f<element.count; f++) {
+			int cornerCount = 0;
+			uvCount = 0;
+
+			for (Property property : element.properties) {
+				if (property == indexList) {
+					cornerCount = (int) next(property.countType);
+					if (cornerCount > corners.length) corners = new int[cornerCount];
+					for (int i=0; i<cornerCount; i++) corners[i] = (int) next(property.type);
+				}
+				else if (property == texcoordList) {
+					uvCount = (int) next(property.countType);
+					if (uvCount > uvs.length) uvs = new float[uvCount];
+					for (int i=0; i<uvCount; i++) uvs[i] = (float) next(property.type);
+				}
+				else if (property.isList()) {
+					skipList(property);
+				}
+				else if (property == red) {
+					r = (float) next(property.type) / 255f;
+				}
+				else if (property == green) {
+					g = (float) next(property.type) / 255f;
+				}
+				else if (property == blue) {
+					b = (float) next(property.type) / 255f;
+				}
+				else {
+					next(property.type);
+				}
+			}
+
+			// Triangle fan around the first corner
+			for (int c=1; c+1<cornerCount; c++) {
+				if ((triangles+1)*3 > indices.length) {
+					indices = Arrays.copyOf(indices, indices.length*2);
+					if (texcoords != null) texcoords = Arrays.copyOf(texcoords, texcoords.length*2);
+				}
+
+				indices[triangles*3] = corners[0];
+				indices[(triangles*3)+1] = corners[c];
+				indices[(triangles*3)+2] = corners[c+1];
+
+				if (texcoords != null && uvCount == cornerCount*2) {
+					int t = triangles*6;
+					texcoords[t] = uvs[0];
+					texcoords[t+1] = uvs[1];
+					texcoords[t+2] = uvs[c*2];
+					texcoords[t+3] = uvs[(c*2)+1];
+					texcoords[t+4] = uvs[(c+1)*2];
+					texcoords[t+5] = uvs[((c+1)*2)+1];
+				}
+				triangles++;
+			}
+
+			if (colourSums != null) {
+				for (int c=0; c<cornerCount; c++) {
+					colourSums[corners[c]*3] += r;
+					colourSums[(corners[c]*3)+1] += g;
+					colourSums[(corners[c]*3)+2] += b;
+					colourCounts[corners[c]]++;
+				}
+			}
+		}
+
+		for (int i=0; i<triangles*3; i++) {
+			if (indices[i] < 0 || indices[i] >= mesh.x.length) {
+				throw new IOException("PLY face refers to missing vertex " + indices[i]);
+			}
+		}
+
+		mesh.indices = Arrays.copyOf(indices, triangles*3);
+		mesh.texcoords = texcoords != null ? Arrays.copyOf(texcoords, triangles*6) : null;
+	}
+
+	/*
+	 * Skips over every instance of an element we do not use
+	 */
+	private void skip(Element element) throws IOException {
+		if (format != Format.ASCII && element.stride >= 0) {
+			if (buffer.remaining() < (long) element.count * element.stride) {
+				throw new IOException("Truncated " + element.name + " data");
+			}
+			buffer.position(buffer.position() + (element.count * element.stride));
+			return;
+		}
+
+		for (int i=0; i<element.count; i++) {
+			for (Property property : element.properties) {
+				if (property.isList()) {
+					skipList(property);
+				}
+				else {
+					next(property.type);
+				}
+			}
+		}
+	}
+
+	private void skipList(Property property) throws IOException {
+		int count = (int) next(property.countType);
+		for (int i=0; i<count; i++) next(property.type);
+	}
+
+	/*
+	 * Reads a binary value at an absolute position
+	 */
+	private double read(int position, int type) {
+		switch (type) {
+		case CHAR: return buffer.get(position);
+		case UCHAR: return buffer.get(position) & 0xFF;
+		case SHORT: return buffer.getShort(position);
+		case USHORT: return buffer.getShort(position) & 0xFFFF;
+		case INT: return buffer.getInt(position);
+		case UINT: return buffer.getInt(position) & 0xFFFFFFFFL;
+		case FLOAT: return buffer.getFloat(position);
+		default: return buffer.getDouble(position);
+		}
+	}
+
+	/*
+	 * Reads the next value of the body, in binary or as an ASCII token
+	 */
+	private double next(int type) throws IOException {
+		if (format == Format.ASCII) {
+			return nextToken();
+		}
+
+		int position = buffer.position();
+		if (position + SIZES[type] > buffer.limit()) {
+			throw new IOException("PLY file is truncated");
+		}
+		buffer.position(position + SIZES[type]);
+		return read(position, type);
+	}
+
+	/*
+	 * Parses the next whitespace separated number in an ASCII body. Numbers with up
+	 * to 15 significant digits and small exponents are exact in double arithmetic,
+	 * anything longer falls back to Double.parseDouble.
+	 */
+	private double nextToken() throws IOException {
+		int limit = buffer.limit();
+		int position = buffer.position();
+
+		while (position < limit && buffer.get(position) <= ' ') position++;
+		if (position == limit) {
+			throw new IOException("PLY file is truncated");
+		}
+		int start = position;
+
+		boolean negative = false;
+		byte c = buffer.get(position);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			position++;
+		}
+
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean fast = true, any = false;
+
+		while (position < limit && (c = buffer.get(position)) >= '0' && c <= '9') {
+			if (digits < 18) {
+				mantissa = (mantissa*10) + (c-'0');
+				if (mantissa != 0) digits++;
+			}
+			else {
+				exponent++;
+				fast = false;
+			}
+			any = true;
+			position++;
+		}
+
+		if (position < limit && buffer.get(position) == '.') {
+			position++;
+			while (position < limit && (c = buffer.get(position)) >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = (mantissa*10) + (c-'0');
+					if (mantissa != 0) digits++;
+					exponent--;
+				}
+				else {
+					fast = false;
+				}
+				any = true;
+				position++;
+			}
+		}
+
+		if (position < limit && ((c = buffer.get(position)) == 'e' || c == 'E')) {
+			position++;
+			boolean negativeExponent = false;
+			if (position < limit && ((c = buffer.get(position)) == '-' || c == '+')) {
+				negativeExponent = c == '-';
+				position++;
+			}
+			int e = 0;
+			while (position < limit && (c = buffer.get(position)) >= '0' && c <= '9') {
+				if (e < 10000) e = (e*10) + (c-'0');
+				position++;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if (!any || (position < limit && buffer.get(position) > ' ')) {
+			// Not a plain decimal number, e.g. nan or inf
+			while (position < limit && buffer.get(position) > ' ') position++;
+			buffer.position(position);
+			return parseToken(start, position);
+		}
+		buffer.position(position);
+
+		if (fast && digits <= 15 && exponent >= -22 && exponent <= 22) {
+			double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] :
+				mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+		return parseToken(start, position);
+	}
+
+	// Exactly representable powers of ten
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i=1; i<POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+	}
+
+	private double parseToken(int start, int end) throws IOException {
+		byte[] bytes = new byte[end-start];
+		for (int i=0; i<bytes.length; i++) bytes[i] = buffer.get(start+i);
+		String token = new String(bytes, StandardCharsets.US_ASCII);
+
+		switch (token.toLowerCase()) {
+		case "nan": case "-nan": return Double.NaN;
+		case "inf": case "+inf": case "infinity": return Double.POSITIVE_INFINITY;
+		case "-inf": case "-infinity": return Double.NEGATIVE_INFINITY;
+		}
+
+		try {
+			return Double.parseDouble(token);
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad number in PLY file: " + token);
+		}
+	}
+}
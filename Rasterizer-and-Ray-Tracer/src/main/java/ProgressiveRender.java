@@ -0,0 +1,142 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.ObjIntConsumer;
+
+/*
+ * Renders a view at a quarter, then half, then full resolution, handing each
+ * image on as soon as it is done. The quarter image costs about a sixteenth of
+ * the pixels of the full one, so something usable is ready long before the full
+ * render finishes.
+ *
+ * Every level draws through the same renderer with its buffers swapped for
+ * pooled ones of the level's size, and the same camera scaled to match.
+ */
+public class ProgressiveRender {
+	
+	// Divisors of the full resolution, in the order they are drawn
+	private static final int[] DIVISORS = {4, 2, 1};
+	
+	private final Renderer renderer;
+	
+	private final Camera camera;
+	
+	// Nanoseconds from the start of the last render until each level was ready
+	private final long[] levelTimes = new long[DIVISORS.length];
+	
+	private int width, height;
+	
+	/*
+	 * @param renderer Renderer to draw every level with
+	 * @param camera Camera the renderer draws from, calibrated for the full resolution
+	 */
+	public ProgressiveRender(Renderer renderer, Camera camera) {
+		this.renderer = renderer;
+		this.camera = camera;
+	}
+	
+	/*
+	 * Draws each level in turn, leaving the renderer at full resolution with the
+	 * full image in its buffers. The renderer's buffers are only valid for the
+	 * level being handed on, copy them (e.g. with an ImageEncoder) to keep them.
+	 *
+	 * @param width Full width
+	 * @param height Full height
+	 * @param onLevel Called with the renderer and the level's divisor as each level is ready
+	 */
+	public void render(int width, int height, ObjIntConsumer<Renderer> onLevel) {
+		this.width = width;
+		this.height = height;
+		long start = System.nanoTime();
+		
+		// Divisor the camera is currently scaled for
+		int scaled = 1;
+		try {
+			for (int level=0; level<DIVISORS.length; level++) {
+				int divisor = DIVISORS[level];
+				// Never smaller than one pixel
+				renderer.setResolution(Math.max(width / divisor, 1), Math.max(height / divisor, 1));
+				camera.scale((float) scaled / divisor);
+				scaled = divisor;
+				
+				renderer.renderFrame();
+				levelTimes[level] = System.nanoTime() - start;
+				onLevel.accept(renderer, divisor);
+			}
+		} finally {
+			// Put the camera and buffers back as they were for a full render
+			camera.scale(scaled);
+			renderer.setResolution(width, height);
+		}
+	}
+	
+	/*
+	 * Renders a progressive preview of the default model with the default camera,
+	 * writing image_preview_4.jpg, image_preview_2.jpg and image_preview_1.jpg as
+	 * each level is ready
+	 *
+	 * @param threads Number of render threads
+	 */
+	public static void preview(int threads) {
+		try {
+			RenderObject object = new RenderObject();
+			Camera camera = new Camera();
+			camera.setR(camera.Ry90);
+			
+			Rasterizer rasterizer = new Rasterizer(object, camera);
+			rasterizer.setThreads(threads);
+			int width = rasterizer.getImageBuffer().getWidth(), height = rasterizer.getImageBuffer().getHeight();
+			camera.calibrate(object.getPoints(), width, height, true);
+			
+			ProgressiveRender progressive = new ProgressiveRender(rasterizer, camera);
+			List<CompletableFuture<?>> writes = new ArrayList<CompletableFuture<?>>();
+			
+			try (ImageEncoder encoder = new ImageEncoder(2)) {
+				progressive.render(width, height, (renderer, divisor) ->
+					writes.add(encoder.encode(renderer.getImageBuffer(),
+							Paths.get("image_preview_" + divisor + ".jpg"))));
+				CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+			}
+			
+			System.out.println(progressive);
+		
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		
+		System.out.println("Complete");
+	}
+	
+	/*
+	 * @param level Index of the level, 0 for the quarter resolution image
+	 * @return time Nanoseconds from the start of the last render until the level was ready
+	 */
+	public long getLevelTime(int level) {
+		return this.levelTimes[level];
+	}
+	
+	/*
+	 * @return levels Number of levels drawn by each render
+	 */
+	public int getLevels() {
+		return DIVISORS.length;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder string = new StringBuilder("Progressive render:");
+		for (int level=0; level<DIVISORS.length; level++) {
+			string.append(String.format(" 1/%d (%dx%d) after %.1f ms%s", DIVISORS[level],
+					Math.max(width / DIVISORS[level], 1), Math.max(height / DIVISORS[level], 1),
+					levelTimes[level] / 1e6, level < DIVISORS.length - 1 ? "," : ""));
+		}
+		return string.toString();
+	}
+}
@@ -0,0 +1,71 @@
+package main.java;
+
+import java.util.Arrays;
+
+/*
+ * Structure of arrays holding every vertex of an object after perspective 
+ * projection. Index i holds the projection of the object's i-th point so faces
+ * can index straight into it.
+ */
+public class ProjectedVertices {
+	
+	// Pixel x and y, and camera z for use by the Z-buffer
+	public float[] x, y, z;
+	
+	private int size;
+	
+	/*
+	 * Initialises buffers for the given number of vertices
+	 * 
+	 * @param size Number of vertices
+	 */
+	public ProjectedVertices(int size) {
+		x = new float[size];
+		y = new float[size];
+		z = new float[size];
+		this.size = size;
+	}
+	
+	/*
+	 * Resizes the buffers, only reallocating when they are too small so they can be
+	 * reused from frame to frame.
+	 * 
+	 * @param size Number of vertices
+	 */
+	public void resize(int size) {
+		if (size > x.length) {
+			x = new float[size];
+			y = new float[size];
+			z = new float[size];
+		}
+		this.size = size;
+	}
+	
+	/*
+	 * Appends a vertex after the current ones, growing the buffers if needed
+	 * 
+	 * @param x Pixel x
+	 * @param y Pixel y
+	 * @param z Camera z
+	 * @return index of the new vertex
+	 */
+	public int add(float x, float y, float z) {
+		if (size == this.x.length) {
+			int capacity = Math.max(16, size*2);
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.z = Arrays.copyOf(this.z, capacity);
+		}
+		this.x[size] = x;
+		this.y[size] = y;
+		this.z[size] = z;
+		return size++;
+	}
+	
+	/*
+	 * @return number of vertices
+	 */
+	public int size() {
+		return size;
+	}
+}
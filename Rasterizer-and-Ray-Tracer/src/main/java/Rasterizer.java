@@ -1,101 +1,1366 @@
 package main.java;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class Rasterizer {
+public class Rasterizer implements Renderer {
 	
 	private RenderObject object;
 	
+	// Drawn in place of object when set
+	private Scene scene;
+	
 	private Camera camera;
 	
-	private ImageBuffer imageBuffer = new ImageBuffer();
+	private ImageBuffer imageBuffer;
+	
+	private ZBuffer zBuffer;
+	
+	// Object's vertices projected to pixel coordinates, reused between frames
+	private ProjectedVertices projected = new ProjectedVertices(0);
+	
+	// Width and height of a screen tile in pixels
+	public static final int TILE_SIZE = 64;
+	
+	// Fractional bits of vertex positions in edge function fills
+	public static final int SUBPIXEL_BITS = 8;
+	
+	private static final int SUBPIXEL_ONE = 1 << SUBPIXEL_BITS;
+	
+	// Number of threads used to fill tiles, 1 renders on the calling thread
+	private int threads = 1;
+	
+	// Workers for tiled frames, kept from one frame to the next. Null for one thread.
+	private ForkJoinPool pool;
+	
+	// Working state of each thread that fills triangles
+	private final ThreadLocal<FillScratch> fillScratch = ThreadLocal.withInitial(FillScratch::new);
+	
+	private FillMode fillMode = FillMode.EDGE_FUNCTION;
+	
+	private CullMode cullMode = CullMode.NONE;
+	
+	// Faces that survived culling this frame, in face order
+	private int[] visibleFaces = new int[0];
+	
+	// Pixel bounds of each visible face for binning into tiles, four ints per face
+	private int[] visibleBounds = new int[0];
+	
+	// Bounds of the face being culled, only used on the calling thread
+	private final int[] cullBounds = new int[4];
+	
+	private int visibleCount;
+	
+	private CullingStats cullingStats = new CullingStats();
+	
+	// Per block and per tile depth bounds, used to skip hidden triangles
+	private DepthPyramid depthPyramid;
+	
+	// Off by default, the edge function fill is cheap enough that the tests cost more
+	// than they save on a single mesh
+	private boolean hierarchicalZ = false;
+	
+	// Triangles skipped by the depth pyramid this frame, in tiled renders only once
+	// every tile they were binned to skipped them
+	private AtomicInteger occluded = new AtomicInteger();
+	
+	// Triangle and tile pairs skipped by the depth pyramid this frame
+	private AtomicInteger occludedTiles = new AtomicInteger();
+	
+	// Per visible triangle, the number of tiles it was binned to and how many of those skipped it
+	private int[] binnedTiles = new int[0];
+	private AtomicIntegerArray skippedTiles = new AtomicIntegerArray(0);
+	
+	// Fill nearest triangles first so more of the rest can be skipped
+	private boolean sortFrontToBack = false;
+	
+	// Sort keys, depth bits above the triangle index
+	private long[] sortKeys = new long[0];
+	
+	// A triangle is only skipped when this far (relative) behind the depths it
+	// covers, as interpolated depths may stray a little below its nearest vertex
+	private static final float OCCLUSION_MARGIN = 1e-4f;
+	
+	// Record only depth, triangle and barycentrics while filling, then shade each 
+	// visible pixel once in a second pass
+	private boolean deferred = false;
+	
+	// Acquired on the first deferred frame at each resolution
+	private VisibilityBuffer visibilityBuffer;
+	
+	// Pixels that passed the depth test, and pixels shaded, in the last deferred frame
+	private AtomicLong fragments = new AtomicLong(), shadedPixels = new AtomicLong();
+	
+	// Depth tested coverage samples per pixel, shaded once per pixel and averaged
+	private int samples = 1;
+	
+	// Sample positions of the pattern for that count, in fixed point, see SamplePattern
+	private int[] sampleOffsetsX = SamplePattern.offsetsX(1), sampleOffsetsY = SamplePattern.offsetsY(1);
+	
+	// Pixels of the last multisampled frame resolved from more than one colour
+	private AtomicLong blendedPixels = new AtomicLong();
+	
+	// Whether this frame is deferred, multisampled frames and scenes are always shaded as they are filled
+	private boolean frameDeferred;
+	
+	// Stage timings and counters, DISABLED unless instrumented
+	private FrameStats frameStats = FrameStats.DISABLED;
+	
+	// Draw a simplified level of each object chosen by its size on screen
+	private boolean levelOfDetail = false;
+	
+	// Screen area of an object's bounding box each triangle of its level may stand for
+	private float pixelsPerTriangle = 4;
+	
+	// Sample the object's texture, when it has one, instead of its vertex colours.
+	// Off by default so the default render, and the fill modes, stay like for like.
+	private boolean texturing = false;
+	
+	private TextureFilter textureFilter = TextureFilter.TRILINEAR;
+	
+	// Objects whose texture has failed to load, so it is not retried
+	private Set<RenderObject> failedTextures = Collections.newSetFromMap(new IdentityHashMap<RenderObject, Boolean>());
+	
+	// Object being drawn, one instance at a time for a scene
+	private RenderObject frameObject;
+	
+	// Projection of frameObject's points to pixels, KR_t times the instance's transform
+	private float[][] frameProjection;
+	
+	// Texture drawn with this object, null for vertex colours
+	private Texture frameTexture;
+	
+	// Triangles, vertex colours and texture coordinates filled for this object. These 
+	// are the object's own arrays unless clipping made new triangles, which are then 
+	// appended to copies.
+	private int[] frameIndices;
+	
+	private float[] frameColours, frameTexcoords;
+	
+	private int frameTriangles;
+	
+	// Reused copies for frames with clipped triangles
+	private int[] clipIndices = new int[0];
+	
+	private float[] clipColours = new float[0], clipTexcoords = new float[0];
+	
+	// Pixels beyond each edge of the image a triangle may reach before it is clipped
+	public static final int GUARD_BAND = 2048;
+	
+	// Floats per clipped vertex, X, Y, W, r, g, b, u, v
+	private static final int CLIP_STRIDE = 8;
+	
+	// Clipping a triangle against six planes leaves at most nine vertices
+	private float[] clipPolygon = new float[9*CLIP_STRIDE], clipScratch = new float[9*CLIP_STRIDE];
+	
+	/*
+	 * Initialises rasterizer with given object and camera
+	 */
+	public Rasterizer(RenderObject object, Camera camera) {
+		this(object, camera, Buffer.DEFAULT_WIDTH, Buffer.DEFAULT_HEIGHT);
+	}
+	
+	/*
+	 * Initialises rasterizer with given object and camera rendering at the given
+	 * resolution
+	 */
+	public Rasterizer(RenderObject object, Camera camera, int width, int height) {
+		this.object = object;
+		this.camera = camera;
+		this.imageBuffer = BufferPool.SHARED.acquireImageBuffer(width, height);
+		this.zBuffer = BufferPool.SHARED.acquireZBuffer(width, height);
+		this.depthPyramid = new DepthPyramid(zBuffer);
+	}
+	
+	/*
+	 * Swaps the buffers for pooled ones of the new size, see Renderer
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setResolution(int width, int height) {
+		if (width == imageBuffer.getWidth() && height == imageBuffer.getHeight()) return;
+		
+		// Acquire first, an invalid size leaves the current buffers in place
+		ImageBuffer newImageBuffer = BufferPool.SHARED.acquireImageBuffer(width, height);
+		ZBuffer newZBuffer = BufferPool.SHARED.acquireZBuffer(width, height);
+		returnBuffers();
+		
+		imageBuffer = newImageBuffer;
+		zBuffer = newZBuffer;
+		depthPyramid = new DepthPyramid(zBuffer);
+	}
+	
+	/*
+	 * Returns the buffers to the shared pool and stops the render threads, see Renderer
+	 */
+	public void releaseBuffers() {
+		returnBuffers();
+		shutdownPool(pool);
+		pool = null;
+	}
+	
+	// Buffers go back to the shared pool, the render threads are kept
+	private void returnBuffers() {
+		BufferPool.SHARED.release(imageBuffer);
+		BufferPool.SHARED.release(zBuffer);
+		BufferPool.SHARED.release(visibilityBuffer);
+		imageBuffer = null;
+		zBuffer = null;
+		visibilityBuffer = null;
+		depthPyramid = null;
+	}
+	
+	/*
+	 * @param threads Number of threads to render with
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		}
+		if (threads == this.threads) return;
+		
+		shutdownPool(pool);
+		this.pool = workerPool(threads);
+		this.threads = threads;
+	}
+	
+	/*
+	 * Pool to render with on the given number of threads, started once and kept by
+	 * the renderer. The common pool is used when it has exactly that many workers.
+	 * 
+	 * @param threads Number of threads to render with
+	 * @return pool or null for a single thread
+	 */
+	static ForkJoinPool workerPool(int threads) {
+		if (threads == 1) return null;
+		if (ForkJoinPool.getCommonPoolParallelism() == threads) return ForkJoinPool.commonPool();
+		return new ForkJoinPool(threads);
+	}
+	
+	/*
+	 * Stops a pool from workerPool, leaving the common pool running
+	 * 
+	 * @param pool Pool to stop, ignored if null
+	 */
+	static void shutdownPool(ForkJoinPool pool) {
+		if (pool != null && pool != ForkJoinPool.commonPool()) {
+			pool.shutdown();
+		}
+	}
+	
+	/*
+	 * @return threads
+	 */
+	public int getThreads() {
+		return this.threads;
+	}
+	
+	/*
+	 * @return imageBuffer
+	 */
+	public ImageBuffer getImageBuffer() {
+		return imageBuffer;
+	}
+	
+	/*
+	 * @return zBuffer
+	 */
+	public ZBuffer getZBuffer() {
+		return zBuffer;
+	}
+	
+	/*
+	 * @param fillMode Polygon fill algorithm to use
+	 */
+	public void setFillMode(FillMode fillMode) {
+		this.fillMode = fillMode;
+	}
+	
+	/*
+	 * @return fillMode
+	 */
+	public FillMode getFillMode() {
+		return this.fillMode;
+	}
+	
+	/*
+	 * @param cullMode Winding of triangles to discard as back facing
+	 */
+	public void setCullMode(CullMode cullMode) {
+		this.cullMode = cullMode;
+	}
+	
+	/*
+	 * @return cullMode
+	 */
+	public CullMode getCullMode() {
+		return this.cullMode;
+	}
+	
+	/*
+	 * Skipping hidden triangles pays off with scanline fill, tiled renders and
+	 * front to back sorting. The image is the same either way.
+	 * 
+	 * @param hierarchicalZ Whether to skip triangles the depth pyramid shows are hidden
+	 */
+	public void setHierarchicalZ(boolean hierarchicalZ) {
+		this.hierarchicalZ = hierarchicalZ;
+	}
+	
+	/*
+	 * @return hierarchicalZ
+	 */
+	public boolean getHierarchicalZ() {
+		return this.hierarchicalZ;
+	}
+	
+	/*
+	 * Fills triangles nearest first, which lets the depth pyramid reject more of 
+	 * the hidden ones on dense meshes. Where triangles overlap at exactly the same 
+	 * depth the order, and so the image, can change.
+	 * 
+	 * @param sortFrontToBack Whether to sort triangles by their nearest vertex
+	 */
+	public void setSortFrontToBack(boolean sortFrontToBack) {
+		this.sortFrontToBack = sortFrontToBack;
+	}
+	
+	/*
+	 * @return sortFrontToBack
+	 */
+	public boolean getSortFrontToBack() {
+		return this.sortFrontToBack;
+	}
+	
+	/*
+	 * Draws each object, or instance, at the coarsest of its levels of detail that
+	 * still has a triangle for every few pixels it covers. Levels are simplified 
+	 * the first time an object is drawn with them, see LevelOfDetail.
+	 * 
+	 * @param levelOfDetail Whether to draw simplified levels of small objects
+	 */
+	public void setLevelOfDetail(boolean levelOfDetail) {
+		this.levelOfDetail = levelOfDetail;
+	}
+	
+	/*
+	 * @return levelOfDetail
+	 */
+	public boolean getLevelOfDetail() {
+		return this.levelOfDetail;
+	}
+	
+	/*
+	 * @param pixelsPerTriangle Area in pixels of an object's bounding box on screen 
+	 * each triangle may stand for when picking its level of detail
+	 */
+	public void setPixelsPerTriangle(float pixelsPerTriangle) {
+		if (!(pixelsPerTriangle > 0)) {
+			throw new IllegalArgumentException("Pixels per triangle must be positive");
+		}
+		this.pixelsPerTriangle = pixelsPerTriangle;
+	}
+	
+	/*
+	 * @return pixelsPerTriangle
+	 */
+	public float getPixelsPerTriangle() {
+		return this.pixelsPerTriangle;
+	}
+	
+	/*
+	 * Textures are sampled by the edge function fill and the deferred shading 
+	 * pass, scanline fill always uses vertex colours.
+	 * 
+	 * @param texturing Whether to draw the object's texture, when it has one
+	 */
+	public void setTexturing(boolean texturing) {
+		this.texturing = texturing;
+	}
+	
+	/*
+	 * @return texturing
+	 */
+	public boolean getTexturing() {
+		return this.texturing;
+	}
+	
+	/*
+	 * @param textureFilter How to blend texels and mip levels
+	 */
+	public void setTextureFilter(TextureFilter textureFilter) {
+		this.textureFilter = textureFilter;
+	}
+	
+	/*
+	 * @return textureFilter
+	 */
+	public TextureFilter getTextureFilter() {
+		return this.textureFilter;
+	}
+	
+	/*
+	 * Deferred frames fill a visibility buffer, so every pixel is shaded once 
+	 * however many triangles pass its depth test on the way. The visibility pass
+	 * always uses edge functions as the scanline edge list carries colours rather 
+	 * than barycentrics, so the fill mode does not apply.
+	 * 
+	 * Scenes are always drawn forward. Their instances are projected and culled one
+	 * at a time, so the triangles seen in the visibility buffer could only be shaded
+	 * after each instance, and pixels covered by several would be shaded once each.
+	 * 
+	 * @param deferred Whether to shade single objects in a second pass
+	 */
+	public void setDeferred(boolean deferred) {
+		this.deferred = deferred;
+	}
+	
+	/*
+	 * @return deferred
+	 */
+	public boolean getDeferred() {
+		return this.deferred;
+	}
+	
+	/*
+	 * Multisampled frames depth test several positions in each pixel (see 
+	 * SamplePattern) but shade each pixel a triangle covers once, at its centre or,
+	 * when the centre is outside the triangle, at the first sample inside. The 
+	 * samples' colours are averaged into the image at the end of the frame and the
+	 * Z buffer keeps the furthest of each pixel's sample depths. They are always
+	 * filled with edge functions on subpixel vertices and shaded as they are filled,
+	 * so the fill mode and deferred shading do not apply.
+	 * 
+	 * @param samples Samples per pixel, 1, 2, 4 or 8
+	 */
+	public void setSamples(int samples) {
+		if (!SamplePattern.isSupported(samples)) {
+			throw new IllegalArgumentException("Sample count must be 1, 2, 4 or 8, got " + samples);
+		}
+		if (samples == this.samples) return;
+		
+		this.samples = samples;
+		this.sampleOffsetsX = SamplePattern.offsetsX(samples);
+		this.sampleOffsetsY = SamplePattern.offsetsY(samples);
+	}
+	
+	/*
+	 * @return samples
+	 */
+	public int getSamples() {
+		return this.samples;
+	}
+	
+	/*
+	 * @return blendedPixels Pixels of the last frame resolved from more than one 
+	 * colour, the anti-aliased edges. 0 unless multisampled.
+	 */
+	public long getBlendedPixels() {
+		return blendedPixels.get();
+	}
+	
+	/*
+	 * @return visibilityBuffer Visible triangles of the last deferred frame, null 
+	 * before the first
+	 */
+	public VisibilityBuffer getVisibilityBuffer() {
+		return this.visibilityBuffer;
+	}
+	
+	/*
+	 * @return overdraw Depth test passes per shaded pixel in the last deferred frame,
+	 * which is how many times forward rendering would have shaded each one. 0 if the
+	 * frame was not deferred, as scene frames never are, or nothing was drawn.
+	 */
+	public double getOverdraw() {
+		if (shadedPixels.get() == 0) return 0;
+		return (double) fragments.get() / shadedPixels.get();
+	}
+	
+	/*
+	 * @return depthPyramid Hierarchical depth bounds of the Z buffer
+	 */
+	public DepthPyramid getDepthPyramid() {
+		return this.depthPyramid;
+	}
+	
+	/*
+	 * Turns per stage timings, pixel counters and flight recorder events on or off
+	 * 
+	 * @param instrumented True to record FrameStats for each frame
+	 */
+	public void setInstrumented(boolean instrumented) {
+		this.frameStats = instrumented ? new FrameStats() : FrameStats.DISABLED;
+	}
+	
+	/*
+	 * @return frameStats Stage timings and counters of the last frame, 
+	 * FrameStats.DISABLED unless instrumented
+	 */
+	public FrameStats getFrameStats() {
+		return this.frameStats;
+	}
+	
+	/*
+	 * Draws every instance of a scene in place of the object, in one pass into the
+	 * same buffers. The camera must be calibrated for the scene, e.g. from 
+	 * Scene.getPoints().
+	 * 
+	 * @param scene Scene to draw, or null to draw the object
+	 */
+	public void setScene(Scene scene) {
+		this.scene = scene;
+	}
+	
+	/*
+	 * @return scene Scene drawn in place of the object, or null
+	 */
+	public Scene getScene() {
+		return this.scene;
+	}
+	
+	/*
+	 * @return cullingStats Triangles removed by each culling stage in the last frame
+	 */
+	public CullingStats getCullingStats() {
+		return this.cullingStats;
+	}
+	
+	/*
+	 * Initialise object to be rendered
+	 * Position camera at object
+	 * Project every vertex to 2D pixel points once
+	 * Cull polygons that are behind the camera, off screen or back facing
+	 * Polygon-by-polygon rendering:
+	 * - Draw lines between vertices and construct the edge list
+	 * - Fill polygon:
+	 * - - Check Z buffer
+	 * - - If closer update z buffer and paint pixel
+	 */
+	public void render() {
+		try {
+			if (object == null && scene == null) {
+				frameStats.begin(FrameStats.Stage.LOAD);
+				object = new RenderObject();
+				frameStats.end(FrameStats.Stage.LOAD);
+			}
+			
+			if (camera == null) {
+				camera = new Camera();
+				
+				/************************************************************
+				 * 
+				 *				 CHANGE CAMERA ROTATIONS HERE
+				 * 
+				 ************************************************************/
+//				camera.setR(camera.matMul(camera.matMul(camera.Ry45, camera.Ry225), camera.Rz225));
+				camera.setR(camera.Ry90);
+				
+				frameStats.begin(FrameStats.Stage.CALIBRATE);
+				camera.calibrate(scene != null ? scene.getPoints() : object.getPoints(), 
+						imageBuffer.getWidth(), imageBuffer.getHeight(), true);
+				frameStats.end(FrameStats.Stage.CALIBRATE);
+			}
+			
+			renderFrame();
+			System.out.println(cullingStats);
+			if (frameDeferred) {
+				System.out.printf("Deferred: %d depth test passes for %d shaded pixels, overdraw %.2f%n", 
+						fragments.get(), shadedPixels.get(), getOverdraw());
+			}
+			
+			// Both images are encoded at once, off this thread
+			frameStats.begin(FrameStats.Stage.ENCODE);
+			try (ImageEncoder encoder = new ImageEncoder(2)) {
+				CompletableFuture.allOf(encoder.encode(imageBuffer, Paths.get("image.jpg")), 
+						encoder.encode(zBuffer, Paths.get("image_Z-Buffer.jpg"))).join();
+			}
+			frameStats.end(FrameStats.Stage.ENCODE);
+			
+			if (frameStats.isEnabled()) {
+				System.out.println(frameStats);
+				Files.write(Paths.get("image_stats.json"), frameStats.toJson().getBytes(StandardCharsets.UTF_8));
+			}
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		
+		System.out.println("Complete");
+	}
+	
+	/*
+	 * Renders the object, or every instance of the scene, as seen by the already 
+	 * calibrated camera into the image and Z buffers, without writing them out.
+	 * 
+	 * @throws CancellationException If interrupted while waiting for the tiles, 
+	 * with the thread's interrupt status set
+	 */
+	public void renderFrame() {
+		frameStats.beginFrame(imageBuffer.getWidth(), imageBuffer.getHeight());
+		
+		// Buffers are reused between renders, sample storage only changes with the count
+		frameDeferred = deferred && samples == 1 && scene == null;
+		imageBuffer.setSamples(samples);
+		zBuffer.setSamples(samples);
+		imageBuffer.reset();
+		zBuffer.reset();
+		depthPyramid.reset();
+		occluded.set(0);
+		occludedTiles.set(0);
+		fragments.set(0);
+		shadedPixels.set(0);
+		blendedPixels.set(0);
+		if (frameDeferred) {
+			if (visibilityBuffer == null) {
+				visibilityBuffer = BufferPool.SHARED.acquireVisibilityBuffer(imageBuffer.getWidth(), 
+						imageBuffer.getHeight());
+			}
+			visibilityBuffer.reset();
+		}
+		cullingStats.reset();
+		
+		if (scene == null) {
+			drawObject(object, camera.getKR_t(), object.getBoundingBox());
+		}
+		else {
+			// Instances share the buffers, so each is depth tested against those before it
+			float[][] KR_t = camera.getKR_t();
+			List<Scene.Instance> instances = scene.getInstances();
+			for (int i=0; i<instances.size(); i++) {
+				Scene.Instance instance = instances.get(i);
+				drawObject(instance.getMesh(), camera.matMul(KR_t, instance.getTransform()), 
+						instance.getBoundingBox());
+			}
+		}
+		
+		// Tiles of a single object resolve and measure themselves as they finish, a 
+		// scene's tiles are filled once per instance so are done here
+		if (threads == 1 || scene != null) {
+			if (samples > 1) {
+				frameStats.begin(FrameStats.Stage.SHADE);
+				blendedPixels.addAndGet(imageBuffer.resolve(0, 0, imageBuffer.getWidth(), imageBuffer.getHeight()));
+				frameStats.end(FrameStats.Stage.SHADE);
+			}
+			zBuffer.measure(0, 0, imageBuffer.getWidth(), imageBuffer.getHeight());
+		}
+		
+		cullingStats.occluded = occluded.get();
+		cullingStats.occludedTiles = occludedTiles.get();
+		frameStats.setTriangles(cullingStats);
+		frameStats.setPixelsCovered(zBuffer.getCovered());
+		frameStats.endFrame();
+	}
+	
+	/*
+	 * Projects, culls and fills one object, shading it straight away in deferred 
+	 * frames. Objects entirely off screen are rejected by their bounding box before
+	 * any of their vertices are projected, the rest are swapped for their level of
+	 * detail when enabled.
+	 * 
+	 * @param mesh Object to draw
+	 * @param projection 3x4 matrix taking the object's points to pixel coordinates and depth
+	 * @param bounds World space bounding box of the object
+	 */
+	private void drawObject(RenderObject mesh, float[][] projection, float[] bounds) {
+		frameStats.begin(FrameStats.Stage.SETUP);
+		boolean visible = boundsVisible(bounds);
+		frameStats.end(FrameStats.Stage.SETUP);
+		if (!visible) {
+			cullingStats.submitted += mesh.getFaceCount();
+			cullingStats.objectRejected += mesh.getFaceCount();
+			return;
+		}
+		
+		if (levelOfDetail) {
+			// Simplifying on the first frame is loading, later frames find the levels kept
+			if (!mesh.hasLevelOfDetail()) {
+				frameStats.begin(FrameStats.Stage.LOAD);
+				mesh.getLevelOfDetail();
+				frameStats.end(FrameStats.Stage.LOAD);
+			}
+			LevelOfDetail levels = mesh.getLevelOfDetail();
+			mesh = levels.getLevel(levels.select(camera.screenSize(bounds), pixelsPerTriangle));
+		}
+		
+		frameStats.begin(FrameStats.Stage.TRANSFORM);
+		projectVertices(mesh, projection);
+		frameStats.end(FrameStats.Stage.TRANSFORM);
+		
+		frameStats.begin(FrameStats.Stage.SETUP);
+		cullFaces();
+		frameStats.end(FrameStats.Stage.SETUP);
+		
+		frameTexture = frameTexcoords != null ? objectTexture() : null;
+		
+		if (threads > 1) {
+			renderTiles();
+		}
+		else {
+			frameStats.begin(FrameStats.Stage.FILL);
+			FillScratch scratch = fillScratch.get();
+			//i.e. for each polygon that survived culling
+			for (int k=0; k<visibleCount; k++) {
+				if (drawTriangle(visibleFaces[k], null, 0, 0, imageBuffer.getWidth(), imageBuffer.getHeight(), 
+						scratch)) {
+					occluded.incrementAndGet();
+					occludedTiles.incrementAndGet();
+				}
+			}
+			frameStats.end(FrameStats.Stage.FILL);
+			
+			if (frameDeferred) {
+				frameStats.begin(FrameStats.Stage.SHADE);
+				shadeVisible(0, 0, imageBuffer.getWidth(), imageBuffer.getHeight(), scratch);
+				frameStats.end(FrameStats.Stage.SHADE);
+			}
+		}
+	}
+	
+	/*
+	 * Finds the texture of the object being drawn, decoding it the first time. A 
+	 * texture that fails to load is reported once and the object drawn with its 
+	 * vertex colours.
+	 * 
+	 * @return texture or null
+	 */
+	private Texture objectTexture() {
+		if (!texturing || failedTextures.contains(frameObject)) return null;
+		
+		try {
+			if (frameObject.isTextureLoaded()) return frameObject.getTexture();
+			
+			// Decoding on the first frame is loading, later frames find it cached
+			frameStats.begin(FrameStats.Stage.LOAD);
+			try {
+				return frameObject.getTexture();
+			} finally {
+				frameStats.end(FrameStats.Stage.LOAD);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			failedTextures.add(frameObject);
+			return null;
+		}
+	}
+	
+	/*
+	 * Fills one triangle within a clip rectangle, unless the depth pyramid shows
+	 * every pixel it could touch already holds something nearer
+	 * 
+	 * @param face Index of the polygon in frameIndices
+	 * @param edgeList Edge list already built for scanline fill, or null to build it here
+	 * @param minX Left of clip rectangle (inclusive)
+	 * @param minY Top of clip rectangle (inclusive)
+	 * @param maxX Right of clip rectangle (exclusive)
+	 * @param maxY Bottom of clip rectangle (exclusive)
+	 * @param scratch Working state of the calling thread
+	 * @return Whether the depth pyramid showed the triangle hidden within the clip rectangle
+	 */
+	private boolean drawTriangle(int face, SortedMap<Integer, LinkedList<float[]>> edgeList, 
+			int minX, int minY, int maxX, int maxY, FillScratch scratch) {
+		int left = 0, top = 0, right = 0, bottom = 0;
+		
+		if (hierarchicalZ) {
+			// Pixels the fill may paint, row and column 0 never are
+			int[] bounds = scratch.bounds;
+			boundingBox(face, bounds, 0);
+			left = Math.max(bounds[0], Math.max(minX, 1));
+			top = Math.max(bounds[1], Math.max(minY, 1));
+			right = Math.min(bounds[2], Math.min(maxX, imageBuffer.getWidth()) - 1);
+			bottom = Math.min(bounds[3], Math.min(maxY, imageBuffer.getHeight()) - 1);
+			if (left > right || top > bottom) return false;
+			
+			int i0 = frameIndices[face*3], i1 = frameIndices[(face*3)+1], i2 = frameIndices[(face*3)+2];
+			float nearest = Math.min(projected.z[i0], Math.min(projected.z[i1], projected.z[i2]));
+			if (depthPyramid.occluded(left, top, right, bottom, nearest - (Math.abs(nearest) * OCCLUSION_MARGIN))) {
+				return true;
+			}
+		}
+		
+		if (samples > 1) {
+			fillTriangleMultisampled(face, minX, minY, maxX, maxY, scratch);
+		}
+		else if (fillMode == FillMode.SCANLINE && !frameDeferred) {
+			if (edgeList == null) {
+				// Gather polygon's projected vertices and construct edge list
+				edgeList = constructEdgeList(projectToPixelCoords(face));
+			}
+			// Fill the polygon
+			fillPolygon(edgeList, minX, minY, maxX, maxY);
+		}
+		else {
+			fillTriangle(face, minX, minY, maxX, maxY, scratch);
+		}
+		
+		if (hierarchicalZ) {
+			depthPyramid.markDirty(left, top, right, bottom);
+		}
+		return false;
+	}
+	
+	/*
+	 * Transform all vertices together so shared vertices are only projected once.
+	 * The frame starts with just the object's own triangles.
+	 */
+	void projectVertices() {
+		projectVertices(object, camera.getKR_t());
+	}
+	
+	/*
+	 * Projects an object's vertices, which then becomes the one drawn
+	 * 
+	 * @param mesh Object to project
+	 * @param projection 3x4 matrix taking its points to pixel coordinates and depth
+	 */
+	private void projectVertices(RenderObject mesh, float[][] projection) {
+		frameObject = mesh;
+		frameProjection = projection;
+		Kernels.DEFAULT.project(projection, mesh.getPointsX(), mesh.getPointsY(), 
+				mesh.getPointsZ(), projected);
+		frameIndices = mesh.getIndices();
+		frameColours = mesh.getColourData();
+		frameTexcoords = mesh.getTexcoords();
+		frameTriangles = mesh.getFaceCount();
+	}
+	
+	/*
+	 * Builds the list of the projected object's triangles worth filling, adding to
+	 * the frame's culling counts. Whole objects have already been tested against 
+	 * their bounding box, each face is tested in turn:
+	 * - every vertex nearer than the near plane, or every vertex beyond the far plane
+	 * - some vertex outside the depth range or the guard band, in which case the
+	 *   face is clipped and the pieces go through the remaining tests instead
+	 * - pixel bounding box entirely off the image (or in row or column 0, which 
+	 *   the fill never paints)
+	 * - winding matching the cull mode
+	 * Triangles stay in face order so the Z-buffer sees the same sequence of checks.
+	 */
+	void cullFaces() {
+		int faceCount = frameObject.getFaceCount();
+		int[] indices = frameObject.getIndices();
+		float near = camera.getNear(), far = camera.getFar();
+		
+		cullingStats.submitted += faceCount;
+		visibleCount = 0;
+		if (visibleFaces.length < faceCount) {
+			visibleFaces = new int[faceCount];
+		}
+		
+		float guardLeft = -GUARD_BAND, guardTop = -GUARD_BAND;
+		float guardRight = imageBuffer.getWidth() + GUARD_BAND;
+		float guardBottom = imageBuffer.getHeight() + GUARD_BAND;
+		
+		for (int i=0; i<faceCount; i++) {
+			int i0 = indices[i*3], i1 = indices[(i*3)+1], i2 = indices[(i*3)+2];
+			float w0 = projected.z[i0], w1 = projected.z[i1], w2 = projected.z[i2];
+			
+			if (w0 < near && w1 < near && w2 < near) {
+				cullingStats.behindCamera++;
+				continue;
+			}
+			if (w0 > far && w1 > far && w2 > far) {
+				cullingStats.beyondFar++;
+				continue;
+			}
+			
+			// Projected coordinates are only meaningful once every vertex is in range
+			boolean clip = w0 < near || w1 < near || w2 < near || w0 > far || w1 > far || w2 > far;
+			if (!clip) {
+				float 	minX = Math.min(projected.x[i0], Math.min(projected.x[i1], projected.x[i2])), 
+						maxX = Math.max(projected.x[i0], Math.max(projected.x[i1], projected.x[i2])), 
+						minY = Math.min(projected.y[i0], Math.min(projected.y[i1], projected.y[i2])), 
+						maxY = Math.max(projected.y[i0], Math.max(projected.y[i1], projected.y[i2]));
+				clip = minX < guardLeft || maxX > guardRight || minY < guardTop || maxY > guardBottom;
+			}
+			
+			if (clip) {
+				cullingStats.clipped++;
+				clipFace(i);
+			}
+			else {
+				addIfVisible(i);
+			}
+		}
+		
+		cullingStats.drawn += visibleCount;
+		
+		if (sortFrontToBack) sortFrontToBack();
+	}
+	
+	/*
+	 * Orders the visible triangles by their nearest vertex. Depths are positive once
+	 * clipped, so their bits sort in the same order as their values.
+	 */
+	private void sortFrontToBack() {
+		if (sortKeys.length < visibleCount) {
+			sortKeys = new long[visibleFaces.length];
+		}
+		
+		for (int k=0; k<visibleCount; k++) {
+			int face = visibleFaces[k];
+			float nearest = Math.min(projected.z[frameIndices[face*3]], 
+					Math.min(projected.z[frameIndices[(face*3)+1]], projected.z[frameIndices[(face*3)+2]]));
+			sortKeys[k] = ((long) Float.floatToIntBits(nearest) << 32) | face;
+		}
+		
+		Arrays.sort(sortKeys, 0, visibleCount);
+		for (int k=0; k<visibleCount; k++) {
+			visibleFaces[k] = (int) sortKeys[k];
+		}
+	}
 	
-	private ZBuffer zBuffer = new ZBuffer();
+	/*
+	 * Adds a triangle to the visible list unless it is off screen or back facing
+	 * 
+	 * @param triangle Index of the triangle in frameIndices
+	 */
+	private void addIfVisible(int triangle) {
+		int i0 = frameIndices[triangle*3], i1 = frameIndices[(triangle*3)+1], 
+				i2 = frameIndices[(triangle*3)+2];
+		
+		int[] bounds = cullBounds;
+		boundingBox(triangle, bounds, 0);
+		if (bounds[2] < 1 || bounds[3] < 1 || bounds[0] >= imageBuffer.getWidth() 
+				|| bounds[1] >= imageBuffer.getHeight()) {
+			cullingStats.outsideView++;
+			return;
+		}
+		
+		if (cullMode != CullMode.NONE) {
+			// Twice the signed area, positive for clockwise on screen as y points down
+			float area = ((projected.x[i1]-projected.x[i0]) * (projected.y[i2]-projected.y[i0])) 
+					- ((projected.y[i1]-projected.y[i0]) * (projected.x[i2]-projected.x[i0]));
+			if ((cullMode == CullMode.CLOCKWISE && area > 0) || 
+					(cullMode == CullMode.COUNTER_CLOCKWISE && area < 0)) {
+				cullingStats.backFacing++;
+				return;
+			}
+		}
+		
+		if (visibleCount == visibleFaces.length) {
+			visibleFaces = Arrays.copyOf(visibleFaces, visibleCount*2);
+		}
+		visibleFaces[visibleCount++] = triangle;
+	}
 	
 	/*
-	 * Initialises rasterizer with given object and camera
+	 * Clips a face in homogeneous coordinates (pixel x and y multiplied by depth w, 
+	 * and w) against the near and far planes and the guard band, so the divide by 
+	 * w is never done for a vertex behind the camera and no coordinate is far 
+	 * enough off screen to overflow the fill. Attributes are linear in these 
+	 * coordinates so depth, colour and texture coordinates are cut exactly. The resulting polygon is 
+	 * split into a fan of triangles appended after the object's own.
+	 * 
+	 * @param face Index of the face
 	 */
-	public Rasterizer(RenderObject object, Camera camera) {
-		this.object = object;
-		this.camera = camera;
+	private void clipFace(int face) {
+		int[] indices = frameObject.getIndices();
+		float[] colours = frameObject.getColourData(), texcoords = frameObject.getTexcoords();
+		float[] x = frameObject.getPointsX(), y = frameObject.getPointsY(), z = frameObject.getPointsZ();
+		float[][] KR_t = frameProjection;
+		
+		// Polygon vertices as X, Y, W, r, g, b, u, v
+		float[] polygon = clipPolygon;
+		int count = 3;
+		for (int j=0; j<3; j++) {
+			int vertex = indices[(face*3)+j], v = j*CLIP_STRIDE;
+			for (int row=0; row<3; row++) {
+				polygon[v+row] = (KR_t[row][0]*x[vertex] + KR_t[row][1]*y[vertex] 
+						+ KR_t[row][2]*z[vertex]) + KR_t[row][3];
+			}
+			polygon[v+3] = colours[vertex*3];
+			polygon[v+4] = colours[(vertex*3)+1];
+			polygon[v+5] = colours[(vertex*3)+2];
+			polygon[v+6] = texcoords != null ? texcoords[(face*6)+(j*2)] : 0;
+			polygon[v+7] = texcoords != null ? texcoords[(face*6)+(j*2)+1] : 0;
+		}
+		
+		float near = camera.getNear(), far = camera.getFar();
+		float right = imageBuffer.getWidth() + GUARD_BAND, bottom = imageBuffer.getHeight() + GUARD_BAND;
+		
+		// Planes as a, b, c, d with aX + bY + cW + d >= 0 inside
+		count = clipPolygon(polygon, count, 0, 0, 1, -near);
+		if (far != Float.POSITIVE_INFINITY) count = clipPolygon(polygon, count, 0, 0, -1, far);
+		count = clipPolygon(polygon, count, 1, 0, GUARD_BAND, 0);
+		count = clipPolygon(polygon, count, -1, 0, right, 0);
+		count = clipPolygon(polygon, count, 0, 1, GUARD_BAND, 0);
+		count = clipPolygon(polygon, count, 0, -1, bottom, 0);
+		if (count < 3) return;
+		
+		// Appended vertices and triangles need arrays of their own
+		if (frameIndices == indices) {
+			int vertexCount = frameObject.getPointsX().length;
+			if (clipIndices.length < indices.length) {
+				clipIndices = new int[indices.length + 64];
+			}
+			System.arraycopy(indices, 0, clipIndices, 0, indices.length);
+			if (clipColours.length < colours.length) {
+				clipColours = new float[colours.length + 64];
+			}
+			System.arraycopy(colours, 0, clipColours, 0, colours.length);
+			frameIndices = clipIndices;
+			frameColours = clipColours;
+			if (texcoords != null) {
+				if (clipTexcoords.length < texcoords.length) {
+					clipTexcoords = new float[texcoords.length + 128];
+				}
+				System.arraycopy(texcoords, 0, clipTexcoords, 0, texcoords.length);
+				frameTexcoords = clipTexcoords;
+			}
+			projected.resize(vertexCount);
+		}
+		
+		int first = projected.size();
+		for (int j=0; j<count; j++) {
+			int v = j*CLIP_STRIDE;
+			float w = polygon[v+2];
+			int vertex = projected.add(polygon[v]/w, polygon[v+1]/w, w);
+			if ((vertex*3)+3 > frameColours.length) {
+				frameColours = clipColours = Arrays.copyOf(frameColours, frameColours.length*2);
+			}
+			frameColours[vertex*3] = polygon[v+3];
+			frameColours[(vertex*3)+1] = polygon[v+4];
+			frameColours[(vertex*3)+2] = polygon[v+5];
+		}
+		
+		for (int j=1; j<count-1; j++) {
+			int triangle = frameTriangles++;
+			if ((triangle*3)+3 > frameIndices.length) {
+				frameIndices = clipIndices = Arrays.copyOf(frameIndices, frameIndices.length*2);
+			}
+			frameIndices[triangle*3] = first;
+			frameIndices[(triangle*3)+1] = first + j;
+			frameIndices[(triangle*3)+2] = first + j + 1;
+			
+			// Texture coordinates are per corner, so go with the triangle
+			if (frameTexcoords != null) {
+				if ((triangle*6)+6 > frameTexcoords.length) {
+					frameTexcoords = clipTexcoords = Arrays.copyOf(frameTexcoords, frameTexcoords.length*2);
+				}
+				int[] corners = {0, j, j+1};
+				for (int c=0; c<3; c++) {
+					frameTexcoords[(triangle*6)+(c*2)] = polygon[(corners[c]*CLIP_STRIDE)+6];
+					frameTexcoords[(triangle*6)+(c*2)+1] = polygon[(corners[c]*CLIP_STRIDE)+7];
+				}
+			}
+			addIfVisible(triangle);
+		}
 	}
 	
 	/*
-	 * Initialise object to be rendered
-	 * Position camera at object
-	 * Polygon-by-polygon rendering:
-	 * - Project vertices to 2D pixel points
-	 * - Draw lines between vertices and construct the edge list
-	 * - Fill polygon:
-	 * - - Check Z buffer
-	 * - - If closer update z buffer and paint pixel
+	 * One Sutherland-Hodgman pass of a polygon against a plane, in place
+	 * 
+	 * @param polygon Vertices as X, Y, W, r, g, b, u, v
+	 * @param count Number of vertices
+	 * @return number of vertices left
 	 */
-	public void render() {
+	private int clipPolygon(float[] polygon, int count, float a, float b, float c, float d) {
+		float[] output = clipScratch;
+		int kept = 0;
+		
+		for (int j=0; j<count; j++) {
+			int current = j*CLIP_STRIDE, next = ((j+1) % count)*CLIP_STRIDE;
+			float dc = (a*polygon[current]) + (b*polygon[current+1]) + (c*polygon[current+2]) + d;
+			float dn = (a*polygon[next]) + (b*polygon[next+1]) + (c*polygon[next+2]) + d;
+			
+			if (dc >= 0) {
+				System.arraycopy(polygon, current, output, kept*CLIP_STRIDE, CLIP_STRIDE);
+				kept++;
+			}
+			// Edge crosses the plane, add the point where it does
+			if ((dc >= 0) != (dn >= 0)) {
+				float t = dc / (dc - dn);
+				for (int k=0; k<CLIP_STRIDE; k++) {
+					output[(kept*CLIP_STRIDE)+k] = polygon[current+k] + (t * (polygon[next+k] - polygon[current+k]));
+				}
+				kept++;
+			}
+		}
+		
+		System.arraycopy(output, 0, polygon, 0, kept*CLIP_STRIDE);
+		return kept;
+	}
+	
+	/*
+	 * Tests whether a world space bounding box could be on screen by projecting its
+	 * eight corners. Boxes straddling the near or far plane are always kept.
+	 * 
+	 * @param bounds minX, minY, minZ, maxX, maxY, maxZ
+	 * @return False if the box is certainly not visible
+	 */
+	boolean boundsVisible(float[] bounds) {
+		float[][] KR_t = camera.getKR_t();
+		int width = imageBuffer.getWidth(), height = imageBuffer.getHeight();
+		int behind = 0, beyond = 0;
+		boolean left = true, right = true, above = true, below = true;
+		
+		for (int corner=0; corner<8; corner++) {
+			float x = bounds[(corner & 1) == 0 ? 0 : 3];
+			float y = bounds[(corner & 2) == 0 ? 1 : 4];
+			float z = bounds[(corner & 4) == 0 ? 2 : 5];
+			
+			float w = (KR_t[2][0]*x) + (KR_t[2][1]*y) + (KR_t[2][2]*z) + KR_t[2][3];
+			if (w > camera.getFar()) {
+				beyond++;
+				continue;
+			}
+			if (w < camera.getNear()) {
+				behind++;
+				continue;
+			}
+			
+			float px = ((KR_t[0][0]*x) + (KR_t[0][1]*y) + (KR_t[0][2]*z) + KR_t[0][3]) / w;
+			float py = ((KR_t[1][0]*x) + (KR_t[1][1]*y) + (KR_t[1][2]*z) + KR_t[1][3]) / w;
+			// Same rounding as pixelX and pixelY
+			left &= px <= 0;
+			above &= py <= 0;
+			right &= px > width-1;
+			below &= py > height-1;
+		}
+		
+		if (behind == 8 || beyond == 8) return false;
+		if (behind > 0 || beyond > 0) return true;
+		return !(left || right || above || below);
+	}
+	
+	/*
+	 * Tile based rendering on the renderer's pool of worker threads:
+	 * - Find every polygon's bounds (and construct its edge list for scanline fill) in parallel, 
+	 *   one contiguous range of polygons per thread
+	 * - Bin each polygon into every TILE_SIZE x TILE_SIZE tile its bounding box touches
+	 * - Fill the tiles in parallel, each tile only writing to its own pixels
+	 * - For deferred frames shade each tile as soon as it is filled
+	 * 
+	 * Polygons are binned in face order so every pixel sees the same sequence of
+	 * Z-buffer checks as the single threaded render, giving an identical image.
+	 */
+	private void renderTiles() {
+		int faceCount = visibleCount;
+		int width = imageBuffer.getWidth(), height = imageBuffer.getHeight();
+		int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		
 		try {
-			object = new RenderObject();
-			camera = new Camera();
-			
-			/************************************************************
-			 * 
-			 *				 CHANGE CAMERA ROTATIONS HERE
-			 * 
-			 ************************************************************/
-//			camera.setR(camera.matMul(camera.matMul(camera.Ry45, camera.Ry225), camera.Rz225));
-			camera.setR(camera.Ry90);
-			
-			camera.calibrate(object.getPoints(), imageBuffer.getWidth(), 
-					imageBuffer.getHeight(), true);
-			
-			//i.e. for each polygon
-			for (int i=0; i<object.getFaces().length; i++) {
-				// Pass polygon's vertices to project to 2D
-				float[][] projectedVerts = projectToPixelCoords(object.getFaces()[i]);
-				// Construct edge list
-				SortedMap<Integer, LinkedList<float[]>> edgeList = 
-						constructEdgeList(projectedVerts);
-				// Fill the polygon
-				fillPolygon(edgeList);
-			}
-			
-			imageBuffer.convertToImage("image.jpg");
-			zBuffer.convertToImage("image_Z-Buffer.jpg");			
+			frameStats.begin(FrameStats.Stage.SETUP);
+			// Setup results are only read once built so can be shared between tiles. 
+			// Each range writes its own entries, edge lists are only built for scanline fill.
+			if (visibleBounds.length < faceCount*4) {
+				visibleBounds = new int[visibleFaces.length*4];
+			}
+			int[] bounds = visibleBounds;
+			boolean scanline = fillMode == FillMode.SCANLINE && !frameDeferred && samples == 1;
+			List<SortedMap<Integer, LinkedList<float[]>>> edgeLists = scanline ? 
+					new ArrayList<SortedMap<Integer, LinkedList<float[]>>>(Collections.nCopies(faceCount, null)) : null;
 			
-		} catch (IOException e) {
-			e.printStackTrace();
+			List<Callable<Void>> setup = new ArrayList<Callable<Void>>(threads);
+			for (int t=0; t<threads; t++) {
+				final int first = (int) ((long) faceCount * t / threads), 
+						end = (int) ((long) faceCount * (t+1) / threads);
+				setup.add(() -> {
+					for (int k=first; k<end; k++) {
+						boundingBox(visibleFaces[k], bounds, k*4);
+						if (scanline) {
+							edgeLists.set(k, constructEdgeList(projectToPixelCoords(visibleFaces[k])));
+						}
+					}
+					return null;
+				});
+			}
+			for (Future<Void> result : pool.invokeAll(setup)) {
+				result.get();
+			}
+			
+			if (binnedTiles.length < faceCount) {
+				binnedTiles = new int[visibleFaces.length];
+				skippedTiles = new AtomicIntegerArray(visibleFaces.length);
+			}
+			int[] binned = binnedTiles;
+			AtomicIntegerArray skipped = skippedTiles;
+			
+			// Bin polygons into the tiles their bounding box overlaps, by position in visibleFaces
+			Tile[] tiles = new Tile[tilesX * tilesY];
+			for (int ty=0; ty<tilesY; ty++) {
+				for (int tx=0; tx<tilesX; tx++) {
+					tiles[(ty*tilesX)+tx] = new Tile(tx*TILE_SIZE, ty*TILE_SIZE, 
+							Math.min((tx+1)*TILE_SIZE, width), Math.min((ty+1)*TILE_SIZE, height));
+				}
+			}
+			
+			for (int i=0; i<faceCount; i++) {
+				binned[i] = 0;
+				skipped.set(i, 0);
+				
+				// Entirely off screen
+				if (bounds[(i*4)+2] < 0 || bounds[(i*4)+3] < 0) continue;
+				
+				int minTX = Math.max(bounds[i*4], 0) / TILE_SIZE;
+				int minTY = Math.max(bounds[(i*4)+1], 0) / TILE_SIZE;
+				int maxTX = Math.min(bounds[(i*4)+2], width-1) / TILE_SIZE;
+				int maxTY = Math.min(bounds[(i*4)+3], height-1) / TILE_SIZE;
+				
+				for (int ty=minTY; ty<=maxTY; ty++) {
+					for (int tx=minTX; tx<=maxTX; tx++) {
+						tiles[(ty*tilesX)+tx].add(i);
+						binned[i]++;
+					}
+				}
+			}
+			
+			frameStats.end(FrameStats.Stage.SETUP);
+			
+			// Fill each tile, clipped to its own region of the buffers
+			frameStats.begin(FrameStats.Stage.FILL);
+			List<Callable<Void>> fill = new ArrayList<Callable<Void>>(tiles.length);
+			for (Tile tile : tiles) {
+				if (tile.size() == 0) continue;
+				
+				fill.add(() -> {
+					FillScratch scratch = fillScratch.get();
+					for (int i=0; i<tile.size(); i++) {
+						int k = tile.get(i);
+						if (drawTriangle(visibleFaces[k], scanline ? edgeLists.get(k) : null, 
+								tile.minX, tile.minY, tile.maxX, tile.maxY, scratch)) {
+							occludedTiles.incrementAndGet();
+							// Hidden as a whole once the last of its tiles skips it
+							if (skipped.incrementAndGet(k) == binned[k]) {
+								occluded.incrementAndGet();
+							}
+						}
+					}
+					if (frameDeferred) {
+						shadeVisible(tile.minX, tile.minY, tile.maxX, tile.maxY, scratch);
+					}
+					if (scene == null) {
+						if (samples > 1) {
+							blendedPixels.addAndGet(imageBuffer.resolve(tile.minX, tile.minY, tile.maxX, tile.maxY));
+						}
+						zBuffer.measure(tile.minX, tile.minY, tile.maxX, tile.maxY);
+					}
+					return null;
+				});
+			}
+			for (Future<Void> result : pool.invokeAll(fill)) {
+				result.get();
+			}
+			frameStats.end(FrameStats.Stage.FILL);
+			
+		} catch (InterruptedException e) {
+			// The frame is incomplete, so give up on it rather than return part of an image
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while filling tiles");
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/*
+	 * Finds the pixel bounding box of a projected polygon
+	 * 
+	 * @param face Index of the polygon in frameIndices
+	 * @param bounds Array to write {minX, minY, maxX, maxY} into
+	 * @param offset Index of minX in bounds
+	 */
+	private void boundingBox(int face, int[] bounds, int offset) {
+		int[] indices = frameIndices;
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		
+		for (int i=0; i<3; i++) {
+			int vertex = indices[(face*3)+i];
+			int x = pixelX(vertex), y = pixelY(vertex);
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
 		}
 		
-		System.out.println("Complete");
+		bounds[offset] = minX;
+		bounds[offset+1] = minY;
+		bounds[offset+2] = maxX;
+		bounds[offset+3] = maxY;
+	}
+	
+	/*
+	 * @param vertex Index of a vertex
+	 * @return x pixel coordinate of the projected vertex
+	 */
+	private int pixelX(int vertex) {
+		return (int) Math.ceil(projected.x[vertex]);
+	}
+	
+	/*
+	 * @param vertex Index of a vertex
+	 * @return y pixel coordinate of the projected vertex
+	 */
+	private int pixelY(int vertex) {
+		return (int) Math.ceil(projected.y[vertex]);
+	}
+
+	/*
+	 * @param vertex Index of a vertex
+	 * @param subpixel Keep the fraction rather than rounding up to whole pixels
+	 * @return x Fixed point x of the projected vertex with SUBPIXEL_BITS fractional bits
+	 */
+	private long fixedX(int vertex, boolean subpixel) {
+		if (!subpixel) return (long) pixelX(vertex) << SUBPIXEL_BITS;
+		return Math.round((double) projected.x[vertex] * SUBPIXEL_ONE);
+	}
+	
+	/*
+	 * @param vertex Index of a vertex
+	 * @param subpixel Keep the fraction rather than rounding up to whole pixels
+	 * @return y Fixed point y of the projected vertex with SUBPIXEL_BITS fractional bits
+	 */
+	private long fixedY(int vertex, boolean subpixel) {
+		if (!subpixel) return (long) pixelY(vertex) << SUBPIXEL_BITS;
+		return Math.round((double) projected.y[vertex] * SUBPIXEL_ONE);
 	}
 
 	/*
-	 * For each polygon (face) retrieve the vertices at each index. These are then projected
-	 * to camera coordinates and converted to pixel coordinates.
+	 * For each polygon (face) retrieve the already projected vertices at each index 
+	 * along with their colours.
 	 * 
-	 * @param vertexIntices the indices at which the vertices of this polygon are located
+	 * @param face Index of the polygon in frameIndices
 	 * @returns projectedVerts the pixel coordinates of each vertex in the polygon
 	 */
-	private float[][] projectToPixelCoords(int[] vertexIndices) {
-		float[][] polygonVerts = new float[3][3];
+	float[][] projectToPixelCoords(int face) {
+		int[] indices = frameIndices;
+		float[] colours = frameColours;
 		float[][] projectedVerts = new float[3][6];
 	
-		polygonVerts[0] = object.getPoints()[vertexIndices[0]];
-		polygonVerts[1] = object.getPoints()[vertexIndices[1]];
-		polygonVerts[2] = object.getPoints()[vertexIndices[2]];
-	
-		float[][] cameraCoords = camera.perspectiveProjection(polygonVerts);
-	
 		for (int j=0; j<3; j++) {
-			projectedVerts[j][0] = (int) Math.ceil(cameraCoords[j][0]);
-			projectedVerts[j][1] = (int) Math.ceil(cameraCoords[j][1]);
+			int vertex = indices[(face*3)+j];
+			projectedVerts[j][0] = pixelX(vertex);
+			projectedVerts[j][1] = pixelY(vertex);
 			// For use by Z-buffer
-			projectedVerts[j][2] = cameraCoords[j][2];
-			projectedVerts[j][3]  = object.getColors()[vertexIndices[j]][0];
-			projectedVerts[j][4]  = object.getColors()[vertexIndices[j]][1];
-			projectedVerts[j][5]  = object.getColors()[vertexIndices[j]][2];
+			projectedVerts[j][2] = projected.z[vertex];
+			projectedVerts[j][3]  = colours[vertex*3];
+			projectedVerts[j][4]  = colours[(vertex*3)+1];
+			projectedVerts[j][5]  = colours[(vertex*3)+2];
 		}
 		
 		return projectedVerts;
@@ -111,7 +1376,7 @@ public class Rasterizer {
 	 * @param polygonPixels Polygon vertices (in pixels)
 	 * @returns edgeList Points where an edge has intersected a scanline with corresponding z values
 	 */
-	private SortedMap<Integer, LinkedList<float[]>> constructEdgeList(float[][] polygonPixels) {
+	SortedMap<Integer, LinkedList<float[]>> constructEdgeList(float[][] polygonPixels) {
 		SortedMap<Integer, LinkedList<float[]>> edgeList = 
 				new TreeMap<Integer, LinkedList<float[]>>();
 		
@@ -310,13 +1575,29 @@ public class Rasterizer {
 	 * Once we know this polygon isn't behind another, we can update the Z-buffer
 	 * and paint this pixel.
 	 * 
+	 * Only pixels inside the clip rectangle minX <= x < maxX, minY <= y < maxY are
+	 * touched. Interpolation still starts at the polygon's edge so a clipped fill
+	 * produces exactly the same values as an unclipped one.
+	 * 
 	 * @param edgeList Edge list for a polygon
+	 * @param minX Left of clip rectangle (inclusive)
+	 * @param minY Top of clip rectangle (inclusive)
+	 * @param maxX Right of clip rectangle (exclusive)
+	 * @param maxY Bottom of clip rectangle (exclusive)
 	 */
-	private void fillPolygon(SortedMap<Integer, LinkedList<float[]>> edgeList) {
+	void fillPolygon(SortedMap<Integer, LinkedList<float[]>> edgeList, 
+			int minX, int minY, int maxX, int maxY) {
 		// For a given value of y, we can take the first and last element in the edge list
 		// and interpolate the z and RGB values between them. To do this we must find
 		// the increment value for each value of x between these 2 points.
-		for(int y : edgeList.keySet()) {			
+		// Rows and columns outside the clip rectangle and image (or in row or column 0)
+		// are never painted, so the limits are worked out once rather than per pixel.
+		int rowStart = Math.max(minY, 1), rowEnd = Math.min(maxY, imageBuffer.getHeight());
+		if (rowStart >= rowEnd) return;
+		int paintStart = Math.max(minX, 1), lastColumn = Math.min(maxX, imageBuffer.getWidth()) - 1;
+		int tested = 0, written = 0;
+		
+		for(int y : edgeList.subMap(rowStart, rowEnd).keySet()) {			
 			int 	startX = (int) edgeList.get(y).getFirst()[0],
 					endX = (int) edgeList.get(y).getLast()[0];
 			
@@ -330,12 +1611,14 @@ public class Rasterizer {
 					gInc = findIncrement(g, edgeList.get(y).getLast()[3], endX-startX), 
 					bInc = findIncrement(b, edgeList.get(y).getLast()[4], endX-startX);
 			
-			for(int x=startX; x<=endX; x++) {
-				if(x < imageBuffer.getWidth() && x > 0 && y < imageBuffer.getHeight() && y > 0) {
-					if(zBuffer.check(x, y, z)) {
+			int paintEnd = Math.min(endX, lastColumn);
+			for(int x=startX; x<=paintEnd; x++) {
+				if (x >= paintStart) {
+					tested++;
+					if (zBuffer.check(x, y, z)) {
 						// Paint pixel
-						float[] colour = {r, g, b};
-						imageBuffer.paintPixel(x,y,colour);
+						imageBuffer.paintPixel(x, y, r, g, b);
+						written++;
 					}
 				}
 				if (x == endX-1) {
@@ -353,8 +1636,436 @@ public class Rasterizer {
 				
 			}
 		}
+		
+		frameStats.addPixels(tested, written);
 	}
 
+	/*
+	 * Fills a triangle row by row using its three edge functions. For each row the
+	 * span where all three edge functions are non-negative is found directly from 
+	 * the edge values at the left of the bounding box, then handed to the span 
+	 * kernel which depth tests and shades it. Z and RGB are planar across the
+	 * triangle so each span only needs its start values and x gradients, with no
+	 * edge list or per-pixel allocation.
+	 * 
+	 * As with fillPolygon only pixels inside the clip rectangle are touched. In 
+	 * deferred frames the span is written to the visibility buffer unshaded, and
+	 * in textured frames it is shaded from the texture.
+	 * 
+	 * Vertices are in fixed point with SUBPIXEL_BITS fractional bits, so coverage is
+	 * found with integer arithmetic only. Clipping to the guard band keeps them small
+	 * enough for edge functions to fit in a long. EDGE_FUNCTION snaps them to whole pixels
+	 * and fills every pixel on an edge, as the scanline fill does. SUBPIXEL keeps
+	 * their fraction, samples each pixel at its centre and only fills pixels exactly
+	 * on a top or left edge, so triangles sharing an edge never both fill a pixel.
+	 * 
+	 * @param face Index of the polygon in frameIndices
+	 * @param minX Left of clip rectangle (inclusive)
+	 * @param minY Top of clip rectangle (inclusive)
+	 * @param maxX Right of clip rectangle (exclusive)
+	 * @param maxY Bottom of clip rectangle (exclusive)
+	 * @param scratch Working state of the calling thread
+	 */
+	void fillTriangle(int face, int minX, int minY, int maxX, int maxY, FillScratch scratch) {
+		int[] indices = frameIndices;
+		float[] colours = frameColours;
+		int i0 = indices[face*3], i1 = indices[(face*3)+1], i2 = indices[(face*3)+2];
+		boolean subpixel = fillMode == FillMode.SUBPIXEL;
+		long 	x0 = fixedX(i0, subpixel), y0 = fixedY(i0, subpixel), 
+				x1 = fixedX(i1, subpixel), y1 = fixedY(i1, subpixel), 
+				x2 = fixedX(i2, subpixel), y2 = fixedY(i2, subpixel);
+		float 	r0 = colours[i0*3], g0 = colours[(i0*3)+1], b0 = colours[(i0*3)+2];
+		float z0 = projected.z[i0];
+		
+		// Twice the signed area, degenerate triangles cover no pixels
+		long area = edgeFunction(x0, y0, x1, y1, x2, y2);
+		if (area == 0) return;
+		
+		// Flip the sign of clockwise triangles so inside is always >= 0
+		int sign = area > 0 ? 1 : -1;
+		float invArea = 1f / (area * sign);
+		
+		// Pixel x is sampled at x - 1/2 in SUBPIXEL fills, matching pixelX's rounding up
+		long half = subpixel ? SUBPIXEL_ONE / 2 : 0;
+		
+		// Pixels with a sample in the bounding box, rows inside the clip rectangle and the image
+		int width = imageBuffer.getWidth();
+		int boxX = (int) -Math.floorDiv(-(Math.min(x0, Math.min(x1, x2)) + half), SUBPIXEL_ONE), 
+				boxEndX = (int) Math.floorDiv(Math.max(x0, Math.max(x1, x2)) + half, SUBPIXEL_ONE);
+		int startY = (int) Math.max(Math.max(-Math.floorDiv(-(Math.min(y0, Math.min(y1, y2)) + half), 
+				SUBPIXEL_ONE), minY), 1);
+		int endY = (int) Math.min(Math.min(Math.floorDiv(Math.max(y0, Math.max(y1, y2)) + half, 
+				SUBPIXEL_ONE), maxY-1), imageBuffer.getHeight()-1);
+		
+		// Columns are clipped per span, as steps from the left of the unclipped box
+		long clipFirst = Math.max(minX, 1) - boxX;
+		long clipLast = Math.min(Math.min(boxEndX, maxX-1), width-1) - boxX;
+		if (startY > endY || clipFirst > clipLast) return;
+		
+		// Edge function values at the sample of the box's left pixel on the first row, 
+		// w0 is opposite v0 etc.
+		long sampleX = ((long) boxX * SUBPIXEL_ONE) - half, sampleY = ((long) startY * SUBPIXEL_ONE) - half;
+		long 	w0Row = sign * edgeFunction(x1, y1, x2, y2, sampleX, sampleY), 
+				w1Row = sign * edgeFunction(x2, y2, x0, y0, sampleX, sampleY), 
+				w2Row = sign * edgeFunction(x0, y0, x1, y1, sampleX, sampleY);
+		
+		// Increments for a step of one pixel in x and in y
+		long 	w0StepX = sign * (y2-y1) * SUBPIXEL_ONE, w0StepY = sign * -(x2-x1) * SUBPIXEL_ONE, 
+				w1StepX = sign * (y0-y2) * SUBPIXEL_ONE, w1StepY = sign * -(x0-x2) * SUBPIXEL_ONE, 
+				w2StepX = sign * (y1-y0) * SUBPIXEL_ONE, w2StepY = sign * -(x1-x0) * SUBPIXEL_ONE;
+		
+		// Samples exactly on an edge only count as inside for top and left edges
+		long 	w0Bias = subpixel ? topLeftBias(w0StepX, w0StepY) : 0, 
+				w1Bias = subpixel ? topLeftBias(w1StepX, w1StepY) : 0, 
+				w2Bias = subpixel ? topLeftBias(w2StepX, w2StepY) : 0;
+		
+		// Attribute differences relative to v0
+		float 	dz1 = projected.z[i1]-z0, dz2 = projected.z[i2]-z0, 
+				dr1 = colours[i1*3]-r0, dr2 = colours[i2*3]-r0, 
+				dg1 = colours[(i1*3)+1]-g0, dg2 = colours[(i2*3)+1]-g0, 
+				db1 = colours[(i1*3)+2]-b0, db2 = colours[(i2*3)+2]-b0;
+		
+		// Change in each attribute for a step in x
+		float 	l1StepX = w1StepX * invArea, l2StepX = w2StepX * invArea, 
+				dzdx = (l1StepX*dz1) + (l2StepX*dz2), 
+				drdx = (l1StepX*dr1) + (l2StepX*dr2), 
+				dgdx = (l1StepX*dg1) + (l2StepX*dg2), 
+				dbdx = (l1StepX*db1) + (l2StepX*db2);
+		
+		float[] depth = zBuffer.getBuffer();
+		int[] pixels = imageBuffer.getPixels();
+		int tested = 0, written = 0;
+		
+		TexturedTriangle textured = null;
+		if (frameTexture != null && !frameDeferred) {
+			textured = scratch.textured;
+			setUpTexture(textured, face);
+		}
+		
+		for (int y=startY; y<=endY; y++) {
+			// Range of steps from boxX where the pixel is inside all three edges
+			long first = 0, last = boxEndX-boxX;
+			first = Math.max(first, firstInside(w0Row + w0Bias, w0StepX));
+			first = Math.max(first, firstInside(w1Row + w1Bias, w1StepX));
+			first = Math.max(first, firstInside(w2Row + w2Bias, w2StepX));
+			last = Math.min(last, lastInside(w0Row + w0Bias, w0StepX));
+			last = Math.min(last, lastInside(w1Row + w1Bias, w1StepX));
+			last = Math.min(last, lastInside(w2Row + w2Bias, w2StepX));
+			
+			// The span starts at its first inside pixel whatever the clip rectangle, 
+			// so tiles and the whole screen give bit identical values
+			if (first <= last && first <= clipLast && last >= clipFirst) {
+				float 	l1 = (w1Row + first*w1StepX) * invArea, 
+						l2 = (w2Row + first*w2StepX) * invArea;
+				int 	offset = (y*width) + boxX + (int) first, 
+						start = (int) (Math.max(first, clipFirst) - first), 
+						end = (int) (Math.min(last, clipLast) - first) + 1;
+				tested += end - start;
+				
+				if (frameDeferred) {
+					written += Kernels.DEFAULT.fillVisibilitySpan(depth, 
+							visibilityBuffer.getTriangles(), visibilityBuffer.getU(), 
+							visibilityBuffer.getV(), offset, start, end, 
+							z0 + (l1*dz1) + (l2*dz2), dzdx, face, l1, l1StepX, l2, l2StepX);
+				}
+				else if (textured != null) {
+					written += textured.fillSpan(depth, pixels, offset, start, end, 
+							z0 + (l1*dz1) + (l2*dz2), dzdx, l1, l1StepX, l2, l2StepX);
+				}
+				else {
+					written += Kernels.DEFAULT.fillSpan(depth, pixels, offset, start, end, 
+							z0 + (l1*dz1) + (l2*dz2), dzdx, 
+							r0 + (l1*dr1) + (l2*dr2), drdx, 
+							g0 + (l1*dg1) + (l2*dg2), dgdx, 
+							b0 + (l1*db1) + (l2*db2), dbdx);
+				}
+			}
+			
+			w0Row += w0StepY;
+			w1Row += w1StepY;
+			w2Row += w2StepY;
+		}
+		
+		if (frameDeferred && written > 0) fragments.addAndGet(written);
+		frameStats.addPixels(tested, written);
+	}
+	
+	/*
+	 * Multisampled fill of a triangle, see setSamples. Coverage of every sample is 
+	 * found with integer edge functions on subpixel vertices, using the top-left 
+	 * rule so a sample on a shared edge belongs to one triangle. Each row only visits
+	 * the pixels between the first and last inside any sample. Samples inside the 
+	 * triangle are depth tested at their own positions, and if any pass the pixel is
+	 * shaded once and the colour stored for each of them.
+	 * 
+	 * @param face Index of the polygon in frameIndices
+	 * @param minX Left of clip rectangle (inclusive)
+	 * @param minY Top of clip rectangle (inclusive)
+	 * @param maxX Right of clip rectangle (exclusive)
+	 * @param maxY Bottom of clip rectangle (exclusive)
+	 * @param scratch Working state of the calling thread
+	 */
+	void fillTriangleMultisampled(int face, int minX, int minY, int maxX, int maxY, FillScratch scratch) {
+		int[] indices = frameIndices;
+		float[] colours = frameColours;
+		int i0 = indices[face*3], i1 = indices[(face*3)+1], i2 = indices[(face*3)+2];
+		long 	x0 = fixedX(i0, true), y0 = fixedY(i0, true), 
+				x1 = fixedX(i1, true), y1 = fixedY(i1, true), 
+				x2 = fixedX(i2, true), y2 = fixedY(i2, true);
+		float 	r0 = colours[i0*3], g0 = colours[(i0*3)+1], b0 = colours[(i0*3)+2];
+		float z0 = projected.z[i0];
+		
+		long area = edgeFunction(x0, y0, x1, y1, x2, y2);
+		if (area == 0) return;
+		int sign = area > 0 ? 1 : -1;
+		float invArea = 1f / (area * sign);
+		
+		// Pixel x spans x-1 to x, its centre at x - 1/2 as in the SUBPIXEL fill, so
+		// the box holds every pixel the triangle reaches into
+		int width = imageBuffer.getWidth();
+		long half = SUBPIXEL_ONE / 2;
+		int boxX = (int) Math.floorDiv(Math.min(x0, Math.min(x1, x2)), SUBPIXEL_ONE) + 1, 
+				boxEndX = (int) Math.floorDiv(Math.max(x0, Math.max(x1, x2)), SUBPIXEL_ONE) + 1;
+		int startY = (int) Math.max(Math.max(Math.floorDiv(Math.min(y0, Math.min(y1, y2)), SUBPIXEL_ONE) + 1, 
+				minY), 1);
+		int endY = (int) Math.min(Math.min(Math.floorDiv(Math.max(y0, Math.max(y1, y2)), SUBPIXEL_ONE) + 1, 
+				maxY-1), imageBuffer.getHeight()-1);
+		
+		long clipFirst = Math.max(minX, 1) - boxX;
+		long clipLast = Math.min(Math.min(boxEndX, maxX-1), width-1) - boxX;
+		if (startY > endY || clipFirst > clipLast) return;
+		
+		// Edge functions at the centre of the box's left pixel on the first row
+		long sampleX = ((long) boxX * SUBPIXEL_ONE) - half, sampleY = ((long) startY * SUBPIXEL_ONE) - half;
+		long 	w0Row = sign * edgeFunction(x1, y1, x2, y2, sampleX, sampleY), 
+				w1Row = sign * edgeFunction(x2, y2, x0, y0, sampleX, sampleY), 
+				w2Row = sign * edgeFunction(x0, y0, x1, y1, sampleX, sampleY);
+		
+		long 	w0StepX = sign * (y2-y1) * SUBPIXEL_ONE, w0StepY = sign * -(x2-x1) * SUBPIXEL_ONE, 
+				w1StepX = sign * (y0-y2) * SUBPIXEL_ONE, w1StepY = sign * -(x0-x2) * SUBPIXEL_ONE, 
+				w2StepX = sign * (y1-y0) * SUBPIXEL_ONE, w2StepY = sign * -(x1-x0) * SUBPIXEL_ONE;
+		long 	w0Bias = topLeftBias(w0StepX, w0StepY), w1Bias = topLeftBias(w1StepX, w1StepY), 
+				w2Bias = topLeftBias(w2StepX, w2StepY);
+		
+		float 	dz1 = projected.z[i1]-z0, dz2 = projected.z[i2]-z0, 
+				dr1 = colours[i1*3]-r0, dr2 = colours[i2*3]-r0, 
+				dg1 = colours[(i1*3)+1]-g0, dg2 = colours[(i2*3)+1]-g0, 
+				db1 = colours[(i1*3)+2]-b0, db2 = colours[(i2*3)+2]-b0;
+		float 	dzdx = ((w1StepX*dz1) + (w2StepX*dz2)) * invArea, 
+				dzdy = ((w1StepY*dz1) + (w2StepY*dz2)) * invArea;
+		
+		// Each sample's edge function and depth relative to its pixel's centre
+		int samples = this.samples;
+		int[] offsetX = sampleOffsetsX, offsetY = sampleOffsetsY;
+		long[] w0Offset = scratch.w0Offset, w1Offset = scratch.w1Offset, w2Offset = scratch.w2Offset;
+		float[] zOffset = scratch.zOffset;
+		for (int s=0; s<samples; s++) {
+			w0Offset[s] = ((offsetX[s]*w0StepX) + (offsetY[s]*w0StepY)) / SUBPIXEL_ONE;
+			w1Offset[s] = ((offsetX[s]*w1StepX) + (offsetY[s]*w1StepY)) / SUBPIXEL_ONE;
+			w2Offset[s] = ((offsetX[s]*w2StepX) + (offsetY[s]*w2StepY)) / SUBPIXEL_ONE;
+			zOffset[s] = ((offsetX[s]*dzdx) + (offsetY[s]*dzdy)) / SUBPIXEL_ONE;
+		}
+		
+		float[] depth = zBuffer.getBuffer(), sampleDepth = zBuffer.getSampleBuffer();
+		int[] sampleColour = imageBuffer.getSamplePixels();
+		int tested = 0, written = 0;
+		
+		TexturedTriangle textured = null;
+		if (frameTexture != null) {
+			textured = scratch.textured;
+			setUpTexture(textured, face);
+		}
+		
+		for (int y=startY; y<=endY; y++) {
+			// Pixels from boxX with any sample inside all three edges
+			long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+			for (int s=0; s<samples; s++) {
+				long 	w0 = w0Row + w0Offset[s] + w0Bias, w1 = w1Row + w1Offset[s] + w1Bias, 
+						w2 = w2Row + w2Offset[s] + w2Bias;
+				first = Math.min(first, Math.max(Math.max(firstInside(w0, w0StepX), 
+						firstInside(w1, w1StepX)), firstInside(w2, w2StepX)));
+				last = Math.max(last, Math.min(Math.min(lastInside(w0, w0StepX), 
+						lastInside(w1, w1StepX)), lastInside(w2, w2StepX)));
+			}
+			first = Math.max(first, clipFirst);
+			last = Math.min(last, clipLast);
+			
+			for (long k=first; k<=last; k++) {
+				long w0 = w0Row + k*w0StepX, w1 = w1Row + k*w1StepX, w2 = w2Row + k*w2StepX;
+				int pixel = (y*width) + boxX + (int) k, base = pixel * samples;
+				
+				// Samples inside the triangle that pass the depth test
+				float zCentre = z0 + (((w1*dz1) + (w2*dz2)) * invArea);
+				int covered = -1, passed = 0;
+				for (int s=0; s<samples; s++) {
+					if (w0 + w0Offset[s] + w0Bias < 0 || w1 + w1Offset[s] + w1Bias < 0 
+							|| w2 + w2Offset[s] + w2Bias < 0) continue;
+					if (covered < 0) covered = s;
+					
+					float z = zCentre + zOffset[s];
+					if (z < sampleDepth[base+s]) {
+						sampleDepth[base+s] = z;
+						passed |= 1 << s;
+					}
+				}
+				if (covered < 0) continue;
+				tested++;
+				if (passed == 0) continue;
+				written++;
+				
+				// Shade at the centre, or at a covered sample so colours are not extrapolated
+				if (w0 < 0 || w1 < 0 || w2 < 0) {
+					w1 += w1Offset[covered];
+					w2 += w2Offset[covered];
+				}
+				float l1 = w1 * invArea, l2 = w2 * invArea;
+				int colour = textured != null ? textured.shade(l1, l2) : ImageBuffer.convertToRGB(
+						r0 + (l1*dr1) + (l2*dr2), g0 + (l1*dg1) + (l2*dg2), b0 + (l1*db1) + (l2*db2)) 
+						& 0xFFFFFF;
+				
+				float furthest = 0;
+				for (int s=0; s<samples; s++) {
+					if ((passed & (1 << s)) != 0) sampleColour[base+s] = colour;
+					furthest = Math.max(furthest, sampleDepth[base+s]);
+				}
+				// Furthest sample, so the depth pyramid only skips what every sample hides
+				depth[pixel] = furthest;
+			}
+			
+			w0Row += w0StepY;
+			w1Row += w1StepY;
+			w2Row += w2StepY;
+		}
+		
+		frameStats.addPixels(tested, written);
+	}
+	
+	/*
+	 * Deferred shading pass over a region. Each pixel the visibility pass covered
+	 * is shaded exactly once, from its triangle's vertex colours weighted by the
+	 * stored barycentrics, or from the texture in textured frames.
+	 * 
+	 * @param minX Left of region (inclusive)
+	 * @param minY Top of region (inclusive)
+	 * @param maxX Right of region (exclusive)
+	 * @param maxY Bottom of region (exclusive)
+	 * @param scratch Working state of the calling thread
+	 */
+	void shadeVisible(int minX, int minY, int maxX, int maxY, FillScratch scratch) {
+		int[] indices = frameIndices;
+		float[] colours = frameColours;
+		int[] triangles = visibilityBuffer.getTriangles();
+		float[] u = visibilityBuffer.getU(), v = visibilityBuffer.getV();
+		int[] pixels = imageBuffer.getPixels();
+		int width = imageBuffer.getWidth();
+		int shaded = 0;
+		
+		// Neighbouring pixels mostly show the same triangle, so its set up is kept
+		TexturedTriangle textured = frameTexture != null ? scratch.textured : null;
+		int texturedTriangle = VisibilityBuffer.EMPTY;
+		
+		for (int y=minY; y<maxY; y++) {
+			for (int i=(y*width)+minX; i<(y*width)+maxX; i++) {
+				int triangle = triangles[i];
+				if (triangle == VisibilityBuffer.EMPTY) continue;
+				shaded++;
+				
+				if (textured != null) {
+					if (triangle != texturedTriangle) {
+						setUpTexture(textured, triangle);
+						texturedTriangle = triangle;
+					}
+					pixels[i] = textured.shade(u[i], v[i]);
+					continue;
+				}
+				
+				int 	a = indices[triangle*3]*3, b = indices[(triangle*3)+1]*3, 
+						c = indices[(triangle*3)+2]*3;
+				float l1 = u[i], l2 = v[i];
+				
+				// Same form as the forward fill, relative to the first vertex
+				pixels[i] = ImageBuffer.convertToRGB(
+						colours[a] + (l1*(colours[b]-colours[a])) + (l2*(colours[c]-colours[a])), 
+						colours[a+1] + (l1*(colours[b+1]-colours[a+1])) + (l2*(colours[c+1]-colours[a+1])), 
+						colours[a+2] + (l1*(colours[b+2]-colours[a+2])) + (l2*(colours[c+2]-colours[a+2])))
+						& 0xFFFFFF;
+			}
+		}
+		
+		shadedPixels.addAndGet(shaded);
+	}
+	
+	/*
+	 * Sets up texturing of a triangle with the frame's texture. Screen barycentric 
+	 * gradients come from the same fixed point vertex positions the fill uses.
+	 * 
+	 * @param textured Texturing to set up
+	 * @param face Index of the polygon in frameIndices
+	 */
+	private void setUpTexture(TexturedTriangle textured, int face) {
+		int i0 = frameIndices[face*3], i1 = frameIndices[(face*3)+1], i2 = frameIndices[(face*3)+2];
+		boolean subpixel = fillMode == FillMode.SUBPIXEL || samples > 1;
+		long 	x0 = fixedX(i0, subpixel), y0 = fixedY(i0, subpixel), 
+				x1 = fixedX(i1, subpixel), y1 = fixedY(i1, subpixel), 
+				x2 = fixedX(i2, subpixel), y2 = fixedY(i2, subpixel);
+		
+		// Degenerate triangles cover no pixels so are never shaded
+		long area = edgeFunction(x0, y0, x1, y1, x2, y2);
+		float invArea = area != 0 ? (float) SUBPIXEL_ONE / area : 0;
+		
+		textured.setTexture(frameTexture, textureFilter);
+		textured.set(frameTexcoords, face*6, projected.z[i0], projected.z[i1], projected.z[i2], 
+				(y0-y2) * invArea, (x2-x0) * invArea, (y1-y0) * invArea, (x0-x1) * invArea);
+	}
+	
+	/*
+	 * Smallest number of x steps after which an edge function starting at w is
+	 * non-negative, or Long.MAX_VALUE if it never is.
+	 * 
+	 * @param w Edge function value at the start of the row
+	 * @param stepX Change in edge function for each step in x
+	 */
+	private static long firstInside(long w, long stepX) {
+		if (stepX > 0) return -Math.floorDiv(w, stepX);
+		return w >= 0 ? 0 : Long.MAX_VALUE;
+	}
+	
+	/*
+	 * Largest number of x steps after which an edge function starting at w is
+	 * still non-negative, or Long.MIN_VALUE if it never is.
+	 * 
+	 * @param w Edge function value at the start of the row
+	 * @param stepX Change in edge function for each step in x
+	 */
+	private static long lastInside(long w, long stepX) {
+		if (stepX < 0) return w >= 0 ? Math.floorDiv(w, -stepX) : Long.MIN_VALUE;
+		if (stepX > 0) return Long.MAX_VALUE;
+		return w >= 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+	}
+	
+	/*
+	 * Edge function of point p against the directed edge a to b. Equal to twice the
+	 * signed area of triangle a, b, p, so it is zero on the edge and changes sign
+	 * across it.
+	 * 
+	 * @return edge function value
+	 */
+	private static long edgeFunction(long ax, long ay, long bx, long by, long px, long py) {
+		return ((px-ax) * (by-ay)) - ((py-ay) * (bx-ax));
+	}
+	
+	/*
+	 * Top-left fill rule for an edge whose function is >= 0 inside. With y down the
+	 * inside of a left edge is to its right, and of a top edge below it.
+	 * 
+	 * @param stepX Change in edge function for a step in x
+	 * @param stepY Change in edge function for a step in y
+	 * @return bias 0 for a top or left edge, -1 to leave out samples exactly on the edge
+	 */
+	private static long topLeftBias(long stepX, long stepY) {
+		return stepX > 0 || (stepX == 0 && stepY > 0) ? 0 : -1;
+	}
+	
 	/*
 	 * Finds the increment value for interpolations
 	 * 
@@ -0,0 +1,380 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class RayTracer implements Renderer {
+	
+	private RenderObject object;
+	
+	private Camera camera;
+	
+	private ImageBuffer imageBuffer;
+	
+	private ZBuffer zBuffer;
+	
+	// Drawn in place of object when set
+	private Scene scene;
+	
+	// Built on the first frame and reused for every frame after
+	private BVH bvh;
+	
+	// Built on the first frame of a scene, over its instances
+	private SceneBVH sceneBVH;
+	
+	// Number of threads used to trace tiles, 1 renders on the calling thread
+	private int threads = 1;
+	
+	// Workers for tiled frames, kept from one frame to the next. Null for one thread.
+	private ForkJoinPool pool;
+	
+	// Time taken by the last frame in nanoseconds
+	private long frameTime;
+	
+	/*
+	 * Initialises ray tracer with given object and camera
+	 */
+	public RayTracer(RenderObject object, Camera camera) {
+		this(object, camera, Buffer.DEFAULT_WIDTH, Buffer.DEFAULT_HEIGHT);
+	}
+	
+	/*
+	 * Initialises ray tracer with given object and camera rendering at the given
+	 * resolution
+	 */
+	public RayTracer(RenderObject object, Camera camera, int width, int height) {
+		this.object = object;
+		this.camera = camera;
+		this.imageBuffer = BufferPool.SHARED.acquireImageBuffer(width, height);
+		this.zBuffer = BufferPool.SHARED.acquireZBuffer(width, height);
+	}
+	
+	/*
+	 * Swaps the buffers for pooled ones of the new size, see Renderer
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setResolution(int width, int height) {
+		if (width == imageBuffer.getWidth() && height == imageBuffer.getHeight()) return;
+		
+		// Acquire first, an invalid size leaves the current buffers in place
+		ImageBuffer newImageBuffer = BufferPool.SHARED.acquireImageBuffer(width, height);
+		ZBuffer newZBuffer = BufferPool.SHARED.acquireZBuffer(width, height);
+		returnBuffers();
+		
+		imageBuffer = newImageBuffer;
+		zBuffer = newZBuffer;
+	}
+	
+	/*
+	 * Returns the buffers to the shared pool and stops the render threads, see Renderer
+	 */
+	public void releaseBuffers() {
+		returnBuffers();
+		Rasterizer.shutdownPool(pool);
+		pool = null;
+	}
+	
+	// Buffers go back to the shared pool, the render threads are kept
+	private void returnBuffers() {
+		BufferPool.SHARED.release(imageBuffer);
+		BufferPool.SHARED.release(zBuffer);
+		imageBuffer = null;
+		zBuffer = null;
+	}
+	
+	/*
+	 * @param threads Number of threads to render with
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		}
+		if (threads == this.threads) return;
+		
+		Rasterizer.shutdownPool(pool);
+		this.pool = Rasterizer.workerPool(threads);
+		this.threads = threads;
+	}
+	
+	/*
+	 * @return threads
+	 */
+	public int getThreads() {
+		return this.threads;
+	}
+	
+	/*
+	 * @return imageBuffer
+	 */
+	public ImageBuffer getImageBuffer() {
+		return imageBuffer;
+	}
+	
+	/*
+	 * @return zBuffer
+	 */
+	public ZBuffer getZBuffer() {
+		return zBuffer;
+	}
+	
+	/*
+	 * Traces every instance of a scene in place of the object. The camera must be
+	 * calibrated for the scene, e.g. from Scene.getPoints().
+	 * 
+	 * @param scene Scene to draw, or null to draw the object
+	 */
+	public void setScene(Scene scene) {
+		this.scene = scene;
+		this.sceneBVH = null;
+	}
+	
+	/*
+	 * @return scene Scene drawn in place of the object, or null
+	 */
+	public Scene getScene() {
+		return this.scene;
+	}
+	
+	/*
+	 * @return sceneBVH Hierarchy over the scene, null before its first frame
+	 */
+	public SceneBVH getSceneBVH() {
+		return sceneBVH;
+	}
+	
+	/*
+	 * @return frameTime Time taken by the last frame in nanoseconds
+	 */
+	public long getFrameTime() {
+		return this.frameTime;
+	}
+	
+	/*
+	 * @return bvh Hierarchy over the object, null before the first frame
+	 */
+	public BVH getBVH() {
+		return bvh;
+	}
+	
+	/*
+	 * @return raysPerSecond Primary rays traced per second in the last frame
+	 */
+	public double getRaysPerSecond() {
+		if (frameTime == 0) return 0;
+		return (double) imageBuffer.getWidth() * imageBuffer.getHeight() / (frameTime / 1e9);
+	}
+	
+	/*
+	 * Initialise object to be rendered
+	 * Position camera at object, using the same defaults as the rasterizer
+	 * Trace one ray through every pixel and write out the image and Z buffer
+	 */
+	public void render() {
+		try {
+			if (object == null && scene == null) {
+				object = new RenderObject();
+			}
+			
+			if (camera == null) {
+				camera = new Camera();
+				camera.setR(camera.Ry90);
+				camera.calibrate(scene != null ? scene.getPoints() : object.getPoints(), 
+						imageBuffer.getWidth(), imageBuffer.getHeight(), true);
+			}
+			
+			renderFrame();
+			
+			System.out.println(scene != null ? sceneBVH : bvh);
+			System.out.printf("Traced %d rays in %.1f ms, %.2f million rays per second%n",
+					imageBuffer.getWidth() * imageBuffer.getHeight(), frameTime / 1e6,
+					getRaysPerSecond() / 1e6);
+			
+			try (ImageEncoder encoder = new ImageEncoder(2)) {
+				CompletableFuture.allOf(encoder.encode(imageBuffer, Paths.get("image_RayTraced.jpg")),
+						encoder.encode(zBuffer, Paths.get("image_RayTraced_Z-Buffer.jpg"))).join();
+			}
+		
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		
+		System.out.println("Complete");
+	}
+	
+	/*
+	 * Traces the object as seen by the already calibrated camera into the image
+	 * and Z buffers, without writing them out. Depths are the same camera space z
+	 * the rasterizer stores, so the two Z buffers can be compared directly.
+	 * 
+	 * @throws CancellationException If interrupted while waiting for the tiles, 
+	 * with the thread's interrupt status set
+	 */
+	public void renderFrame() {
+		if (scene != null) {
+			// Rebuilt after anything is added to the scene, which the hierarchy would miss
+			if (sceneBVH == null || sceneBVH.getSceneModCount() != scene.getModCount()) {
+				sceneBVH = new SceneBVH(scene, threads);
+			}
+		}
+		else if (bvh == null) {
+			bvh = new BVH(object, threads);
+		}
+		
+		long start = System.nanoTime();
+		
+		imageBuffer.reset();
+		zBuffer.reset();
+		
+		float[][] rays = cameraRays();
+		int width = imageBuffer.getWidth(), height = imageBuffer.getHeight();
+		
+		if (threads > 1) {
+			// Each tile only writes to its own pixels
+			List<Callable<Void>> tiles = new ArrayList<Callable<Void>>();
+			for (int y=0; y<height; y+=Rasterizer.TILE_SIZE) {
+				for (int x=0; x<width; x+=Rasterizer.TILE_SIZE) {
+					final int minX = x, minY = y;
+					tiles.add(() -> {
+						trace(rays, minX, minY, Math.min(minX + Rasterizer.TILE_SIZE, width),
+								Math.min(minY + Rasterizer.TILE_SIZE, height));
+						return null;
+					});
+				}
+			}
+			try {
+				for (Future<Void> tile : pool.invokeAll(tiles)) {
+					tile.get();
+				}
+			} catch (InterruptedException e) {
+				// The frame is incomplete, so give up on it rather than return part of an image
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while tracing");
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		else {
+			trace(rays, 0, 0, width, height);
+		}
+		
+		frameTime = System.nanoTime() - start;
+	}
+	
+	/*
+	 * Inverts the camera's projection so rays can be generated from pixel coordinates.
+	 * With KR_t = [A|b] the camera centre is -A^-1 b and the ray through pixel (u, v)
+	 * has direction A^-1 (u, v, 1). Points along that ray at s times the direction
+	 * project with depth s, so a hit's distance is its Z buffer depth.
+	 *
+	 * @return rays {origin, inverse of A as 9 floats row by row}
+	 */
+	private float[][] cameraRays() {
+		float[][] m = camera.getKR_t();
+		
+		// Inverse by the adjugate
+		float[] inverse = {
+			(m[1][1]*m[2][2]) - (m[1][2]*m[2][1]), (m[0][2]*m[2][1]) - (m[0][1]*m[2][2]),
+			(m[0][1]*m[1][2]) - (m[0][2]*m[1][1]),
+			(m[1][2]*m[2][0]) - (m[1][0]*m[2][2]), (m[0][0]*m[2][2]) - (m[0][2]*m[2][0]),
+			(m[0][2]*m[1][0]) - (m[0][0]*m[1][2]),
+			(m[1][0]*m[2][1]) - (m[1][1]*m[2][0]), (m[0][1]*m[2][0]) - (m[0][0]*m[2][1]),
+			(m[0][0]*m[1][1]) - (m[0][1]*m[1][0])};
+		float determinant = (m[0][0]*inverse[0]) + (m[0][1]*inverse[3]) + (m[0][2]*inverse[6]);
+		
+		if (determinant == 0) {
+			throw new IllegalStateException("Camera projection is not invertible");
+		}
+		for (int i=0; i<9; i++) inverse[i] /= determinant;
+		
+		float[] origin = new float[3];
+		for (int i=0; i<3; i++) {
+			origin[i] = -((inverse[i*3]*m[0][3]) + (inverse[(i*3)+1]*m[1][3])
+					+ (inverse[(i*3)+2]*m[2][3]));
+		}
+		
+		return new float[][] {origin, inverse};
+	}
+	
+	/*
+	 * Traces a ray through each pixel of a region, shading hits with the per vertex
+	 * colours interpolated by the hit's barycentric coordinates. In a scene the
+	 * colours are those of the mesh of the instance hit.
+	 *
+	 * The rasterizer rounds projected vertices up to whole pixels, so pixel x covers
+	 * projected x in (x-1, x]. Rays go through the centre of that range so the two
+	 * renderers line up.
+	 *
+	 * @param rays Camera origin and inverse projection from cameraRays()
+	 * @param minX Left of region (inclusive)
+	 * @param minY Top of region (inclusive)
+	 * @param maxX Right of region (exclusive)
+	 * @param maxY Bottom of region (exclusive)
+	 */
+	private void trace(float[][] rays, int minX, int minY, int maxX, int maxY) {
+		float[] origin = rays[0], inverse = rays[1];
+		List<Scene.Instance> instances = scene != null ? scene.getInstances() : null;
+		int[] indices = instances == null ? object.getIndices() : null;
+		float[] colours = instances == null ? object.getColourData() : null;
+		SceneBVH.Hit hit = new SceneBVH.Hit();
+		// Each pixel is written at most once, so the range and coverage are found on the way
+		float regionMin = Float.POSITIVE_INFINITY, regionMax = 0;
+		int regionCovered = 0;
+		
+		for (int y=minY; y<maxY; y++) {
+			float v = y - 0.5f;
+			// Direction at u = 0 for this row, stepped along by the first column of the inverse
+			float rowX = (inverse[1]*v) + inverse[2];
+			float rowY = (inverse[4]*v) + inverse[5];
+			float rowZ = (inverse[7]*v) + inverse[8];
+			
+			for (int x=minX; x<maxX; x++) {
+				float u = x - 0.5f;
+				float dx = (inverse[0]*u) + rowX;
+				float dy = (inverse[3]*u) + rowY;
+				float dz = (inverse[6]*u) + rowZ;
+				
+				if (instances != null) {
+					if (!sceneBVH.intersect(origin[0], origin[1], origin[2], dx, dy, dz,
+							Float.POSITIVE_INFINITY, hit)) {
+						continue;
+					}
+					RenderObject mesh = instances.get(hit.instance).getMesh();
+					indices = mesh.getIndices();
+					colours = mesh.getColourData();
+				}
+				else if (!bvh.intersect(origin[0], origin[1], origin[2], dx, dy, dz,
+						Float.POSITIVE_INFINITY, hit)) {
+					continue;
+				}
+				
+				float w = 1 - hit.u - hit.v;
+				int a = indices[hit.face*3]*3, b = indices[(hit.face*3)+1]*3,
+						c = indices[(hit.face*3)+2]*3;
+				
+				zBuffer.check(x, y, hit.t);
+				regionMin = Math.min(regionMin, hit.t);
+				regionMax = Math.max(regionMax, hit.t);
+				regionCovered++;
+				imageBuffer.paintPixel(x, y,
+						(w*colours[a]) + (hit.u*colours[b]) + (hit.v*colours[c]),
+						(w*colours[a+1]) + (hit.u*colours[b+1]) + (hit.v*colours[c+1]),
+						(w*colours[a+2]) + (hit.u*colours[b+2]) + (hit.v*colours[c+2]));
+			}
+		}
+		
+		zBuffer.extendRange(regionMin, regionMax, regionCovered);
+	}
+}
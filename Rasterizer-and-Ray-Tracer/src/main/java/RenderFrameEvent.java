@@ -0,0 +1,76 @@
+package main.java;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+ * Flight recorder event with a frame's stage timings and counters, committed by
+ * FrameStats when instrumentation is on and the frame has been drawn
+ */
+@Name("main.java.RenderFrame")
+@Label("Render Frame")
+@Category("Renderer")
+@Description("Stage timings and counters of a rendered frame")
+class RenderFrameEvent extends Event {
+	
+	@Label("Frame")
+	long frame;
+	
+	@Label("Width")
+	int width;
+	
+	@Label("Height")
+	int height;
+	
+	@Label("Load")
+	@Timespan(Timespan.NANOSECONDS)
+	long load;
+	
+	@Label("Calibrate")
+	@Timespan(Timespan.NANOSECONDS)
+	long calibrate;
+	
+	@Label("Transform")
+	@Timespan(Timespan.NANOSECONDS)
+	long transform;
+	
+	@Label("Setup")
+	@Timespan(Timespan.NANOSECONDS)
+	long setup;
+	
+	@Label("Fill")
+	@Timespan(Timespan.NANOSECONDS)
+	long fill;
+	
+	@Label("Shade")
+	@Timespan(Timespan.NANOSECONDS)
+	long shade;
+	
+	@Label("Triangles In")
+	long trianglesIn;
+	
+	@Label("Triangles Culled")
+	long trianglesCulled;
+	
+	@Label("Triangles Occluded")
+	long trianglesOccluded;
+	
+	@Label("Triangles Drawn")
+	long trianglesDrawn;
+	
+	@Label("Pixels Tested")
+	long pixelsTested;
+	
+	@Label("Pixels Written")
+	long pixelsWritten;
+	
+	@Label("Pixels Covered")
+	long pixelsCovered;
+	
+	@Label("Overdraw")
+	double overdraw;
+}
@@ -0,0 +1,103 @@
+package main.java;
+
+import java.util.Map;
+
+/*
+ * A single render asked of the RenderServer: which model, from which camera
+ * rotation, at what size and in what format
+ */
+public class RenderJob {
+	
+	// Largest image a job may ask for on each side
+	public static final int MAX_SIZE = 8192;
+	
+	// Path of a ply file or name of a bundled model
+	private final String model;
+	
+	// Camera rotation about x, y and z in degrees
+	private final float[] rotation;
+	
+	private final int width, height;
+	
+	private final ImageFormat format;
+	
+	/*
+	 * @param model Path of a ply file or name of a bundled model
+	 * @param rotation Camera rotation about x, y and z in degrees
+	 * @param width
+	 * @param height
+	 * @param format Format of the returned image
+	 */
+	public RenderJob(String model, float[] rotation, int width, int height, ImageFormat format) {
+		if (rotation.length != 3) {
+			throw new IllegalArgumentException("Rotation needs 3 angles");
+		}
+		if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE) {
+			throw new IllegalArgumentException("Size must be between 1x1 and " + MAX_SIZE + "x" + MAX_SIZE);
+		}
+		this.model = model;
+		this.rotation = rotation.clone();
+		this.width = width;
+		this.height = height;
+		this.format = format;
+	}
+	
+	/*
+	 * Reads a job from request parameters, any left out take the same defaults as
+	 * Main: model=blub.ply, rotation=0,90,0 (degrees about x,y,z), width=2560,
+	 * height=1440 and format=jpg (or png, ppm)
+	 * 
+	 * @param parameters Request parameters by name
+	 * @return job
+	 */
+	public static RenderJob parse(Map<String, String> parameters) {
+		String[] angles = parameters.getOrDefault("rotation", "0,90,0").split(",");
+		if (angles.length != 3) {
+			throw new IllegalArgumentException("Rotation needs 3 comma separated angles");
+		}
+		float[] rotation = new float[3];
+		for (int i=0; i<3; i++) {
+			rotation[i] = Float.parseFloat(angles[i].trim());
+		}
+		
+		return new RenderJob(parameters.getOrDefault("model", "blub.ply"), rotation,
+				Integer.parseInt(parameters.getOrDefault("width", String.valueOf(Buffer.DEFAULT_WIDTH))),
+				Integer.parseInt(parameters.getOrDefault("height", String.valueOf(Buffer.DEFAULT_HEIGHT))),
+				ImageFormat.fromFileName("." + parameters.getOrDefault("format", "jpg")));
+	}
+	
+	/*
+	 * @return model
+	 */
+	public String getModel() {
+		return this.model;
+	}
+	
+	/*
+	 * @return rotation Copy of the rotation in degrees
+	 */
+	public float[] getRotation() {
+		return this.rotation.clone();
+	}
+	
+	/*
+	 * @return width
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/*
+	 * @return height
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/*
+	 * @return format
+	 */
+	public ImageFormat getFormat() {
+		return this.format;
+	}
+}
@@ -1,124 +1,274 @@
 package main.java;
 
-import java.io.File;
 import java.io.IOException;
-
-import org.smurn.jply.Element;
-import org.smurn.jply.ElementReader;
-import org.smurn.jply.PlyReader;
-import org.smurn.jply.PlyReaderFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 public class RenderObject {
 
-	/* data fields to store points, colors, faces information read from PLY file */
+	/* flat arrays of the points, colours and faces read from the PLY file */
+	private float[] pointsX, pointsY, pointsZ;
+	// r,g,b per point
+	private float[] colourData;
+	// three point indices per triangle
+	private int[] indices;
+	// u,v for each corner of each triangle, null if the model has none
+	private float[] texcoords;
+	private String textureFile;
+	// decoded when first asked for, shared with other objects using the same file
+	private Texture texture;
+	// minX, minY, minZ, maxX, maxY, maxZ
+	private float[] bounds;
+	// simplified copies, built when first asked for
+	private LevelOfDetail levelOfDetail;
+
+	/* array per point/face views of the data above, built when first asked for */
 	private float[][] points = null;
 	private float[][] colours = null;
 	private int[][] faces = null;
 
-	private String path = getClass().getClassLoader().getResource("blub.ply")
-			.toString().substring(6);
-	private File file = new File(path);
-
 	/*
-	 * Reads the ply file and stores the information in this object.
+	 * Reads the default blub.ply model.
 	 * 
 	 * @throws IOException
 	 */
 	public RenderObject() throws IOException {
+		this("blub.ply");
+	}
 
-		PlyReader ply = new PlyReaderFile(file);
-
-		int vertexCount = ply.getElementCount("vertex");
-		int triangleCount = ply.getElementCount("face");
+	/*
+	 * Reads the ply file and stores the information in this object.
+	 * 
+	 * @param resource Name of the ply file in the resources folder
+	 * @throws IOException
+	 */
+	public RenderObject(String resource) throws IOException {
+		this(PlyLoader.loadResource(resource));
+	}
 
-		ElementReader reader;
+	/*
+	 * Reads a ply file from disk.
+	 * 
+	 * @param file Path to the ply file
+	 * @throws IOException
+	 */
+	public RenderObject(Path file) throws IOException {
+		this(PlyLoader.loadFile(file));
+	}
 
-		/* Iterate to read elements */
-		while ((reader = ply.nextElementReader()) != null) {
-			String elementType = reader.getElementType().getName();
+	/*
+	 * Reads a ply file already in memory.
+	 * 
+	 * @param buffer Contents of the ply file
+	 * @throws IOException
+	 */
+	public RenderObject(ByteBuffer buffer) throws IOException {
+		this(PlyLoader.load(buffer));
+	}
 
-			if (elementType.equals("vertex")) {
-				if (points != null)
-					continue;
-				points = new float[vertexCount][3];
-				colours = new float[vertexCount][3];
+	/*
+	 * Takes the arrays of a decoded mesh. Models without colours are drawn white.
+	 * 
+	 * @param mesh Decoded mesh
+	 */
+	public RenderObject(PlyLoader.Mesh mesh) {
+		this.pointsX = mesh.x;
+		this.pointsY = mesh.y;
+		this.pointsZ = mesh.z;
+		this.indices = mesh.indices;
+		this.texcoords = mesh.texcoords;
+		this.textureFile = mesh.textureFile;
+		this.colourData = mesh.colours;
+		
+		if (colourData == null) {
+			colourData = new float[pointsX.length * 3];
+			Arrays.fill(colourData, 1f);
+		}
+		
+		this.bounds = mesh.bounds;
+		if (bounds == null) {
+			bounds = new float[] {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, 
+					Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+			for (int i=0; i<pointsX.length; i++) {
+				bounds[0] = Math.min(bounds[0], pointsX[i]);
+				bounds[1] = Math.min(bounds[1], pointsY[i]);
+				bounds[2] = Math.min(bounds[2], pointsZ[i]);
+				bounds[3] = Math.max(bounds[3], pointsX[i]);
+				bounds[4] = Math.max(bounds[4], pointsY[i]);
+				bounds[5] = Math.max(bounds[5], pointsZ[i]);
+			}
+		}
+	}
 
-				Element element;
-				int x = 0;
-				while ((element = reader.readElement()) != null) {
-					/* manipulated array indexes to store  */
-					points[x][0] = (float) element.getDouble("x");
-					points[x][1] = (float) element.getDouble("y");
-					points[x][2] = (float) element.getDouble("z");
+	/*
+	 * Reads a ply file through a binary cache in the given directory, which is 
+	 * rebuilt whenever the ply file changes. See MeshCache.
+	 * 
+	 * @param file Path to the ply file
+	 * @param cacheDirectory Directory to keep the cache in
+	 * @return object
+	 * @throws IOException
+	 */
+	public static RenderObject loadCached(Path file, Path cacheDirectory) throws IOException {
+		return MeshCache.load(file, cacheDirectory);
+	}
 
-					colours[x][0] = (float) element.getDouble("red") / 255f;
-					colours[x][1] = (float) element.getDouble("green") / 255f;
-					colours[x][2] = (float) element.getDouble("blue") / 255f;
-					
-					x++;
-				}
+	/*
+	 * @return points
+	 */
+	public float[][] getPoints(){
+		if (this.points == null) {
+			float[][] points = new float[pointsX.length][];
+			for (int i=0; i<points.length; i++) {
+				points[i] = new float[] {pointsX[i], pointsY[i], pointsZ[i]};
+			}
+			this.points = points;
+		}
+		return this.points;
+	}
 
-			} else if (elementType.equals("face")) {
+	/*
+	 * @return x coordinate of every point
+	 */
+	public float[] getPointsX(){
+		return this.pointsX;
+	}
 
-				if (faces != null)
-					continue;
-				faces = new int[triangleCount][3];
+	/*
+	 * @return y coordinate of every point
+	 */
+	public float[] getPointsY(){
+		return this.pointsY;
+	}
 
-				Element element;
-				int x = 0;
-				while ((element = reader.readElement()) != null) {
-					int[] vertex_indices = null;
+	/*
+	 * @return z coordinate of every point
+	 */
+	public float[] getPointsZ(){
+		return this.pointsZ;
+	}
 
-					try {
-						vertex_indices = element.getIntList("vertex_indices");
-					}
+	/*
+	 * @return faces
+	 */
+	public int[][] getFaces(){
+		if (this.faces == null) {
+			int[][] faces = new int[indices.length / 3][];
+			for (int i=0; i<faces.length; i++) {
+				faces[i] = new int[] {indices[i*3], indices[(i*3)+1], indices[(i*3)+2]};
+			}
+			this.faces = faces;
+		}
+		return this.faces;
+	}
 
-					catch (Exception e) {}
+	/*
+	 * @return number of triangles
+	 */
+	public int getFaceCount(){
+		return this.indices.length / 3;
+	}
 
-					if(vertex_indices == null) {
-						try {
-							vertex_indices = element.getIntList("vertex_index");
-						}
+	/*
+	 * @return indices Three point indices per triangle
+	 */
+	public int[] getIndices(){
+		return this.indices;
+	}
 
-						catch (Exception e) {}
-					}
+	/*
+	 * @return colours
+	 */
+	public float[][] getColors(){
+		if (this.colours == null) {
+			float[][] colours = new float[pointsX.length][];
+			for (int i=0; i<colours.length; i++) {
+				colours[i] = new float[] {colourData[i*3], colourData[(i*3)+1], colourData[(i*3)+2]};
+			}
+			this.colours = colours;
+		}
+		return this.colours;
+	}
 
-					if(vertex_indices == null) {
-						throw new IOException("Failed to read vertices");
-					}
+	/*
+	 * @return colourData r,g,b per point
+	 */
+	public float[] getColourData(){
+		return this.colourData;
+	}
 
-					faces[x] = vertex_indices;
+	/*
+	 * @return texcoords u,v for each corner of each triangle, or null
+	 */
+	public float[] getTexcoords(){
+		return this.texcoords;
+	}
 
+	/*
+	 * @return bounds minX, minY, minZ, maxX, maxY, maxZ of the points
+	 */
+	public float[] getBoundingBox(){
+		return this.bounds;
+	}
 
-					x++;
-				}
-			}
+	/*
+	 * @return textureFile Texture named in the ply header, or null
+	 */
+	public String getTextureFile(){
+		return this.textureFile;
+	}
 
-			reader.close();
+	/*
+	 * Decodes the texture named in the ply header the first time it is asked for.
+	 * Objects naming the same file share one copy, see Texture.getShared.
+	 * 
+	 * @return texture or null if the model has no texture or texture coordinates
+	 * @throws IOException If the texture cannot be found or decoded
+	 */
+	public Texture getTexture() throws IOException {
+		if (this.texture == null && this.textureFile != null && this.texcoords != null) {
+			this.texture = Texture.getShared(this.textureFile);
 		}
+		return this.texture;
+	}
 
-		ply.close();
+	/*
+	 * @return Whether getTexture has nothing left to decode
+	 */
+	public boolean isTextureLoaded() {
+		return this.texture != null || this.textureFile == null || this.texcoords == null;
 	}
 
 	/*
-	 * @return points
+	 * Copies the object with its triangles and vertices reordered for locality, 
+	 * see MeshOptimizer. Meant to be done once, straight after loading.
+	 * 
+	 * @param order Order to put the triangles in
+	 * @return reordered copy, or this object for MeshOrder.FILE
 	 */
-	public float[][] getPoints(){
-		return this.points;
+	public RenderObject reorder(MeshOrder order) {
+		return MeshOptimizer.reorder(this, order);
 	}
 
 	/*
-	 * @return faces
+	 * Simplifies the object into its levels of detail the first time they are
+	 * asked for, then keeps them with the object.
+	 * 
+	 * @return levelOfDetail
 	 */
-	public int[][] getFaces(){
-		return this.faces;
+	public synchronized LevelOfDetail getLevelOfDetail() {
+		if (this.levelOfDetail == null) {
+			this.levelOfDetail = new LevelOfDetail(this);
+		}
+		return this.levelOfDetail;
 	}
 
 	/*
-	 * @return colours
+	 * @return Whether the levels of detail have been built
 	 */
-	public float[][] getColors(){
-		return this.colours;
+	public synchronized boolean hasLevelOfDetail() {
+		return this.levelOfDetail != null;
 	}
 
 }
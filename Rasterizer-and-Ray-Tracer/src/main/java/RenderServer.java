@@ -0,0 +1,323 @@
+package main.java;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Long running render service on a local HTTP endpoint, so models are parsed and
+ * buffers allocated once for many renders.
+ *
+ * GET or POST /render?model=...&rotation=x,y,z&width=...&height=...&format=jpg
+ * answers with the image (see RenderJob for the defaults). GET /metrics answers
+ * with the queue depth, job counts and recent latencies as JSON.
+ *
+ * Each request is served by its own thread from an unbounded pool. These threads
+ * spend their time on I/O: reading the request, loading the model into the
+ * ModelCache and encoding the image into the response. Rendering itself is
+ * handed to a fixed pool of workers, one per core by default, through a bounded
+ * queue. When the queue is full a request is turned away with 503 rather than
+ * left to wait. The endpoint only listens on the loopback address as a request
+ * may read any model file the process can.
+ */
+public class RenderServer {
+	
+	// Recent jobs kept for the latency figures
+	private static final int LATENCY_WINDOW = 1024;
+	
+	private final HttpServer server;
+	
+	// Renders, bounded by the size of their queue
+	private final ThreadPoolExecutor workers;
+	
+	// Serves requests, mostly waiting on sockets, disk and workers
+	private final ExecutorService requests;
+	
+	private final ModelCache models;
+	
+	private final AtomicLong completed = new AtomicLong(), failed = new AtomicLong(),
+			rejected = new AtomicLong();
+	
+	// Nanoseconds per job from the request arriving to the last byte sent, waiting
+	// for a worker, and rendering
+	private final LatencyWindow latency = new LatencyWindow(), queueTime = new LatencyWindow(),
+			renderTime = new LatencyWindow();
+	
+	// A finished render, copied out of the worker's buffers
+	private static final class Result {
+		final BufferedImage image;
+		final long queueTime, renderTime;
+		
+		Result(BufferedImage image, long queueTime, long renderTime) {
+			this.image = image;
+			this.queueTime = queueTime;
+			this.renderTime = renderTime;
+		}
+	}
+	
+	// Ring of the last LATENCY_WINDOW times in nanoseconds
+	private static final class LatencyWindow {
+		private final long[] times = new long[LATENCY_WINDOW];
+		private long count;
+		
+		synchronized void add(long time) {
+			times[(int) (count++ % LATENCY_WINDOW)] = time;
+		}
+		
+		synchronized String toJson() {
+			long[] sorted = Arrays.copyOf(times, (int) Math.min(count, LATENCY_WINDOW));
+			Arrays.sort(sorted);
+			if (sorted.length == 0) {
+				return "{\"count\":0}";
+			}
+			
+			double mean = Arrays.stream(sorted).average().orElse(0);
+			return String.format("{\"count\":%d,\"mean\":%.2f,\"p50\":%.2f,\"p95\":%.2f,\"max\":%.2f}",
+					count, mean / 1e6, sorted[(sorted.length - 1) / 2] / 1e6,
+					sorted[(int) ((sorted.length - 1) * 0.95)] / 1e6, sorted[sorted.length - 1] / 1e6);
+		}
+	}
+	
+	/*
+	 * @param port Port to listen on, 0 for any free port
+	 * @param workerCount Number of renders run at once
+	 * @param queueCapacity Number of renders that may wait for a worker
+	 * @param models Cache to load models through
+	 * @throws IOException If the port cannot be bound
+	 */
+	public RenderServer(int port, int workerCount, int queueCapacity, ModelCache models) throws IOException {
+		if (workerCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Worker count and queue capacity must be at least 1");
+		}
+		this.models = models;
+		
+		AtomicLong workerNumber = new AtomicLong();
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "render-worker-" + workerNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.requests = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "render-request");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(requests);
+		server.createContext("/render", this::handleRender);
+		server.createContext("/metrics", this::handleMetrics);
+	}
+	
+	/*
+	 * Starts answering requests
+	 */
+	public void start() {
+		workers.prestartAllCoreThreads();
+		server.start();
+	}
+	
+	/*
+	 * Stops accepting requests, lets those being answered finish for up to the
+	 * given time, then stops the threads
+	 *
+	 * @param delay Seconds to wait for requests being answered
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		workers.shutdown();
+		requests.shutdown();
+	}
+	
+	/*
+	 * @return port Port the server is listening on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/*
+	 * @return queueDepth Renders waiting for a worker
+	 */
+	public int getQueueDepth() {
+		return workers.getQueue().size();
+	}
+	
+	private void handleRender(HttpExchange exchange) throws IOException {
+		long received = System.nanoTime();
+		
+		try {
+			if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("POST")) {
+				sendText(exchange, 405, "Use GET or POST");
+				return;
+			}
+			
+			RenderJob job = RenderJob.parse(parameters(exchange));
+			// Parsing a new model is I/O so stays on this thread, off the workers
+			RenderObject object = models.get(job.getModel());
+			
+			Future<Result> future;
+			try {
+				future = workers.submit(() -> render(job, object, received));
+			} catch (RejectedExecutionException e) {
+				rejected.incrementAndGet();
+				sendText(exchange, 503, "Render queue is full");
+				return;
+			}
+			Result result = future.get();
+			
+			exchange.getResponseHeaders().set("Content-Type", job.getFormat().getContentType());
+			exchange.getResponseHeaders().set("X-Queue-Time-Ms", String.format("%.2f", result.queueTime / 1e6));
+			exchange.getResponseHeaders().set("X-Render-Time-Ms", String.format("%.2f", result.renderTime / 1e6));
+			// Length unknown until encoded, so sent chunked
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody(), 1 << 16)) {
+				ImageEncoder.write(result.image, out, job.getFormat());
+			}
+			
+			completed.incrementAndGet();
+			queueTime.add(result.queueTime);
+			renderTime.add(result.renderTime);
+			latency.add(System.nanoTime() - received);
+		
+		} catch (IllegalArgumentException e) {
+			sendText(exchange, 400, e.getMessage());
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			sendText(exchange, 404, "No such model: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			sendText(exchange, 503, "Interrupted");
+		} catch (ExecutionException | IOException | RuntimeException e) {
+			failed.incrementAndGet();
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			sendText(exchange, 500, String.valueOf(cause));
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/*
+	 * Renders a job on a worker, copying the image out so the buffers can go
+	 * straight back to the pool for the next job
+	 */
+	private Result render(RenderJob job, RenderObject object, long received) {
+		long start = System.nanoTime();
+		float[] rotation = job.getRotation();
+		
+		Camera camera = new Camera();
+		camera.setR(Camera.rotation(rotation[0], rotation[1], rotation[2]));
+		Rasterizer rasterizer = new Rasterizer(object, camera, job.getWidth(), job.getHeight());
+		
+		try {
+			camera.calibrate(object.getPoints(), job.getWidth(), job.getHeight(), true);
+			rasterizer.renderFrame();
+			return new Result(rasterizer.getImageBuffer().copyImage(), start - received,
+					System.nanoTime() - start);
+		} finally {
+			rasterizer.releaseBuffers();
+		}
+	}
+	
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		try {
+			String json = String.format("{\"queueDepth\":%d,\"activeWorkers\":%d,\"workers\":%d,"
+					+ "\"completed\":%d,\"failed\":%d,\"rejected\":%d,"
+					+ "\"modelCache\":{\"size\":%d,\"hits\":%d,\"misses\":%d},"
+					+ "\"bufferPool\":{\"hits\":%d,\"misses\":%d},"
+					+ "\"latencyMs\":%s,\"queueTimeMs\":%s,\"renderTimeMs\":%s}",
+					getQueueDepth(), workers.getActiveCount(), workers.getMaximumPoolSize(),
+					completed.get(), failed.get(), rejected.get(),
+					models.size(), models.getHits(), models.getMisses(),
+					BufferPool.SHARED.getHits(), BufferPool.SHARED.getMisses(),
+					latency.toJson(), queueTime.toJson(), renderTime.toJson());
+			
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			send(exchange, 200, json);
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/*
+	 * Reads parameters from the query string and, for a form POST, the body
+	 */
+	private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		addParameters(exchange.getRequestURI().getRawQuery(), parameters);
+		
+		if (exchange.getRequestMethod().equals("POST")) {
+			try (InputStream in = exchange.getRequestBody()) {
+				addParameters(new String(in.readAllBytes(), StandardCharsets.UTF_8), parameters);
+			}
+		}
+		return parameters;
+	}
+	
+	private static void addParameters(String encoded, Map<String, String> parameters) {
+		if (encoded == null || encoded.isEmpty()) return;
+		
+		for (String pair : encoded.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals < 0) continue;
+			parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+					URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+		}
+	}
+	
+	private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		send(exchange, status, message + "\n");
+	}
+	
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+	
+	/*
+	 * Runs a server until the process is stopped
+	 *
+	 * @param port Port to listen on
+	 * @param workerCount Number of renders run at once
+	 * @param queueCapacity Number of renders that may wait for a worker
+	 */
+	public static void serve(int port, int workerCount, int queueCapacity) {
+		try {
+			RenderServer server = new RenderServer(port, workerCount, queueCapacity, new ModelCache(8, null));
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+			server.start();
+			System.out.println("Render server listening on http://127.0.0.1:" + server.getPort()
+					+ "/render with " + workerCount + " workers");
+		
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package main.java;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * Flight recorder event spanning one stage of a frame, committed by FrameStats
+ * when instrumentation is on
+ */
+@Name("main.java.RenderStage")
+@Label("Render Stage")
+@Category("Renderer")
+@Description("One stage of rendering a frame")
+class RenderStageEvent extends Event {
+	
+	@Label("Stage")
+	String stage;
+	
+	@Label("Frame")
+	long frame;
+}
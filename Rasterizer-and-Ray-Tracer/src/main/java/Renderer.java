@@ -0,0 +1,39 @@
+package main.java;
+
+/*
+ * Draws a frame of a scene as seen by an already calibrated camera into image
+ * and Z buffers that are kept from one frame to the next
+ */
+public interface Renderer {
+	
+	/*
+	 * Renders the scene into the buffers, without writing them out
+	 */
+	void renderFrame();
+	
+	/*
+	 * Changes the size of the image drawn from the next frame on, swapping the
+	 * buffers for ones of the new size from BufferPool.SHARED. The camera must be
+	 * calibrated or scaled to match.
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	void setResolution(int width, int height);
+	
+	/*
+	 * Returns the buffers to BufferPool.SHARED once the renderer is finished with,
+	 * after which it must not render again
+	 */
+	void releaseBuffers();
+	
+	/*
+	 * @return imageBuffer Colours of the last frame
+	 */
+	ImageBuffer getImageBuffer();
+	
+	/*
+	 * @return zBuffer Depths of the last frame
+	 */
+	ZBuffer getZBuffer();
+}
@@ -0,0 +1,121 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+
+/*
+ * Positions of the coverage samples within a pixel for multisampled rendering,
+ * the usual rotated grid patterns for 2, 4 and 8 samples. No two samples share a
+ * row or column, so near horizontal and near vertical edges get as many steps of
+ * coverage as there are samples.
+ *
+ * Offsets are from the pixel's centre in 1/16 of a pixel, strictly inside the
+ * pixel so every sample belongs to exactly one pixel.
+ */
+public final class SamplePattern {
+	
+	// Most samples per pixel of any pattern
+	public static final int MAX_SAMPLES = 8;
+	
+	// Offsets for 1, 2, 4 and 8 samples in 1/16 of a pixel, y down
+	private static final int[][] OFFSETS_X = {
+			{0},
+			{4, -4},
+			{-2, 6, -6, 2},
+			{1, -1, 5, -3, -5, -7, 3, 7}};
+	private static final int[][] OFFSETS_Y = {
+			{0},
+			{4, -4},
+			{-6, -2, 2, 6},
+			{-3, 3, 1, -5, 5, -1, 7, -7}};
+	
+	private SamplePattern() {
+	}
+	
+	/*
+	 * @param samples Samples per pixel
+	 * @return Whether there is a pattern with that many samples, 1, 2, 4 or 8
+	 */
+	public static boolean isSupported(int samples) {
+		return samples == 1 || samples == 2 || samples == 4 || samples == 8;
+	}
+	
+	/*
+	 * @param samples Samples per pixel, see isSupported
+	 * @return x offsets from the pixel centre in fixed point with Rasterizer.SUBPIXEL_BITS fractional bits
+	 */
+	static int[] offsetsX(int samples) {
+		return toFixed(OFFSETS_X[Integer.numberOfTrailingZeros(samples)]);
+	}
+	
+	/*
+	 * @param samples Samples per pixel, see isSupported
+	 * @return y offsets from the pixel centre in fixed point with Rasterizer.SUBPIXEL_BITS fractional bits
+	 */
+	static int[] offsetsY(int samples) {
+		return toFixed(OFFSETS_Y[Integer.numberOfTrailingZeros(samples)]);
+	}
+	
+	private static int[] toFixed(int[] sixteenths) {
+		int[] fixed = new int[sixteenths.length];
+		for (int i=0; i<fixed.length; i++) {
+			fixed[i] = sixteenths[i] << (Rasterizer.SUBPIXEL_BITS - 4);
+		}
+		return fixed;
+	}
+	
+	/*
+	 * Renders the default model with 1, 2, 4 and 8 samples per pixel, printing the
+	 * time of each against a single sample, the memory its sample buffers take and
+	 * how many pixels are blended from more than one colour. Writes image_msaa_N.jpg
+	 * for each.
+	 *
+	 * @param threads Number of render threads
+	 */
+	public static void compare(int threads) {
+		try {
+			RenderObject object = new RenderObject();
+			Camera camera = new Camera();
+			camera.setR(camera.Ry90);
+			Rasterizer rasterizer = new Rasterizer(object, camera);
+			rasterizer.setThreads(threads);
+			int width = rasterizer.getImageBuffer().getWidth(), height = rasterizer.getImageBuffer().getHeight();
+			camera.calibrate(object.getPoints(), width, height, true);
+			
+			int[] counts = {1, 2, 4, 8};
+			long[] times = new long[counts.length];
+			Arrays.fill(times, Long.MAX_VALUE);
+			
+			try (ImageEncoder encoder = new ImageEncoder(1)) {
+				// Best of a few frames each, taking the counts in turn so all warm up alike
+				for (int frame=0; frame<5; frame++) {
+					for (int i=0; i<counts.length; i++) {
+						rasterizer.setSamples(counts[i]);
+						long start = System.nanoTime();
+						rasterizer.renderFrame();
+						times[i] = Math.min(times[i], System.nanoTime() - start);
+						
+						if (frame == 4) {
+							encoder.encode(rasterizer.getImageBuffer(), Paths.get("image_msaa_" + counts[i] + ".jpg"));
+							long bytes = rasterizer.getImageBuffer().getSampleBytes()
+									+ rasterizer.getZBuffer().getSampleBytes();
+							System.out.printf("%d samples: %.1f ms (%.2fx), %.1f MB of sample buffers, "
+									+ "%d pixels blended%n", counts[i], times[i] / 1e6,
+									(double) times[i] / times[0], bytes / 1e6, rasterizer.getBlendedPixels());
+						}
+					}
+				}
+			}
+			rasterizer.releaseBuffers();
+		
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		
+		System.out.println("Complete");
+	}
+}
@@ -0,0 +1,83 @@
+package main.java;
+
+/*
+ * Plain Java implementation of the render kernels
+ */
+public class ScalarKernels implements Kernels {
+
+	@Override
+	public void project(float[][] KR_t, float[] x, float[] y, float[] z, ProjectedVertices projected) {
+		float 	m00 = KR_t[0][0], m01 = KR_t[0][1], m02 = KR_t[0][2], m03 = KR_t[0][3], 
+				m10 = KR_t[1][0], m11 = KR_t[1][1], m12 = KR_t[1][2], m13 = KR_t[1][3], 
+				m20 = KR_t[2][0], m21 = KR_t[2][1], m22 = KR_t[2][2], m23 = KR_t[2][3];
+		
+		int count = x.length;
+		projected.resize(count);
+		float[] px = projected.x, py = projected.y, pz = projected.z;
+		
+		for (int n=0; n<count; n++) {
+			float 	tx = (m00*x[n] + m01*y[n] + m02*z[n]) + m03, 
+					ty = (m10*x[n] + m11*y[n] + m12*z[n]) + m13, 
+					tz = (m20*x[n] + m21*y[n] + m22*z[n]) + m23;
+			
+			if (tz != 0) {
+				px[n] = tx/tz;
+				py[n] = ty/tz;
+				// For use by Z buffer later
+				pz[n] = tz;
+			}
+			else {
+				px[n] = 0;
+				py[n] = 0;
+				pz[n] = 0;
+			}
+		}
+	}
+
+	@Override
+	public int fillSpan(float[] depth, int[] pixels, int offset, int start, int end, 
+			float z, float dzdx, float r, float drdx, float g, float dgdx, float b, float dbdx) {
+		int written = 0;
+		
+		for (int k=start; k<end; k++) {
+			float pixelZ = z + k*dzdx;
+			int i = offset + k;
+			
+			if (pixelZ < depth[i]) {
+				depth[i] = pixelZ;
+				// TYPE_INT_RGB has no alpha channel
+				pixels[i] = ImageBuffer.convertToRGB(r + k*drdx, g + k*dgdx, b + k*dbdx) & 0xFFFFFF;
+				written++;
+			}
+		}
+		
+		return written;
+	}
+
+	@Override
+	public int fillVisibilitySpan(float[] depth, int[] triangles, float[] u, float[] v, int offset, 
+			int start, int end, float z, float dzdx, int triangle, float l1, float dl1dx, 
+			float l2, float dl2dx) {
+		int written = 0;
+		
+		for (int k=start; k<end; k++) {
+			float pixelZ = z + k*dzdx;
+			int i = offset + k;
+			
+			if (pixelZ < depth[i]) {
+				depth[i] = pixelZ;
+				triangles[i] = triangle;
+				u[i] = l1 + k*dl1dx;
+				v[i] = l2 + k*dl2dx;
+				written++;
+			}
+		}
+		
+		return written;
+	}
+
+	@Override
+	public String name() {
+		return "scalar";
+	}
+}
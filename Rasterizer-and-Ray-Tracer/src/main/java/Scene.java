@@ -0,0 +1,347 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/*
+ * A set of instances of RenderObjects, each placed in the world by its own 4x4
+ * transform. Geometry is never copied: every instance of a mesh shares its
+ * points, faces and texture, adding only the transform, its inverse and the
+ * instance's world space bounding box.
+ *
+ * Transforms are affine, row major and applied to column vectors, so a point p
+ * of the mesh is drawn at transform * (p, 1).
+ */
+public class Scene {
+	
+	private final List<Instance> instances = new ArrayList<Instance>();
+	
+	// Changes made since the scene was created, so hierarchies built over it can tell they are stale
+	private int modCount;
+	
+	/*
+	 * One placement of a mesh in the world
+	 */
+	public static class Instance {
+		
+		private final RenderObject mesh;
+		
+		// Object to world, 4x4
+		private final float[][] transform;
+		
+		// World to object as the top 3 rows, 12 floats row by row
+		private final float[] inverse;
+		
+		// minX, minY, minZ, maxX, maxY, maxZ of the mesh's bounding box once transformed
+		private final float[] bounds;
+		
+		private Instance(RenderObject mesh, float[][] transform) {
+			if (transform.length != 4 || transform[0].length != 4 || transform[3][0] != 0
+					|| transform[3][1] != 0 || transform[3][2] != 0 || transform[3][3] != 1) {
+				throw new IllegalArgumentException("Transform must be a 4x4 affine matrix");
+			}
+			this.mesh = mesh;
+			this.transform = new float[4][];
+			for (int row=0; row<4; row++) {
+				this.transform[row] = transform[row].clone();
+			}
+			this.inverse = invert(this.transform);
+			this.bounds = transformBounds(mesh.getBoundingBox(), this.transform);
+		}
+		
+		/*
+		 * @return mesh Geometry shared with every other instance of it
+		 */
+		public RenderObject getMesh() {
+			return this.mesh;
+		}
+		
+		/*
+		 * @return transform Object to world 4x4 matrix, not to be changed
+		 */
+		public float[][] getTransform() {
+			return this.transform;
+		}
+		
+		/*
+		 * @return inverse World to object matrix as 12 floats, the top 3 rows row by row
+		 */
+		public float[] getInverse() {
+			return this.inverse;
+		}
+		
+		/*
+		 * @return bounds minX, minY, minZ, maxX, maxY, maxZ in world space
+		 */
+		public float[] getBoundingBox() {
+			return this.bounds;
+		}
+	}
+	
+	/*
+	 * Adds an instance of a mesh where it was modelled
+	 *
+	 * @param mesh Geometry, which may already be in the scene
+	 * @return instance
+	 */
+	public Instance add(RenderObject mesh) {
+		return add(mesh, transform(new float[][] {{1,0,0}, {0,1,0}, {0,0,1}}, 1, 0, 0, 0));
+	}
+	
+	/*
+	 * Adds an instance of a mesh. The transform is copied, so the array can be
+	 * reused for the next instance.
+	 *
+	 * @param mesh Geometry, which may already be in the scene
+	 * @param transform Object to world 4x4 affine matrix
+	 * @return instance
+	 */
+	public Instance add(RenderObject mesh, float[][] transform) {
+		Instance instance = new Instance(mesh, transform);
+		instances.add(instance);
+		modCount++;
+		return instance;
+	}
+	
+	/*
+	 * @return instances In the order they were added, which is the order they are drawn in
+	 */
+	public List<Instance> getInstances() {
+		return Collections.unmodifiableList(this.instances);
+	}
+	
+	/*
+	 * @return modCount Number of changes made to the scene, which differs from an
+	 * earlier count if anything was added since
+	 */
+	public int getModCount() {
+		return this.modCount;
+	}
+	
+	/*
+	 * @return size Number of instances
+	 */
+	public int size() {
+		return instances.size();
+	}
+	
+	/*
+	 * @return meshCount Number of distinct meshes the instances share
+	 */
+	public int getMeshCount() {
+		Map<RenderObject, Boolean> meshes = new IdentityHashMap<RenderObject, Boolean>();
+		for (Instance instance : instances) {
+			meshes.put(instance.mesh, Boolean.TRUE);
+		}
+		return meshes.size();
+	}
+	
+	/*
+	 * @return faceCount Triangles drawn for the whole scene, counting each instance
+	 */
+	public int getFaceCount() {
+		int faceCount = 0;
+		for (Instance instance : instances) {
+			faceCount += instance.mesh.getFaceCount();
+		}
+		return faceCount;
+	}
+	
+	/*
+	 * @return bounds minX, minY, minZ, maxX, maxY, maxZ around every instance
+	 */
+	public float[] getBoundingBox() {
+		float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		for (Instance instance : instances) {
+			for (int axis=0; axis<3; axis++) {
+				bounds[axis] = Math.min(bounds[axis], instance.bounds[axis]);
+				bounds[axis+3] = Math.max(bounds[axis+3], instance.bounds[axis+3]);
+			}
+		}
+		return bounds;
+	}
+	
+	/*
+	 * Corners of every instance's bounding box, enough for Camera.calibrate to
+	 * fit the whole scene in view
+	 *
+	 * @return points x, y, z of 8 corners per instance
+	 */
+	public float[][] getPoints() {
+		if (instances.isEmpty()) {
+			throw new IllegalStateException("Scene has no instances");
+		}
+		float[][] points = new float[instances.size()*8][];
+		for (int i=0; i<instances.size(); i++) {
+			float[] bounds = instances.get(i).bounds;
+			for (int corner=0; corner<8; corner++) {
+				points[(i*8)+corner] = new float[] {bounds[(corner & 1) == 0 ? 0 : 3],
+						bounds[(corner & 2) == 0 ? 1 : 4], bounds[(corner & 4) == 0 ? 2 : 5]};
+			}
+		}
+		return points;
+	}
+	
+	/*
+	 * Builds a transform that scales, then rotates, then translates
+	 *
+	 * @param rotation 3x3 rotation, e.g. from Camera.rotation
+	 * @param scale Uniform scale
+	 * @param x, y, z Translation
+	 * @return transform 4x4
+	 */
+	public static float[][] transform(float[][] rotation, float scale, float x, float y, float z) {
+		return new float[][] {
+			{rotation[0][0]*scale, rotation[0][1]*scale, rotation[0][2]*scale, x},
+			{rotation[1][0]*scale, rotation[1][1]*scale, rotation[1][2]*scale, y},
+			{rotation[2][0]*scale, rotation[2][1]*scale, rotation[2][2]*scale, z},
+			{0, 0, 0, 1}};
+	}
+	
+	/*
+	 * Inverts an affine transform, A^-1 by the adjugate then -A^-1 b
+	 *
+	 * @return inverse Top 3 rows row by row
+	 */
+	private static float[] invert(float[][] m) {
+		float[] inverse = new float[12];
+		float[] adjugate = {
+			(m[1][1]*m[2][2]) - (m[1][2]*m[2][1]), (m[0][2]*m[2][1]) - (m[0][1]*m[2][2]),
+			(m[0][1]*m[1][2]) - (m[0][2]*m[1][1]),
+			(m[1][2]*m[2][0]) - (m[1][0]*m[2][2]), (m[0][0]*m[2][2]) - (m[0][2]*m[2][0]),
+			(m[0][2]*m[1][0]) - (m[0][0]*m[1][2]),
+			(m[1][0]*m[2][1]) - (m[1][1]*m[2][0]), (m[0][1]*m[2][0]) - (m[0][0]*m[2][1]),
+			(m[0][0]*m[1][1]) - (m[0][1]*m[1][0])};
+		float determinant = (m[0][0]*adjugate[0]) + (m[0][1]*adjugate[3]) + (m[0][2]*adjugate[6]);
+		
+		if (determinant == 0) {
+			throw new IllegalArgumentException("Transform is not invertible");
+		}
+		
+		for (int row=0; row<3; row++) {
+			for (int col=0; col<3; col++) {
+				inverse[(row*4)+col] = adjugate[(row*3)+col] / determinant;
+			}
+			inverse[(row*4)+3] = -((inverse[row*4]*m[0][3]) + (inverse[(row*4)+1]*m[1][3])
+					+ (inverse[(row*4)+2]*m[2][3]));
+		}
+		return inverse;
+	}
+	
+	/*
+	 * Bounding box of a transformed box, from its eight transformed corners
+	 */
+	private static float[] transformBounds(float[] box, float[][] m) {
+		float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		
+		for (int corner=0; corner<8; corner++) {
+			float x = box[(corner & 1) == 0 ? 0 : 3];
+			float y = box[(corner & 2) == 0 ? 1 : 4];
+			float z = box[(corner & 4) == 0 ? 2 : 5];
+			for (int axis=0; axis<3; axis++) {
+				float value = (m[axis][0]*x) + (m[axis][1]*y) + (m[axis][2]*z) + m[axis][3];
+				bounds[axis] = Math.min(bounds[axis], value);
+				bounds[axis+3] = Math.max(bounds[axis+3], value);
+			}
+		}
+		return bounds;
+	}
+	
+	/*
+	 * Lays out instances of one mesh on a grid in the x-z plane, each turned a
+	 * different amount about y
+	 *
+	 * @param mesh Geometry shared by every instance
+	 * @param columns Instances along x
+	 * @param rows Instances along z
+	 * @return scene
+	 */
+	public static Scene grid(RenderObject mesh, int columns, int rows) {
+		if (columns < 1 || rows < 1) {
+			throw new IllegalArgumentException("Grid must be at least 1x1");
+		}
+		
+		float[] box = mesh.getBoundingBox();
+		// Far enough apart that no turn makes neighbours overlap
+		float spacing = 1.25f * (float) Math.sqrt(Math.pow(box[3]-box[0], 2) + Math.pow(box[5]-box[2], 2));
+		float centreX = 0.5f * (box[0]+box[3]), centreZ = 0.5f * (box[2]+box[5]);
+		Scene scene = new Scene();
+		
+		for (int row=0; row<rows; row++) {
+			for (int column=0; column<columns; column++) {
+				float[][] rotation = Camera.rotation(0, 360f * ((row*columns)+column) / (rows*columns), 0);
+				// Turn about the mesh's own centre, then move it to its place on the grid
+				float[][] transform = transform(rotation, 1, 0, 0, 0);
+				for (int axis=0; axis<3; axis++) {
+					transform[axis][3] = -((rotation[axis][0]*centreX) + (rotation[axis][2]*centreZ));
+				}
+				transform[0][3] += centreX + (column*spacing);
+				transform[2][3] += centreZ + (row*spacing);
+				scene.add(mesh, transform);
+			}
+		}
+		return scene;
+	}
+	
+	/*
+	 * Rasterizes and ray traces a grid of instances of the default model, writing
+	 * image_scene.jpg and image_scene_RayTraced.jpg
+	 *
+	 * @param columns Instances along x
+	 * @param rows Instances along z
+	 * @param threads Number of render threads
+	 */
+	public static void demo(int columns, int rows, int threads) {
+		try {
+			Scene scene = grid(new RenderObject(), columns, rows);
+			Camera camera = new Camera();
+			camera.setR(Camera.rotation(-30, 30, 0));
+			
+			Rasterizer rasterizer = new Rasterizer(null, camera);
+			rasterizer.setScene(scene);
+			rasterizer.setThreads(threads);
+			camera.calibrate(scene.getPoints(), rasterizer.getImageBuffer().getWidth(),
+					rasterizer.getImageBuffer().getHeight(), true);
+			
+			long start = System.nanoTime();
+			rasterizer.renderFrame();
+			long rasterTime = System.nanoTime() - start;
+			
+			RayTracer rayTracer = new RayTracer(null, camera);
+			rayTracer.setScene(scene);
+			rayTracer.setThreads(threads);
+			rayTracer.renderFrame();
+			
+			System.out.printf("Scene: %d instances of %d mesh, %d triangles%n", scene.size(),
+					scene.getMeshCount(), scene.getFaceCount());
+			System.out.println(rasterizer.getCullingStats());
+			System.out.printf("Rasterized in %.1f ms, ray traced in %.1f ms%n", rasterTime / 1e6,
+					rayTracer.getFrameTime() / 1e6);
+			System.out.println(rayTracer.getSceneBVH());
+			
+			try (ImageEncoder encoder = new ImageEncoder(2)) {
+				CompletableFuture.allOf(
+						encoder.encode(rasterizer.getImageBuffer(), Paths.get("image_scene.jpg")),
+						encoder.encode(rayTracer.getImageBuffer(), Paths.get("image_scene_RayTraced.jpg"))).join();
+			}
+			rasterizer.releaseBuffers();
+			rayTracer.releaseBuffers();
+		
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		
+		System.out.println("Complete");
+	}
+}
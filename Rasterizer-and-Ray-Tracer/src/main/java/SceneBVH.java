@@ -0,0 +1,283 @@
+package main.java;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Two level bounding volume hierarchy over a Scene. Each distinct mesh gets one
+ * BVH in its own object space, shared by all of its instances. Above them sits a
+ * small tree over the instances' world space bounding boxes, flattened the same
+ * way as BVH's, with instance numbers in place of triangles.
+ *
+ * A ray reaching an instance is taken into object space by the instance's
+ * inverse transform. The direction is transformed but not normalised, so
+ * distances along the ray are the same in both spaces and hits from different
+ * instances compare directly.
+ */
+public class SceneBVH {
+	
+	// Leaves hold at most this many instances
+	private static final int MAX_LEAF_SIZE = 2;
+	
+	// Copy of the scene's instances when built, and its modification count then
+	private final List<Scene.Instance> instances;
+	
+	private final int sceneModCount;
+	
+	// Hierarchy of each instance's mesh, indexed like instances
+	private final BVH[] meshBVHs;
+	
+	private float[] nodeBounds;
+	
+	private int[] nodeData;
+	
+	// Instance numbers in leaf order
+	private int[] order;
+	
+	private int nodeCount, meshCount, depth;
+	
+	private long buildTime;
+	
+	/*
+	 * Result of a ray query
+	 */
+	public static class Hit extends BVH.Hit {
+		// Index of the instance hit in the scene, -1 if nothing was hit
+		public int instance = -1;
+		
+		// Object space query result, reused for every instance tried
+		private final BVH.Hit local = new BVH.Hit();
+	}
+	
+	/*
+	 * Builds the hierarchy, building each mesh's on the given number of threads
+	 *
+	 * @param scene Scene to build over, later changes to it are not seen. Compare
+	 * getSceneModCount() with the scene's to find if it has changed since.
+	 * @param threads Number of threads to build each mesh's hierarchy with
+	 */
+	public SceneBVH(Scene scene, int threads) {
+		long start = System.nanoTime();
+		
+		this.instances = new ArrayList<Scene.Instance>(scene.getInstances());
+		this.sceneModCount = scene.getModCount();
+		int count = instances.size();
+		
+		Map<RenderObject, BVH> meshes = new IdentityHashMap<RenderObject, BVH>();
+		meshBVHs = new BVH[count];
+		for (int i=0; i<count; i++) {
+			RenderObject mesh = instances.get(i).getMesh();
+			meshBVHs[i] = meshes.computeIfAbsent(mesh, key -> new BVH(key, threads));
+		}
+		meshCount = meshes.size();
+		
+		order = new int[count];
+		for (int i=0; i<count; i++) order[i] = i;
+		
+		// At most 2n - 1 nodes for n leaves
+		nodeBounds = new float[Math.max(2*count - 1, 0)*6];
+		nodeData = new int[Math.max(2*count - 1, 0)*2];
+		if (count > 0) build(0, count, 1);
+		
+		buildTime = System.nanoTime() - start;
+	}
+	
+	/*
+	 * Writes the subtree over order[first, first + count) as node nodeCount,
+	 * splitting at the median along the longest axis of the instances' centres
+	 */
+	private void build(int first, int count, int level) {
+		int node = nodeCount++;
+		depth = Math.max(depth, level);
+		
+		float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		float[] centres = bounds.clone();
+		for (int i=first; i<first+count; i++) {
+			float[] box = instances.get(order[i]).getBoundingBox();
+			for (int axis=0; axis<3; axis++) {
+				bounds[axis] = Math.min(bounds[axis], box[axis]);
+				bounds[axis+3] = Math.max(bounds[axis+3], box[axis+3]);
+				float centre = box[axis] + box[axis+3];
+				centres[axis] = Math.min(centres[axis], centre);
+				centres[axis+3] = Math.max(centres[axis+3], centre);
+			}
+		}
+		System.arraycopy(bounds, 0, nodeBounds, node*6, 6);
+		
+		if (count <= MAX_LEAF_SIZE) {
+			nodeData[node*2] = first;
+			nodeData[(node*2)+1] = count;
+			return;
+		}
+		
+		int axis = 0;
+		for (int a=1; a<3; a++) {
+			if (centres[a+3] - centres[a] > centres[axis+3] - centres[axis]) axis = a;
+		}
+		sortByCentre(first, count, axis);
+		
+		int mid = first + (count/2);
+		build(first, mid - first, level + 1);
+		nodeData[node*2] = nodeCount;
+		nodeData[(node*2)+1] = -1 - axis;
+		build(mid, first + count - mid, level + 1);
+	}
+	
+	/*
+	 * Insertion sort of order[first, first + count) by bounding box centre, scenes
+	 * rarely have enough instances for anything more
+	 */
+	private void sortByCentre(int first, int count, int axis) {
+		for (int i=first+1; i<first+count; i++) {
+			int instance = order[i];
+			float centre = centre(instance, axis);
+			int j = i - 1;
+			while (j >= first && centre(order[j], axis) > centre) {
+				order[j+1] = order[j];
+				j--;
+			}
+			order[j+1] = instance;
+		}
+	}
+	
+	private float centre(int instance, int axis) {
+		float[] box = instances.get(instance).getBoundingBox();
+		return box[axis] + box[axis+3];
+	}
+	
+	/*
+	 * Finds the closest triangle of any instance hit by a ray
+	 *
+	 * @param ox, oy, oz Ray origin in world space
+	 * @param dx, dy, dz Ray direction in world space
+	 * @param tMax Ignore hits further than this along the ray
+	 * @param hit Filled in with the closest hit, face is in the instance's mesh
+	 * @return Whether anything was hit
+	 */
+	public boolean intersect(float ox, float oy, float oz, float dx, float dy, float dz,
+			float tMax, Hit hit) {
+		hit.face = -1;
+		hit.instance = -1;
+		hit.t = tMax;
+		if (nodeCount == 0) return false;
+		
+		float invX = 1f / dx, invY = 1f / dy, invZ = 1f / dz;
+		boolean negX = dx < 0, negY = dy < 0, negZ = dz < 0;
+		int[] stack = BVH.stack(hit, depth);
+		int top = 0, node = 0;
+		
+		while (true) {
+			if (slab(node, ox, oy, oz, invX, invY, invZ, hit.t)) {
+				int a = nodeData[node*2], b = nodeData[(node*2)+1];
+				
+				if (b >= 0) {
+					for (int i=a; i<a+b; i++) {
+						intersectInstance(order[i], ox, oy, oz, dx, dy, dz, hit);
+					}
+				}
+				else {
+					// Visit the child nearer the ray origin first
+					if (b == -1 ? negX : b == -2 ? negY : negZ) {
+						stack[top++] = node + 1;
+						node = a;
+					}
+					else {
+						stack[top++] = a;
+						node = node + 1;
+					}
+					continue;
+				}
+			}
+			if (top == 0) break;
+			node = stack[--top];
+		}
+		return hit.face >= 0;
+	}
+	
+	/*
+	 * Ray against one instance's mesh in object space, updating hit if it is closer
+	 */
+	private void intersectInstance(int instance, float ox, float oy, float oz, float dx, float dy, float dz,
+			Hit hit) {
+		float[] m = instances.get(instance).getInverse();
+		float lox = (m[0]*ox) + (m[1]*oy) + (m[2]*oz) + m[3];
+		float loy = (m[4]*ox) + (m[5]*oy) + (m[6]*oz) + m[7];
+		float loz = (m[8]*ox) + (m[9]*oy) + (m[10]*oz) + m[11];
+		float ldx = (m[0]*dx) + (m[1]*dy) + (m[2]*dz);
+		float ldy = (m[4]*dx) + (m[5]*dy) + (m[6]*dz);
+		float ldz = (m[8]*dx) + (m[9]*dy) + (m[10]*dz);
+		
+		BVH.Hit local = hit.local;
+		if (meshBVHs[instance].intersect(lox, loy, loz, ldx, ldy, ldz, hit.t, local)) {
+			hit.t = local.t;
+			hit.face = local.face;
+			hit.u = local.u;
+			hit.v = local.v;
+			hit.instance = instance;
+		}
+	}
+	
+	/*
+	 * Ray against a node's bounds, rejecting boxes entirely beyond tMax
+	 */
+	private boolean slab(int node, float ox, float oy, float oz, float invX, float invY, float invZ,
+			float tMax) {
+		int n = node*6;
+		float t0 = (nodeBounds[n] - ox) * invX, t1 = (nodeBounds[n+3] - ox) * invX;
+		float near = Math.min(t0, t1), far = Math.max(t0, t1);
+		t0 = (nodeBounds[n+1] - oy) * invY;
+		t1 = (nodeBounds[n+4] - oy) * invY;
+		near = Math.max(near, Math.min(t0, t1));
+		far = Math.min(far, Math.max(t0, t1));
+		t0 = (nodeBounds[n+2] - oz) * invZ;
+		t1 = (nodeBounds[n+5] - oz) * invZ;
+		near = Math.max(near, Math.min(t0, t1));
+		far = Math.min(far, Math.max(t0, t1));
+		return near <= far && far >= 0 && near <= tMax;
+	}
+	
+	/*
+	 * @param instance Index of an instance in the scene
+	 * @return bvh Hierarchy over the instance's mesh, shared with its other instances
+	 */
+	public BVH getMeshBVH(int instance) {
+		return this.meshBVHs[instance];
+	}
+	
+	/*
+	 * @return nodeCount Nodes in the instance level tree
+	 */
+	public int getNodeCount() {
+		return this.nodeCount;
+	}
+	
+	/*
+	 * @return meshCount Number of mesh hierarchies built
+	 */
+	public int getMeshCount() {
+		return this.meshCount;
+	}
+	
+	/*
+	 * @return sceneModCount The scene's modification count when the hierarchy was built
+	 */
+	public int getSceneModCount() {
+		return this.sceneModCount;
+	}
+	
+	/*
+	 * @return buildTime Build time in nanoseconds, including the meshes' hierarchies
+	 */
+	public long getBuildTime() {
+		return this.buildTime;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("Scene BVH: %d instances, %d nodes, depth %d, %d mesh hierarchies, built in %.2f ms",
+				order.length, nodeCount, depth, meshCount, buildTime / 1e6);
+	}
+}
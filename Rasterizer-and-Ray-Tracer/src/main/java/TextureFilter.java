@@ -0,0 +1,11 @@
+package main.java;
+
+/*
+ * How a texture is sampled between texels and between mip levels
+ */
+public enum TextureFilter {
+	// Blend the four nearest texels of the nearest mip level
+	BILINEAR,
+	// Blend bilinear samples of the two mip levels either side of the footprint
+	TRILINEAR
+}
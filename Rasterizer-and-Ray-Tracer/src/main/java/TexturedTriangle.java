@@ -0,0 +1,133 @@
+package main.java;
+
+/*
+ * Perspective correct texturing of one triangle at a time. Texture coordinates
+ * divided by depth, and 1/depth itself, are linear in screen space, so they are
+ * interpolated with the triangle's screen barycentrics and divided back per
+ * pixel. Their screen gradients give each pixel's texture footprint, and so its
+ * mip level, without looking at neighbouring pixels.
+ */
+public class TexturedTriangle {
+	
+	private Texture texture;
+	
+	private TextureFilter filter;
+	
+	// 1/w, u/w and v/w at the first vertex and their change towards the other two
+	private float q0, dq1, dq2, s0, ds1, ds2, t0, dt1, dt2;
+	
+	// Change in 1/w, u/w and v/w for a step of one pixel in x and in y
+	private float qx, qy, sx, sy, tx, ty;
+	
+	/*
+	 * @param texture Texture to sample
+	 * @param filter How to blend texels and levels
+	 */
+	public TexturedTriangle(Texture texture, TextureFilter filter) {
+		this.texture = texture;
+		this.filter = filter;
+	}
+	
+	/*
+	 * Texturing to be given its texture by setTexture before use, so one object
+	 * can be kept and set up again for each triangle
+	 */
+	public TexturedTriangle() {
+	}
+	
+	/*
+	 * @param texture Texture to sample
+	 * @param filter How to blend texels and levels
+	 */
+	public void setTexture(Texture texture, TextureFilter filter) {
+		this.texture = texture;
+		this.filter = filter;
+	}
+	
+	/*
+	 * Sets up the triangle to shade. Barycentrics l1 and l2 are the weights of the
+	 * second and third vertices.
+	 *
+	 * @param texcoords Texture coordinates, u,v for each corner of each triangle
+	 * @param offset Index of the triangle's first u in texcoords
+	 * @param z0 Depth of the first vertex
+	 * @param z1 Depth of the second vertex
+	 * @param z2 Depth of the third vertex
+	 * @param l1dx Change in l1 for a step in x
+	 * @param l1dy Change in l1 for a step in y
+	 * @param l2dx Change in l2 for a step in x
+	 * @param l2dy Change in l2 for a step in y
+	 */
+	public void set(float[] texcoords, int offset, float z0, float z1, float z2,
+			float l1dx, float l1dy, float l2dx, float l2dy) {
+		float 	w0 = 1f / z0, w1 = 1f / z1, w2 = 1f / z2;
+		
+		q0 = w0;
+		dq1 = w1 - w0;
+		dq2 = w2 - w0;
+		s0 = texcoords[offset] * w0;
+		ds1 = (texcoords[offset+2] * w1) - s0;
+		ds2 = (texcoords[offset+4] * w2) - s0;
+		t0 = texcoords[offset+1] * w0;
+		dt1 = (texcoords[offset+3] * w1) - t0;
+		dt2 = (texcoords[offset+5] * w2) - t0;
+		
+		qx = (l1dx*dq1) + (l2dx*dq2);
+		qy = (l1dy*dq1) + (l2dy*dq2);
+		sx = (l1dx*ds1) + (l2dx*ds2);
+		sy = (l1dy*ds1) + (l2dy*ds2);
+		tx = (l1dx*dt1) + (l2dx*dt2);
+		ty = (l1dy*dt1) + (l2dy*dt2);
+	}
+	
+	/*
+	 * Samples the texture at a point of the triangle
+	 *
+	 * @param l1 Screen barycentric weight of the second vertex
+	 * @param l2 Screen barycentric weight of the third vertex
+	 * @return packed RGB colour
+	 */
+	public int shade(float l1, float l2) {
+		float inverse = 1f / (q0 + (l1*dq1) + (l2*dq2));
+		float u = (s0 + (l1*ds1) + (l2*ds2)) * inverse;
+		float v = (t0 + (l1*dt1) + (l2*dt2)) * inverse;
+		
+		// Quotient rule, d(s/q) = (ds - (s/q) dq) / q, scaled to level 0 texels
+		int width = texture.getWidth(), height = texture.getHeight();
+		float 	dudx = (sx - (u*qx)) * inverse * width, dvdx = (tx - (v*qx)) * inverse * height,
+				dudy = (sy - (u*qy)) * inverse * width, dvdy = (ty - (v*qy)) * inverse * height;
+		float footprint = Math.max((dudx*dudx) + (dvdx*dvdx), (dudy*dudy) + (dvdy*dvdy));
+		
+		// Half the log of the squared footprint
+		return texture.sample(u, v, 0.5f * Texture.log2(footprint), filter);
+	}
+	
+	/*
+	 * Depth tests pixels start to end-1 of a horizontal span and shades those that
+	 * pass from the texture. Values step along the span as in Kernels.fillSpan.
+	 *
+	 * @param depth Z-buffer data, indexed y*width + x
+	 * @param pixels Image data, indexed y*width + x
+	 * @param offset Index of pixel 0 of the span
+	 * @param start First pixel to fill (inclusive)
+	 * @param end Last pixel to fill (exclusive)
+	 * @return number of pixels that passed the depth test
+	 */
+	public int fillSpan(float[] depth, int[] pixels, int offset, int start, int end,
+			float z, float dzdx, float l1, float dl1dx, float l2, float dl2dx) {
+		int written = 0;
+		
+		for (int k=start; k<end; k++) {
+			float pixelZ = z + k*dzdx;
+			int i = offset + k;
+			
+			if (pixelZ < depth[i]) {
+				depth[i] = pixelZ;
+				pixels[i] = shade(l1 + k*dl1dx, l2 + k*dl2dx);
+				written++;
+			}
+		}
+		
+		return written;
+	}
+}
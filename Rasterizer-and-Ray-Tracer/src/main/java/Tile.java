@@ -0,0 +1,56 @@
+package main.java;
+
+import java.util.Arrays;
+
+public class Tile {
+	
+	// Pixel bounds of the tile, min inclusive and max exclusive
+	public final int minX, minY, maxX, maxY;
+	
+	// Indices of the faces overlapping this tile, in face order
+	private int[] faces = new int[16];
+	
+	private int size = 0;
+	
+	/*
+	 * Initialises an empty tile covering the given pixel bounds
+	 * 
+	 * @param minX Left edge (inclusive)
+	 * @param minY Top edge (inclusive)
+	 * @param maxX Right edge (exclusive)
+	 * @param maxY Bottom edge (exclusive)
+	 */
+	public Tile(int minX, int minY, int maxX, int maxY) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+	
+	/*
+	 * Appends a face to the tile
+	 * 
+	 * @param face Index of the face
+	 */
+	public void add(int face) {
+		if (size == faces.length) {
+			faces = Arrays.copyOf(faces, size*2);
+		}
+		faces[size++] = face;
+	}
+	
+	/*
+	 * @param i Position in the tile's face list
+	 * @return face index
+	 */
+	public int get(int i) {
+		return faces[i];
+	}
+	
+	/*
+	 * @return number of faces in the tile
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,75 @@
+package main.java;
+
+import java.util.Arrays;
+
+/*
+ * Per pixel record of which triangle is visible and where on it, written by the
+ * rasterizer's visibility pass in place of colours. Depths live in the Z buffer
+ * alongside it. A later pass shades each covered pixel once from these values,
+ * however many triangles were drawn over it.
+ */
+public class VisibilityBuffer extends Buffer {
+	
+	// Marks a pixel no triangle has covered
+	public static final int EMPTY = -1;
+	
+	// Index of the visible triangle in the frame's triangles, indexed y*width + x
+	private int[] triangles;
+	
+	// Barycentric weights of the triangle's second and third vertices, the first
+	// vertex's weight is 1 - u - v
+	private float[] u, v;
+	
+	/*
+	 * Initialises an empty buffer of the given size
+	 *
+	 * @param width
+	 * @param height
+	 */
+	public VisibilityBuffer(int width, int height) {
+		super(width, height);
+		triangles = new int[this.height * this.width];
+		u = new float[this.height * this.width];
+		v = new float[this.height * this.width];
+		
+		reset();
+	}
+	
+	/*
+	 * Marks every pixel empty so the buffer can be reused for another frame. The
+	 * barycentrics of empty pixels are never read so are left as they are.
+	 */
+	public void reset() {
+		Arrays.fill(triangles, EMPTY);
+	}
+	
+	/*
+	 * @param x
+	 * @param y
+	 * @return triangle visible at x,y or EMPTY
+	 */
+	public int getTriangle(int x, int y) {
+		return triangles[(y*width)+x];
+	}
+	
+	/*
+	 * @return triangles Visible triangle per pixel, indexed y*width + x
+	 */
+	public int[] getTriangles() {
+		return triangles;
+	}
+	
+	/*
+	 * @return u Weight of each visible triangle's second vertex, indexed y*width + x
+	 */
+	public float[] getU() {
+		return u;
+	}
+	
+	/*
+	 * @return v Weight of each visible triangle's third vertex, indexed y*width + x
+	 */
+	public float[] getV() {
+		return v;
+	}
+}
@@ -2,26 +2,198 @@ package main.java;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
-import javax.imageio.ImageIO;
-
+/*
+ * Camera space depth of the nearest surface at each pixel, infinity where nothing
+ * was drawn.
+ *
+ * The depth range used to write the buffer out as an image is not tracked in the
+ * rasterizer's span kernels. The nearest depth written is the final minimum, but
+ * the furthest written may later be covered by something nearer, so the maximum
+ * and the pixels covered can only be found from the finished depths. Rasterized
+ * frames therefore measure() each tile in a separate pass once it is filled, on
+ * the thread that filled it while its depths are still in cache, or the whole
+ * buffer after a single threaded frame. Only the ray tracer, which writes each
+ * pixel once, reports its range as it draws through extendRange().
+ */
 public class ZBuffer extends Buffer {
 	
-	private float[][] buffer;
+	// Depth values, indexed y*width + x. Multisampled frames keep the furthest of 
+	// each pixel's samples here.
+	private float[] buffer;
+	
+	// Samples per pixel, and their depths with each pixel's together, indexed 
+	// ((y*width + x) * samples) + sample. Null for one sample.
+	private int samples = 1;
+	
+	private float[] sampleBuffer;
+	
+	// Nearest depth and furthest finite depth, gathered a region at a time by measure()
+	private float min, max;
+	
+	private boolean measured;
+	
+	// Pixels holding a depth, counted along with the range
+	private long covered;
 
 	/*
 	 * Initialises a buffer of size height x width with values of infinity
 	 */
 	public ZBuffer() {
-		buffer = new float[this.height][this.width];
+		this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+	}
+	
+	/*
+	 * Initialises a buffer of the given size with values of infinity
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public ZBuffer(int width, int height) {
+		super(width, height);
+		buffer = new float[this.height * this.width];
+		
+		reset();
+	}
+	
+	/*
+	 * Sets every depth back to infinity so the buffer can be reused for another frame.
+	 */
+	public void reset() {
+		Arrays.fill(buffer, Float.POSITIVE_INFINITY);
+		if (sampleBuffer != null) {
+			Arrays.fill(sampleBuffer, Float.POSITIVE_INFINITY);
+		}
+		
+		synchronized (this) {
+			min = Float.POSITIVE_INFINITY;
+			max = 0;
+			covered = 0;
+			measured = false;
+		}
+	}
+	
+	/*
+	 * Gives the buffer storage for a depth per sample, kept until the count changes.
+	 * The depths are cleared by the next reset.
+	 * 
+	 * @param samples Samples per pixel, 1 to drop the sample depths
+	 */
+	public void setSamples(int samples) {
+		if (samples < 1) {
+			throw new IllegalArgumentException("Sample count must be at least 1");
+		}
+		if (samples == this.samples) return;
 		
-		for(int y=0; y<this.getHeight(); y++) {
-			for(int x=0; x<this.getWidth(); x++) {
-				buffer[y][x] = Float.POSITIVE_INFINITY;
+		this.samples = samples;
+		sampleBuffer = samples > 1 ? new float[this.height * this.width * samples] : null;
+	}
+	
+	/*
+	 * @return samples Samples per pixel
+	 */
+	public int getSamples() {
+		return this.samples;
+	}
+	
+	/*
+	 * @return sampleBuffer Depth of each sample, indexed ((y*width + x) * samples) + sample, 
+	 * null for one sample
+	 */
+	public float[] getSampleBuffer() {
+		return this.sampleBuffer;
+	}
+	
+	/*
+	 * @return sampleBytes Memory taken by the sample depths
+	 */
+	public long getSampleBytes() {
+		return sampleBuffer != null ? (long) sampleBuffer.length * Float.BYTES : 0;
+	}
+	
+	/*
+	 * Adds a finished region's depths to the range used to normalise the buffer
+	 * into an image. Renderers call this as each tile is completed, while its
+	 * depths are still in cache, so writing the image out needs no search of its
+	 * own. Regions may be measured from different threads.
+	 * 
+	 * @param minX Left of the region
+	 * @param minY Top of the region
+	 * @param maxX Right of the region, exclusive
+	 * @param maxY Bottom of the region, exclusive
+	 */
+	public void measure(int minX, int minY, int maxX, int maxY) {
+		float regionMax = 0, regionMin = Float.POSITIVE_INFINITY;
+		int regionCovered = 0;
+		
+		for (int y=minY; y<maxY; y++) {
+			for (int i=(y*width)+minX, end=(y*width)+maxX; i<end; i++) {
+				float z = buffer[i];
+				if (z != Float.POSITIVE_INFINITY) {
+					regionCovered++;
+					if (regionMax < z) 
+						regionMax = z;
+				}
+				
+				if (regionMin > z) 
+					regionMin = z;
 			}
 		}
+		
+		extendRange(regionMin, regionMax, regionCovered);
+	}
+	
+	/*
+	 * Adds a region's depth range found while it was drawn, for renderers that
+	 * write each pixel once and can track it as they go
+	 * 
+	 * @param regionMin Nearest depth written
+	 * @param regionMax Furthest finite depth written, 0 if none
+	 * @param regionCovered Pixels of the region given a depth
+	 */
+	public synchronized void extendRange(float regionMin, float regionMax, int regionCovered) {
+		max = Math.max(max, regionMax);
+		min = Math.min(min, regionMin);
+		covered += regionCovered;
+		measured = true;
+	}
+	
+	/*
+	 * Measures the whole buffer when nothing has been measured since the last reset,
+	 * e.g. when it was filled with check() alone
+	 */
+	void measureIfNeeded() {
+		boolean measured;
+		synchronized (this) {
+			measured = this.measured;
+		}
+		if (!measured) {
+			measure(0, 0, width, height);
+		}
+	}
+	
+	/*
+	 * @return min Nearest depth measured since the last reset, infinity if none
+	 */
+	public synchronized float getMin() {
+		return this.min;
+	}
+	
+	/*
+	 * @return covered Pixels holding a depth, over the regions measured since the last reset
+	 */
+	public synchronized long getCovered() {
+		return this.covered;
+	}
+	
+	/*
+	 * @return max Furthest finite depth measured since the last reset, at least 0
+	 */
+	public synchronized float getMax() {
+		return this.max;
 	}
 	
 	/*
@@ -34,8 +206,10 @@ public class ZBuffer extends Buffer {
 	 * @returns boolean True if Z-buffer has been updated
 	 */
 	public boolean check(int x, int y, float z) {
-		if(z<buffer[y][x]) {
-			buffer[y][x] = z;
+		int i = (y*width)+x;
+		
+		if(z<buffer[i]) {
+			buffer[i] = z;
 			
 			return true;
 		}
@@ -44,48 +218,58 @@ public class ZBuffer extends Buffer {
 	}
 	
 	/*
-	 * Converts the z buffer to an image
+	 * @param x
+	 * @param y
+	 * @return depth at x,y
+	 */
+	public float get(int x, int y) {
+		return buffer[(y*width)+x];
+	}
+	
+	/*
+	 * @return buffer Depth values, indexed y*width + x
+	 */
+	public float[] getBuffer() {
+		return buffer;
+	}
+	
+	/*
+	 * Converts the z buffer to an image, measuring the whole buffer first if no
+	 * renderer has
 	 * 
-	 * @param name Name of file
+	 * @param name Name of file, its extension picks the format
 	 */
 	public void convertToImage(String name) throws IOException {
-		BufferedImage zBuffer= new BufferedImage(this.width, this.height, BufferedImage.TYPE_BYTE_GRAY);
-		
-		// Find the min and max z value in mesh
-		// Use min as the near clipping plane
-		// Use max as the far clipping plane
-		float max = 0, min = Float.POSITIVE_INFINITY;
+		measureIfNeeded();
 		
-		for(int y=0; y<this.height; y++) {
-			for(int x=0; x<this.width; x++) {
-				
-				if (max < buffer[y][x] && buffer[y][x] != Float.POSITIVE_INFINITY) 
-					max = buffer[y][x];
-				
-				if (min > buffer[y][x]) 
-					min = buffer[y][x];
-				
-			}
-		}
+		BufferedImage zBuffer= new BufferedImage(this.width, this.height, BufferedImage.TYPE_BYTE_GRAY);
 		
 		// Direct reference to the data inside BufferedImage
-		byte[] databuffer = ((DataBufferByte)zBuffer.getRaster().getDataBuffer()).getData();
+		toGrey(buffer, getMin(), getMax(), ((DataBufferByte)zBuffer.getRaster().getDataBuffer()).getData());
 		
-		for(int y=0; y<this.height; y++) {
-			for(int x=0; x<this.width; x++) {
-				if (buffer[y][x] == Float.POSITIVE_INFINITY) {
-					databuffer[(y*width)+x] = (byte) 0;
-				}
-				else {
-					// Z value divided by max value to get val between 0 and 1
-					// Invert so when val = 1 it becomes 0 (want far away to be black = 0)
-					databuffer[(y*width)+x] = (byte) (((((buffer[y][x]-min)/(max-min))-1f)*-1f)*255f);
-				}
+		ImageEncoder.write(zBuffer, Paths.get(name), ImageFormat.fromFileName(name));
+	}
+	
+	/*
+	 * Maps depths to grey levels, min as the near clipping plane (white) and max
+	 * as the far clipping plane (black). Empty pixels are black.
+	 * 
+	 * @param depths Depth values
+	 * @param min Nearest depth
+	 * @param max Furthest finite depth
+	 * @param grey Grey levels to write, same length as depths
+	 */
+	static void toGrey(float[] depths, float min, float max, byte[] grey) {
+		for(int i=0; i<depths.length; i++) {
+			if (depths[i] == Float.POSITIVE_INFINITY) {
+				grey[i] = (byte) 0;
+			}
+			else {
+				// Z value divided by max value to get val between 0 and 1
+				// Invert so when val = 1 it becomes 0 (want far away to be black = 0)
+				grey[i] = (byte) (((((depths[i]-min)/(max-min))-1f)*-1f)*255f);
 			}
 		}
-		
-		File outputfile = new File(name);
-		ImageIO.write(zBuffer, "jpg", outputfile);
 	}
 	
 }